@@ -1,41 +1,56 @@
 package org.apache.spark.mapmatch
 
-import com.alibaba.fastjson.JSON
-import contractionhierarchy.{CHAccessor, CHRoadSegment}
-import org.apache.spark.model.st.{STCoord, STCoordSequence, Trajectory}
+import org.apache.hadoop.conf.Configuration
+import org.apache.hadoop.fs.Path
+import org.apache.hadoop.io.LongWritable
+import org.apache.spark.SparkContext
+import org.apache.spark.model.st.Trajectory
 import org.apache.spark.model.st.spatial.{SpatialCoord, SpatialCoordSequence}
 import org.apache.spark.model.st.spatial.graph.RoadSegment
+import org.apache.spark.rdd.RDD
 import org.apache.spark.utils.WKTUtils
-
-import scala.collection.JavaConverters._
-import java.sql.Timestamp
-import java.util
+import trajectorystore.TrajectoryTextParser
 
 object DataParser {
-  def recoverCHRoad(chRoadStr: String): CHRoadSegment = CHAccessor.read(chRoadStr)
-
-  def recoverTraj(trajString: String): Trajectory = {
-    val correctStr = trajString.replaceFirst("\\[", "[\"")
-      .replaceFirst(",", "\",")
-    val result = JSON.parseArray(correctStr, classOf[String]).asScala
+  /**
+    * suffix of binary trajectory files written by TrajectoryBinaryWriter
+    */
+  val BinaryTrajSuffix = ".traj"
 
-    require(result.size == 2,
-      throw new IllegalArgumentException(s"require two attributes: oid and point series, but found ${result.size}"))
+  /**
+    * suffix of road network snapshots written by RoadNetworkCompiler
+    */
+  val RoadNetworkSnapshotSuffix = ".rns"
 
-    val (oid, pointSeriesString) = (result.head, result.last)
-    val pointSeries = JSON.parseArray(pointSeriesString, classOf[String]).asScala.map(i => {
-      val element = JSON.parseArray(i, classOf[String]).asScala
-      val size = element.size
-      require(size == 3, throw new IllegalArgumentException(s"require three attributes: lng, lat, time, but found $size"))
-      element
-    })
+  /**
+    * binary trajectory files are read by TrajectoryInputFormat, text files are parsed line by line
+    */
+  def loadTrajectories(sc: SparkContext, path: String, minPartitions: Int): RDD[Trajectory] = {
+    if (path.endsWith(BinaryTrajSuffix)) {
+      // binary files are much smaller than text, limit the split size to keep the requested parallelism
+      val hadoopPath = new Path(path)
+      val totalBytes = hadoopPath.getFileSystem(sc.hadoopConfiguration).getContentSummary(hadoopPath).getLength
+      val conf = new Configuration(sc.hadoopConfiguration)
+      conf.setLong("mapreduce.input.fileinputformat.split.maxsize", math.max(1L, totalBytes / minPartitions))
+      sc.newAPIHadoopFile(path, classOf[TrajectoryInputFormat], classOf[LongWritable], classOf[Trajectory], conf)
+        .map(_._2)
+    } else {
+      sc.textFile(path, minPartitions).map(recoverTraj)
+    }
+  }
 
-    val stCoords = pointSeries.map(stStr => {
-      new STCoord(stStr(1).toDouble, stStr.last.toDouble, Timestamp.valueOf(stStr.head))
-    })
-    new Trajectory(oid, new STCoordSequence(stCoords.toArray))
+  /**
+    * one reusable parser per thread, it isn't thread safe
+    */
+  private val trajectoryParser = new ThreadLocal[TrajectoryTextParser] {
+    override def initialValue(): TrajectoryTextParser = new TrajectoryTextParser
   }
 
+  /**
+    * parsed in a single pass by the same parser as the local module
+    */
+  def recoverTraj(trajString: String): Trajectory = trajectoryParser.get().parse(trajString)
+
   def recoverRoadSegment(str: String): RoadSegment = {
     val attrs = str.split("\\|")
     val oid = attrs(0).toInt
@@ -54,13 +69,4 @@ object DataParser {
       .setLength(lengthInM / 1000)
       .setSpeedLimit(speedLimit)
   }
-
-  def recoverCache(lines: Array[String]): java.util.Map[(Integer, Integer), java.lang.Double] = {
-    val cacheMap = new util.HashMap[(Integer, Integer), java.lang.Double](lines.length)
-    lines.foreach(line => {
-      val attrs = line.split(",")
-      cacheMap.put((attrs(0).toInt, attrs(1).toInt), attrs(2).toDouble)
-    })
-    cacheMap
-  }
 }
@@ -1,15 +1,14 @@
 package org.apache.spark.mapmatch
 
-import contractionhierarchy.CHRoadSegment
+import java.util.function.Supplier
+
 import mapmatch.shortestpath.ShortestPathAlgoTypeEnum
-import mapmatch.tihmm.{TiHmmCacheMatcher, TiHmmMapMatcher, TiHmmMultipleMatcher}
+import mapmatch.tihmm.{ChunkedViterbi, MatcherOptions, TiHmmCacheMatcher, TiHmmMapMatcher, TiHmmMultipleMatcher}
 import org.apache.spark.mapmatch.DataParser._
 import org.apache.spark.mapmatch.serialize.SerializerRegistrator
-import org.apache.spark.model.st.spatial.graph.RoadSegment
+import org.apache.spark.model.st.spatial.graph.{RoadNetwork, RoadSegment}
 import org.apache.spark.serializer.KryoSerializer
-import org.apache.spark.{SparkConf, SparkContext}
-
-import java.util
+import org.apache.spark.{SparkConf, SparkContext, SparkFiles}
 
 object MapMatchApp {
   def main(args: Array[String]): Unit = {
@@ -28,20 +27,45 @@ object MapMatchApp {
     val chPath = args(3)
     val statPath = args(4)
     val shortAlgorithm = args(5).toInt
+    // optional, emit the viterbi sequence as soon as all paths converge (for very long trajectories)
+    val onlineViterbi = args.length > 6 && args(6).toBoolean
+    // optional, trajectories with at least this many points have the time steps of their windows computed concurrently,
+    // so that a single very long trajectory does not keep its task running alone on one core
+    val chunkThreshold = if (args.length > 7) args(7).toInt else 0
+    // optional, candidate policy, observation filter and stationary reuse, see MatcherOptions
+    val options = MatcherOptions.parse(if (args.length > 8) args(8) else null)
 
-    val trajRdd = sparkContext.textFile(trajPath, 1024).map(recoverTraj)
-    val roadSegments = sparkContext.textFile(rnPath).map(recoverRoadSegment).collect()
-    val cacheMap = if (shortAlgorithm != 5) new util.HashMap[(Integer, Integer), java.lang.Double]()
-    else recoverCache(sparkContext.textFile(cachePath).collect())
-    val chRoadSegments = if (shortAlgorithm < 6) Array.empty[CHRoadSegment]
-    else sparkContext.textFile(chPath).map(recoverCHRoad).collect()
+    val trajRdd = loadTrajectories(sparkContext, trajPath, 1024)
+    // a road network snapshot is shipped to every executor and memory-mapped there, it may contain the ch as well
+    val snapshot = rnPath.endsWith(RoadNetworkSnapshotSuffix)
+    if (snapshot) sparkContext.addFile(rnPath)
+    val snapshotName = if (snapshot) rnPath.substring(rnPath.lastIndexOf('/') + 1) else ""
+    val roadSegments = if (snapshot) Array.empty[RoadSegment]
+    else sparkContext.textFile(rnPath).map(recoverRoadSegment).collect()
+    // the ubodt file is shipped to every executor and memory-mapped there
+    if (shortAlgorithm == 5) sparkContext.addFile(cachePath)
+    val ubodtName = cachePath.substring(cachePath.lastIndexOf('/') + 1)
+    // binary contraction hierarchy written by CHBinaryAccessor, see mapmatch.batch.CHCompiler for building or converting one,
+    // shipped to every executor and memory-mapped there like the snapshot
+    val useCH = !snapshot && (shortAlgorithm == 6 || shortAlgorithm == 7)
+    if (useCH) sparkContext.addFile(chPath)
+    val chName = if (useCH) chPath.substring(chPath.lastIndexOf('/') + 1) else ""
 
     val bcRoadSegments = sparkContext.broadcast[Array[RoadSegment]](roadSegments)
-    val bcCacheMap = sparkContext.broadcast[util.Map[(Integer, Integer), java.lang.Double]](cacheMap)
-    val bcCHRoadSegments = sparkContext.broadcast[Array[CHRoadSegment]](chRoadSegments)
 
     val mapMatchRdd = trajRdd.mapPartitions(trajIter => {
-      val mapMatcher = getMapMatcher(shortAlgorithm, bcRoadSegments.value, bcCacheMap.value, bcCHRoadSegments.value)
+      def newMapMatcher(): TiHmmMapMatcher = {
+        val matcher = getMapMatcher(shortAlgorithm, bcRoadSegments.value, ubodtName, chName, snapshotName)
+        matcher.setOnlineViterbi(onlineViterbi)
+        options.apply(matcher)
+      }
+
+      val mapMatcher = newMapMatcher()
+      if (chunkThreshold > 0) {
+        mapMatcher.setChunkedViterbi(new ChunkedViterbi(chunkThreshold, new Supplier[TiHmmMapMatcher] {
+          override def get(): TiHmmMapMatcher = newMapMatcher()
+        }))
+      }
       trajIter.flatMap(traj => Option(mapMatcher.matchTrajToRoute(traj)))
     })
 
@@ -52,31 +76,43 @@ object MapMatchApp {
   }
 
   def getMapMatcher(shortAlgorithm: Int, roadSegemnts: Array[RoadSegment],
-                    cacheLines: util.Map[(Integer, Integer), java.lang.Double],
-                    chRoadSegments: Array[CHRoadSegment]): TiHmmMapMatcher = {
+                    ubodtName: String,
+                    chName: String,
+                    snapshotName: String = ""): TiHmmMapMatcher = {
+    def rn: RoadNetwork = if (snapshotName.nonEmpty) RoadNetworkContainer.getInstance(SparkFiles.get(snapshotName))
+    else RoadNetworkContainer.getInstance("rn", roadSegemnts, if (chName.nonEmpty) SparkFiles.get(chName) else "")
+
+    def chRn: RoadNetwork = {
+      val roadNetwork = rn
+      if (roadNetwork.getCHGraph == null) {
+        throw new IllegalArgumentException("the road network has no contraction hierarchy")
+      }
+      roadNetwork
+    }
 
     shortAlgorithm match {
       case 1 =>
-        val rn = RoadNetworkContainer.getInstance("rn", roadSegemnts, Array.empty)
         new TiHmmMapMatcher(rn, ShortestPathAlgoTypeEnum.ASTAR)
       case 2 =>
-        val rn = RoadNetworkContainer.getInstance("rn", roadSegemnts, Array.empty)
         new TiHmmMapMatcher(rn, ShortestPathAlgoTypeEnum.DIJKSTRA)
       case 3 =>
-        val rn = RoadNetworkContainer.getInstance("rn", roadSegemnts, Array.empty)
         new TiHmmMapMatcher(rn, ShortestPathAlgoTypeEnum.BI_DIJKSTRA)
       case 4 =>
-        val rn = RoadNetworkContainer.getInstance("rn", roadSegemnts, Array.empty)
         new TiHmmMultipleMatcher(rn, ShortestPathAlgoTypeEnum.BI_DIJKSTRA)
       case 5 =>
-        val rn = RoadNetworkContainer.getInstance("rn", roadSegemnts, Array.empty)
-        new TiHmmCacheMatcher(rn, cacheLines)
+        new TiHmmCacheMatcher(rn, UBODTContainer.getInstance(SparkFiles.get(ubodtName)))
       case 6 =>
-        val rn = RoadNetworkContainer.getInstance("rn", roadSegemnts, chRoadSegments)
-        new TiHmmMapMatcher(rn, ShortestPathAlgoTypeEnum.CH)
+        new TiHmmMapMatcher(chRn, ShortestPathAlgoTypeEnum.CH)
       case 7 =>
-        val rn = RoadNetworkContainer.getInstance("rn", roadSegemnts, chRoadSegments)
-        new TiHmmMultipleMatcher(rn, ShortestPathAlgoTypeEnum.CH)
+        new TiHmmMultipleMatcher(chRn, ShortestPathAlgoTypeEnum.CH)
+      case 8 =>
+        new TiHmmMapMatcher(rn, ShortestPathAlgoTypeEnum.CSR_ASTAR)
+      case 9 =>
+        new TiHmmMapMatcher(rn, ShortestPathAlgoTypeEnum.CSR_DIJKSTRA)
+      case 10 =>
+        new TiHmmMapMatcher(rn, ShortestPathAlgoTypeEnum.CSR_BI_DIJKSTRA)
+      case 11 =>
+        new TiHmmMultipleMatcher(rn, ShortestPathAlgoTypeEnum.BOUNDED_DIJKSTRA)
       case _ => throw new IllegalArgumentException("unrecognized algorithm type")
     }
   }
@@ -0,0 +1,193 @@
+package org.apache.spark.mapmatch
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.security.MessageDigest
+import java.util.UUID
+import java.util.zip.CRC32
+
+import contractionhierarchy.CHBinaryAccessor
+import org.apache.hadoop.conf.Configuration
+import org.apache.hadoop.fs.{FileStatus, FileSystem, Path}
+import org.apache.spark.model.st.spatial.graph.{RoadNetwork, RoadNode, RoadSegment}
+import org.jgrapht.alg.shortestpath.ContractionHierarchyPrecomputation
+import org.jgrapht.alg.shortestpath.ContractionHierarchyPrecomputation.ContractionHierarchy
+import org.locationtech.jts.geom.Envelope
+
+import scala.collection.mutable
+import scala.io.Source
+
+/**
+  * contraction hierarchies of spatial partitions persisted across runs.
+  * the road segments of a partition only depend on the road file, the leaf envelope and the expansion distance,
+  * so the ch computed for them is stored under a key of the three and reused while the partition layout is unchanged.
+  * every layout writes a manifest of its ch files, files that no recent manifest lists are removed, see retainLayouts
+  */
+object PartitionCHCache {
+
+  /**
+    * number of most recently used layouts whose ch files are kept
+    */
+  val RetainedLayoutNum = 2
+
+  /**
+    * temporary files older than this are left by failed tasks
+    */
+  private val TmpFileTtlMs = 24 * 3600 * 1000L
+
+  /**
+    * checksum of the road file, or of all the files under a road directory
+    *
+    * @param conf   hadoop configuration
+    * @param rnPath road file path, directory or glob
+    */
+  def checksum(conf: Configuration, rnPath: String): String = {
+    val path = new Path(rnPath)
+    val fs = path.getFileSystem(conf)
+    val statuses = Option(fs.globStatus(path)).getOrElse(Array.empty[FileStatus])
+      .flatMap(status => if (status.isDirectory) fs.listStatus(status.getPath) else Array(status))
+      .filter(status => status.isFile && !status.getPath.getName.startsWith("_") && !status.getPath.getName.startsWith("."))
+      .sortBy(_.getPath.toString)
+    if (statuses.isEmpty) {
+      throw new IOException(s"road file not found: $rnPath")
+    }
+    val digest = MessageDigest.getInstance("MD5")
+    for (status <- statuses) {
+      val fileChecksum = fs.getFileChecksum(status.getPath)
+      if (fileChecksum != null) {
+        digest.update(fileChecksum.getBytes)
+      } else {
+        // local file systems have no checksum, crc the content instead
+        val crc = new CRC32()
+        val buffer = new Array[Byte](1 << 16)
+        val in = fs.open(status.getPath)
+        try {
+          var read = in.read(buffer)
+          while (read > 0) {
+            crc.update(buffer, 0, read)
+            read = in.read(buffer)
+          }
+        } finally {
+          in.close()
+        }
+        digest.update(ByteBuffer.allocate(16).putLong(status.getLen).putLong(crc.getValue).array())
+      }
+    }
+    digest.digest().map("%02x".format(_)).mkString
+  }
+
+  /**
+    * file of the ch of one partition
+    *
+    * @param cacheDir     directory of the cached ch files
+    * @param roadChecksum checksum of the road file
+    * @param env          leaf envelope of the partition
+    * @param expandDist   distance the road envelopes are expanded by when they are assigned to partitions
+    */
+  def cachePath(cacheDir: String, roadChecksum: String, env: Envelope, expandDist: Double): Path = {
+    val key = s"$roadChecksum|${env.getMinX}|${env.getMaxX}|${env.getMinY}|${env.getMaxY}|$expandDist"
+    new Path(cacheDir, s"ch-${UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8))}.bin")
+  }
+
+  /**
+    * record the ch files of the current layout in its manifest and remove the ch files that are
+    * listed by none of the retainedLayoutNum most recently used manifests, called on the driver before matching
+    *
+    * @param conf              hadoop configuration
+    * @param cacheDir          directory of the cached ch files
+    * @param layoutPaths       ch files of every partition of the current layout, see cachePath
+    * @param retainedLayoutNum number of most recently used layouts to keep, including the current one
+    */
+  def retainLayouts(conf: Configuration, cacheDir: String, layoutPaths: Seq[Path],
+                    retainedLayoutNum: Int = RetainedLayoutNum): Unit = {
+    require(retainedLayoutNum > 0, "the current layout is always retained")
+    val dir = new Path(cacheDir)
+    val fs = dir.getFileSystem(conf)
+    val names = layoutPaths.map(_.getName).sorted
+    val manifest = new Path(dir, s"layout-${UUID.nameUUIDFromBytes(names.mkString("\n").getBytes(StandardCharsets.UTF_8))}.txt")
+    if (fs.exists(manifest)) {
+      fs.setTimes(manifest, System.currentTimeMillis(), -1)
+    } else {
+      val out = fs.create(manifest, true)
+      try {
+        out.write(names.mkString("", "\n", "\n").getBytes(StandardCharsets.UTF_8))
+      } finally {
+        out.close()
+      }
+    }
+
+    val statuses = fs.listStatus(dir)
+    val manifests = statuses.filter(status => status.getPath.getName.startsWith("layout-"))
+      .sortBy(status => (status.getPath != manifest, -status.getModificationTime))
+    manifests.drop(retainedLayoutNum).foreach(status => fs.delete(status.getPath, false))
+    val retained = new mutable.HashSet[String]()
+    manifests.take(retainedLayoutNum).foreach(status => retained ++= readManifest(fs, status.getPath))
+    val now = System.currentTimeMillis()
+    for (status <- statuses) {
+      val name = status.getPath.getName
+      val unused = name.startsWith("ch-") && !retained.contains(name)
+      val abandoned = name.startsWith(".ch-") && now - status.getModificationTime > TmpFileTtlMs
+      if (status.isFile && (unused || abandoned)) {
+        fs.delete(status.getPath, false)
+      }
+    }
+  }
+
+  private def readManifest(fs: FileSystem, manifest: Path): Seq[String] = {
+    val in = fs.open(manifest)
+    try {
+      Source.fromInputStream(in, StandardCharsets.UTF_8.name()).getLines().filter(_.nonEmpty).toList
+    } finally {
+      in.close()
+    }
+  }
+
+  /**
+    * load the ch of the partition, or contract its road network and persist the result
+    *
+    * @param conf        hadoop configuration
+    * @param path        file of the ch, see cachePath
+    * @param roadNetwork road network of the partition
+    */
+  def getOrCompute(conf: Configuration, path: Path,
+                   roadNetwork: RoadNetwork): ContractionHierarchy[RoadNode, RoadSegment] = {
+    val fs = path.getFileSystem(conf)
+    var stale = false
+    if (fs.exists(path)) {
+      try {
+        val bytes = new Array[Byte](fs.getFileStatus(path).getLen.toInt)
+        val in = fs.open(path)
+        try {
+          in.readFully(0, bytes)
+        } finally {
+          in.close()
+        }
+        return CHBinaryAccessor.read(ByteBuffer.wrap(bytes), roadNetwork)
+      } catch {
+        // written by an older version or for other roads, contract again and replace it
+        case _: IOException => stale = true
+        case _: IllegalArgumentException => stale = true
+      }
+    }
+
+    val ch = new ContractionHierarchyPrecomputation(roadNetwork.getRoadGraph(true)).computeContractionHierarchy()
+    val buffer = CHBinaryAccessor.toBytes(ch)
+    // write to a temporary file first, so that concurrent tasks never read a partial file
+    val tmpPath = new Path(path.getParent, s".${path.getName}.${UUID.randomUUID()}")
+    val out = fs.create(tmpPath, true)
+    try {
+      out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())
+    } finally {
+      out.close()
+    }
+    if (stale) {
+      fs.delete(path, false)
+    }
+    // another task may have stored the same partition in the meantime, either file is valid
+    if (!fs.rename(tmpPath, path)) {
+      fs.delete(tmpPath, false)
+    }
+    ch
+  }
+}
@@ -1,19 +1,30 @@
 package org.apache.spark.mapmatch
 
 import mapmatch.shortestpath.ShortestPathAlgoTypeEnum
-import mapmatch.tihmm.{TiHmmMapMatcher, TiHmmMultipleMatcher}
-import org.apache.spark.mapmatch.partition.GlobalQuad
+import mapmatch.tihmm.{MatcherOptions, TiHmmMapMatcher, TiHmmMultipleMatcher}
+import org.apache.hadoop.conf.Configuration
+import org.apache.hadoop.fs.Path
+import org.apache.spark.mapmatch.partition.{GlobalKDTree, RoadDensityGrid}
 import org.apache.spark.model.st.spatial.graph.{RoadNetwork, RoadSegment}
-import org.apache.spark.model.st.{RouteOfTrajectory, Trajectory}
-import org.apache.spark.{Partitioner, SparkConf, SparkContext}
-import org.jgrapht.alg.shortestpath.ContractionHierarchyPrecomputation
+import org.apache.spark.model.st.RouteOfTrajectory
+import org.apache.spark.storage.StorageLevel
+import org.apache.spark.{Partitioner, SerializableWritable, SparkConf, SparkContext, TaskContext}
 import org.locationtech.jts.geom.Envelope
 import point.GeoFunction
 import DataParser._
 import scala.collection.JavaConverters._
-import scala.collection.mutable.ArrayBuffer
 
 object PartitionSpaceApp {
+  /**
+    * seed of the trajectory sample the partitions are built from
+    */
+  val SampleSeed = 20210731L
+
+  /**
+    * grid of the partition bounds and cuts in meters
+    */
+  val LayoutGridInM = 500.0
+
   def main(args: Array[String]): Unit = {
     val sparkConf = new SparkConf()
       //.setMaster("local[*]")
@@ -25,16 +36,48 @@ object PartitionSpaceApp {
     val trajPath = args(0)
     val rnPath = args(1)
     val outputPath = args(2)
+    // contraction hierarchies of the partitions are cached here and reused while the partitions are unchanged
+    val chCacheDir = if (args.length > 3) args(3) else rnPath.stripSuffix("/") + ".ch"
 
     val roadRdd = context.textFile(rnPath).map(recoverRoadSegment)
-    val trajRdd = context.textFile(trajPath).map(recoverTraj)
-    val trajSmaples = trajRdd.sample(withReplacement = false, 0.1).map(_.getEnvelopeInternal).collect()
+    val trajRdd = loadTrajectories(context, trajPath, context.defaultMinPartitions)
+    // upper bound of the number of partitions, the cost model may choose fewer
+    val maxPartitionNum = if (args.length > 4) args(4).toInt else context.defaultParallelism * 2
+    // a fixed seed gives the same layout for the same input, so the cached ch of the partitions can be reused
+    val trajSamples = trajRdd.sample(withReplacement = false, 0.1, SampleSeed)
+      .map(traj => (traj.getEnvelopeInternal, traj.getNumPoints)).collect()
 
-    val globalEnv = new Envelope(108.843960232205, 109.07412624783, 34.1552039930556, 34.3295857747396)
-    val globalIndex = new GlobalQuad(globalEnv)
-    globalIndex.build(trajSmaples, 20)
+    // the partitions cover every road, also those far from the sampled trajectories
+    val roadExtent = roadRdd.mapPartitions(roadIter => {
+      val env = new Envelope()
+      roadIter.foreach(road => env.expandToInclude(road.getEnvelopeInternal))
+      Iterator(env)
+    }).reduce((env, other) => {
+      env.expandToInclude(other)
+      env
+    })
+    // bounds and cuts on a coarse grid keep the layout, and so the cached ch, stable between runs
+    val gridSize = GeoFunction.getDegreeFromM(LayoutGridInM)
+    val globalEnv = GlobalKDTree.bounds(trajSamples.map(_._1), roadExtent, gridSize)
+    // matching cost of a trajectory grows with its points and the road density around it
+    val densityGrid = roadRdd.mapPartitions(roadIter => {
+      val grid = new RoadDensityGrid(globalEnv, 256, 256)
+      roadIter.foreach(grid.add)
+      Iterator(grid)
+    }).reduce(_.merge(_))
+    val costs = trajSamples.map(sample => GlobalKDTree.estimateCost(sample._2, densityGrid.getDensity(sample._1)))
+    val globalIndex = new GlobalKDTree(globalEnv, gridSize)
+    globalIndex.build(trajSamples.map(_._1), costs, maxPartitionNum)
     val partitionNum = globalIndex.assignPartitionId(0)
     val bcGlobalIndex = context.broadcast(globalIndex)
+    val expandDist = GeoFunction.getDegreeFromM(500)
+    val roadChecksum = PartitionCHCache.checksum(context.hadoopConfiguration, rnPath)
+    val bcHadoopConf = context.broadcast(new SerializableWritable(context.hadoopConfiguration))
+    val chPaths = (0 until partitionNum).map(partitionId =>
+      PartitionCHCache.cachePath(chCacheDir, roadChecksum, globalIndex.getLeafEnv(partitionId), expandDist))
+    PartitionCHCache.retainLayouts(context.hadoopConfiguration, chCacheDir, chPaths)
+    // hadoop paths aren't serializable
+    val chPathStrings = chPaths.map(_.toString)
 
     //spatial partition
     val partitioner = new Partitioner {
@@ -44,62 +87,36 @@ object PartitionSpaceApp {
     }
     val partitionRoadRdd = roadRdd.mapPartitions(roadIter => {
       val index = bcGlobalIndex.value
-      val expandDist = GeoFunction.getDegreeFromM(500)
       roadIter.flatMap(road => {
         index.getPartitionIds(road, expandDist).map((_, road))
       })
     }).partitionBy(partitioner).map(_._2)
+    // every piece shares this many points with its neighbours, its hmm starts and ends with context
+    val overlap = if (args.length > 5) args(5).toInt else 5
+    // optional, candidate policy, observation filter and stationary reuse, see MatcherOptions
+    val options = MatcherOptions.parse(if (args.length > 6) args(6) else null)
     val partitionTrajRdd = trajRdd.mapPartitions(trajIter => {
       val index = bcGlobalIndex.value
-      trajIter.flatMap(traj => {
-        val ids = index.getPartitionIds(traj)
-        if (ids.length == 1) {
-          ids.map((_, traj))
-        } else {
-          ids.flatMap(id => {
-            val env = index.getLeafEnv(id)
-            val indexBounds = new ArrayBuffer[(Int, Int)]()
-            var startIndex = -1
-            var endIndex = -1
-            var flag = true
-            val stCoords = traj.getStCoordSequence.stCoords
-            for (index <- 0 until traj.getNumPoints) {
-              if (env.contains(stCoords(index))) {
-                if (flag) {
-                  startIndex = index
-                  flag = !flag
-                }
-              } else {
-                if (!flag) {
-                  endIndex = index
-                  indexBounds += ((startIndex, endIndex))
-                  startIndex = -1
-                  endIndex = -1
-                  flag = !flag
-                }
-              }
-            }
-            if (startIndex != -1 && startIndex < endIndex - 1) {
-              endIndex = stCoords.length
-              indexBounds += ((startIndex, endIndex))
-            }
-
-            indexBounds.map(bound => {
-              val segmentCoords = stCoords.slice(bound._1, bound._2)
-              (id, new Trajectory(traj.getOid, segmentCoords))
-            })
-          })
-        }
-      })
+      trajIter.flatMap(traj => TrajectorySplitter.split(traj, index, overlap, expandDist).map(piece => (piece.partitionId, piece)))
     }).partitionBy(partitioner).map(_._2)
 
-    val count = partitionTrajRdd.zipPartitions(partitionRoadRdd)((trajIter, roadIter) => {
-      val matcher = getMapMatcher(roadIter.toArray)
-      trajIter.flatMap(traj => {
-        val routes = matcher.matchTrajToRoute(traj)
-        if (routes == null) Array.empty[RouteOfTrajectory] else routes.asScala
+    val matchedRdd = partitionTrajRdd.zipPartitions(partitionRoadRdd)((pieceIter, roadIter) => {
+      val matcher = options.apply(getMapMatcher(roadIter.toArray, bcHadoopConf.value.value,
+        new Path(chPathStrings(TaskContext.getPartitionId()))))
+      pieceIter.map(piece => {
+        val routes = matcher.matchTrajToRoute(piece.traj)
+        ((piece.traj.getOid, piece.trajStartMs), piece.pieceNum,
+          MatchedPiece(piece.pieceIndex, piece.ownStartMs, piece.ownEndMs,
+            if (routes == null) Array.empty[RouteOfTrajectory] else routes.asScala.toArray))
       })
-    }).count()
+    }).persist(StorageLevel.MEMORY_AND_DISK_SER)
+    // trajectories inside one partition are done, the pieces of the others are stitched per trajectory,
+    // an object may have several trajectories, so they are told apart by oid and start time
+    val singleRoutes = matchedRdd.filter(_._2 == 1).flatMap(_._3.routes)
+    val stitchedRoutes = matchedRdd.filter(_._2 > 1).map(matched => (matched._1, matched._3))
+      .groupByKey().flatMap(pieces => RouteStitcher.stitch(pieces._1._1, pieces._2))
+    val count = singleRoutes.union(stitchedRoutes).count()
+    matchedRdd.unpersist()
 
     val consumingSec = (System.currentTimeMillis() - startTime) / 1E3
     println(consumingSec)
@@ -107,11 +124,9 @@ object PartitionSpaceApp {
       .repartition(1).saveAsTextFile(outputPath)
   }
 
-  def getMapMatcher(roadSegments: Array[RoadSegment]): TiHmmMapMatcher = {
+  def getMapMatcher(roadSegments: Array[RoadSegment], hadoopConf: Configuration, chPath: Path): TiHmmMapMatcher = {
     val roadNetwork = new RoadNetwork(roadSegments.map(rs => (rs.getRoadId, rs)).toMap)
-    val preComputation = new ContractionHierarchyPrecomputation(roadNetwork.getRoadGraph(true))
-    val ch = preComputation.computeContractionHierarchy()
-    roadNetwork.setCHGraph(ch)
+    roadNetwork.setCHGraph(PartitionCHCache.getOrCompute(hadoopConf, chPath, roadNetwork))
     new TiHmmMultipleMatcher(roadNetwork, ShortestPathAlgoTypeEnum.CH)
   }
 
@@ -1,9 +1,7 @@
 package org.apache.spark.mapmatch
 
-import contractionhierarchy.{CHRoadSegment, CHTransformer}
-import org.apache.spark.model.st.spatial.graph.{RoadNetwork, RoadSegment}
-
-import scala.collection.JavaConverters._
+import contractionhierarchy.CHBinaryAccessor
+import org.apache.spark.model.st.spatial.graph.{RoadNetwork, RoadNetworkSnapshot, RoadSegment}
 
 object RoadNetworkContainer {
   private val roadNetworkMap = scala.collection.mutable.Map.empty[String, RoadNetwork]
@@ -13,29 +11,45 @@ object RoadNetworkContainer {
    *
    * @param name         road network name
    * @param roadSegments road segments for building road network
+   * @param chPath       local path of a binary contraction hierarchy file, memory-mapped, empty if not used
    * */
-  def getInstance(name: String, roadSegments: Array[RoadSegment], chRoadSegments: Array[CHRoadSegment]): RoadNetwork = {
+  def getInstance(name: String, roadSegments: Array[RoadSegment], chPath: String): RoadNetwork = {
     val roadNetwork = roadNetworkMap.get(name)
     if (roadNetwork.isEmpty) {
       this.synchronized {
-        roadNetworkMap.getOrElseUpdate(name, createRoadNetwork(roadSegments, chRoadSegments))
+        roadNetworkMap.getOrElseUpdate(name, createRoadNetwork(roadSegments, chPath))
       }
     } else roadNetwork.get
   }
 
 
+  /**
+   * memory-map a road network snapshot or get it from the cache, so that all tasks in an executor share one network.
+   * only the indexes stored in the snapshot are loaded, the jgrapht graphs are built on first use
+   *
+   * @param path local path of the snapshot file
+   * */
+  def getInstance(path: String): RoadNetwork = {
+    val roadNetwork = roadNetworkMap.get(path)
+    if (roadNetwork.isEmpty) {
+      this.synchronized {
+        roadNetworkMap.getOrElseUpdate(path, RoadNetworkSnapshot.load(path).freeze(false, true))
+      }
+    } else roadNetwork.get
+  }
+
   /**
    * create road network using road segments
    *
    * @param roadSegments road segments
    * @return road network
    * */
-  private def createRoadNetwork(roadSegments: Array[RoadSegment], chRoadSegments: Array[CHRoadSegment]): RoadNetwork = {
+  private def createRoadNetwork(roadSegments: Array[RoadSegment], chPath: String): RoadNetwork = {
     val roadNetwork = new RoadNetwork(roadSegments.map(rs => (rs.getRoadId, rs)).toMap)
-    if (chRoadSegments.nonEmpty) {
-      val ch = CHTransformer.edges2Graph(chRoadSegments.toBuffer.asJava, roadNetwork)
-      roadNetwork.setCHGraph(ch)
+    if (chPath.nonEmpty) {
+      roadNetwork.setCHGraph(CHBinaryAccessor.load(chPath, roadNetwork))
     }
-    roadNetwork
+    // shared by all task threads of the executor, build every index once and read them without lock
+    roadNetwork.freeze()
   }
 }
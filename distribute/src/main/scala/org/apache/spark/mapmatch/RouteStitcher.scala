@@ -0,0 +1,134 @@
+package org.apache.spark.mapmatch
+
+import org.apache.spark.model.st.{RouteOfTrajectory, RouteOfTrajectoryBuilder}
+
+import scala.collection.mutable.ArrayBuffer
+
+/**
+  * routes matched for a piece of a trajectory
+  *
+  * @param pieceIndex order of the piece in the trajectory
+  * @param ownStartMs the piece owns the road segments entered in [ownStartMs, ownEndMs)
+  * @param ownEndMs   see ownStartMs
+  * @param routes     routes of the piece
+  */
+case class MatchedPiece(pieceIndex: Int, ownStartMs: Long, ownEndMs: Long, routes: Array[RouteOfTrajectory])
+
+object RouteStitcher {
+
+  /**
+    * merge the routes of the pieces of a trajectory.
+    * adjacent pieces both match the overlap around their seam, the seam is cut at a road segment that the last route
+    * of the earlier piece and the first route of the later piece agree on, closest to the time the later piece takes
+    * over. the route goes on with the segments the later piece matched after it, so it stays connected as both sides
+    * are. without such a segment the pieces are cut at that time and the route breaks there, as it does inside a piece
+    *
+    * @param oid    trajectory id
+    * @param pieces matched pieces of the trajectory, in any order
+    */
+  def stitch(oid: String, pieces: Iterable[MatchedPiece]): Array[RouteOfTrajectory] = {
+    val sorted = pieces.toArray.sortBy(_.pieceIndex)
+    val ranges = sorted.map(piece => new PieceRange(piece.routes.filter(_.length > 0)))
+    val connected = new Array[Boolean](math.max(0, ranges.length - 1))
+    for (k <- connected.indices) {
+      connected(k) = cutSeam(ranges(k), ranges(k + 1), sorted(k + 1).ownStartMs)
+    }
+
+    val result = new ArrayBuffer[RouteOfTrajectory]()
+    val builder = new RouteOfTrajectoryBuilder()
+    var endMs = 0L
+    for (k <- ranges.indices; range = ranges(k); r <- range.firstRoute to range.lastRoute) {
+      val route = range.routes(r)
+      val ids = route.roadSegmentIds
+      val times = route.enterTimes
+      val from = if (r == range.firstRoute) range.startCut else 0
+      val until = if (r == range.lastRoute) range.endCut else ids.length
+      val continued = r == range.firstRoute && k > 0 && connected(k - 1) && builder.getSize > 0
+      if (continued || from < until) {
+        if (!continued && builder.getSize > 0) result += builder.build(oid, endMs)
+        for (i <- from until until) builder.add(ids(i), times(i))
+        // the last segment is left when the next segment, or the next piece's successor of it, is entered
+        endMs = if (until < ids.length) times(until) else route.endTimeInMs
+      }
+    }
+    if (builder.getSize > 0) result += builder.build(oid, endMs)
+    result.toArray
+  }
+
+  /**
+    * routes of a piece that are kept, from routes(firstRoute)(startCut) to routes(lastRoute)(endCut - 1)
+    */
+  private class PieceRange(val routes: Array[RouteOfTrajectory]) {
+    var firstRoute = 0
+    var lastRoute: Int = routes.length - 1
+    var startCut = 0
+    var endCut: Int = if (routes.isEmpty) 0 else routes.last.length
+
+    def isEmpty: Boolean = firstRoute > lastRoute
+
+    /**
+      * first index of the route not before startCut
+      */
+    def lowerBound(r: Int): Int = if (r == firstRoute) startCut else 0
+  }
+
+  /**
+    * cut the seam between two adjacent pieces
+    *
+    * @param prev       earlier piece
+    * @param next       later piece
+    * @param takeOverMs the later piece owns the road segments entered from then on
+    * @return whether the route goes on across the seam
+    */
+  private def cutSeam(prev: PieceRange, next: PieceRange, takeOverMs: Long): Boolean = {
+    // routes completely on the other side of the seam, behind a break, belong to the other piece
+    while (prev.firstRoute < prev.lastRoute && prev.routes(prev.lastRoute).enterTimes.head >= takeOverMs) {
+      prev.lastRoute -= 1
+      prev.endCut = prev.routes(prev.lastRoute).length
+    }
+    while (next.firstRoute < next.lastRoute && next.routes(next.firstRoute).enterTimes.last < takeOverMs) {
+      next.firstRoute += 1
+    }
+    if (!prev.isEmpty && prev.lowerBound(prev.lastRoute) >= prev.routes(prev.lastRoute).length) {
+      // the previous seam took the whole route
+      prev.lastRoute = prev.firstRoute - 1
+    }
+    if (next.isEmpty) return false
+    val nextTimes = next.routes(next.firstRoute).enterTimes
+    if (prev.isEmpty) {
+      next.startCut = firstNotBefore(nextTimes, 0, takeOverMs)
+      return false
+    }
+
+    val prevRoute = prev.routes(prev.lastRoute)
+    val prevFrom = prev.lowerBound(prev.lastRoute)
+    val nextRoute = next.routes(next.firstRoute)
+    val nextIndices = nextRoute.roadSegmentIds.indices.groupBy(nextRoute.roadSegmentIds(_))
+    var bestPrev = -1
+    var bestNext = -1
+    var bestCost = Long.MaxValue
+    for (i <- prevFrom until prev.endCut; j <- nextIndices.getOrElse(prevRoute.roadSegmentIds(i), Nil)) {
+      val cost = math.abs(prevRoute.enterTimes(i) - takeOverMs) + math.abs(nextRoute.enterTimes(j) - takeOverMs)
+      if (cost < bestCost) {
+        bestCost = cost
+        bestPrev = i
+        bestNext = j
+      }
+    }
+    if (bestPrev >= 0) {
+      prev.endCut = bestPrev + 1
+      next.startCut = bestNext + 1
+      true
+    } else {
+      prev.endCut = math.max(prevFrom, firstNotBefore(prevRoute.enterTimes, prevFrom, takeOverMs))
+      next.startCut = firstNotBefore(nextTimes, 0, takeOverMs)
+      false
+    }
+  }
+
+  private def firstNotBefore(times: Array[Long], from: Int, ms: Long): Int = {
+    var i = from
+    while (i < times.length && times(i) < ms) i += 1
+    i
+  }
+}
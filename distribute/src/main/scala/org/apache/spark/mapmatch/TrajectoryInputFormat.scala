@@ -0,0 +1,62 @@
+package org.apache.spark.mapmatch
+
+import java.io.BufferedInputStream
+
+import org.apache.hadoop.fs.{FSDataInputStream, Path}
+import org.apache.hadoop.io.LongWritable
+import org.apache.hadoop.mapreduce.lib.input.{FileInputFormat, FileSplit}
+import org.apache.hadoop.mapreduce.{InputSplit, RecordReader, TaskAttemptContext}
+import org.apache.spark.model.st.Trajectory
+import trajectorystore.{TrajectoryBinaryFormat, TrajectoryBinaryReader}
+
+/**
+  * hadoop input format of binary trajectory files, see TrajectoryBinaryFormat.
+  * files are split at arbitrary offsets, every split resynchronizes on the sync marker of the blocks.
+  * the key is the file offset of the block
+  */
+class TrajectoryInputFormat extends FileInputFormat[LongWritable, Trajectory] {
+  override def createRecordReader(split: InputSplit,
+                                  context: TaskAttemptContext): RecordReader[LongWritable, Trajectory] =
+    new TrajectoryRecordReader
+}
+
+class TrajectoryRecordReader extends RecordReader[LongWritable, Trajectory] {
+  private var start = 0L
+  private var end = 0L
+  private var input: FSDataInputStream = _
+  private var reader: TrajectoryBinaryReader = _
+  private val key = new LongWritable()
+  private var value: Trajectory = _
+
+  override def initialize(split: InputSplit, context: TaskAttemptContext): Unit = {
+    val fileSplit = split.asInstanceOf[FileSplit]
+    val path = fileSplit.getPath
+    input = path.getFileSystem(context.getConfiguration).open(path)
+    val coordScale = TrajectoryBinaryReader.readCoordScale(input)
+    start = math.max(fileSplit.getStart, TrajectoryBinaryFormat.HEADER_BYTES)
+    end = fileSplit.getStart + fileSplit.getLength
+    input.seek(start)
+    reader = new TrajectoryBinaryReader(new BufferedInputStream(input, 1 << 16), start, end, coordScale)
+  }
+
+  override def nextKeyValue(): Boolean = {
+    if (!reader.hasNext) {
+      value = null
+      return false
+    }
+    value = reader.next()
+    key.set(reader.getBlockPosition)
+    true
+  }
+
+  override def getCurrentKey: LongWritable = key
+
+  override def getCurrentValue: Trajectory = value
+
+  override def getProgress: Float =
+    if (end <= start) 1f else math.min(1f, (reader.getPosition - start).toFloat / (end - start))
+
+  override def close(): Unit = {
+    if (reader != null) reader.close() else if (input != null) input.close()
+  }
+}
@@ -0,0 +1,70 @@
+package org.apache.spark.mapmatch
+
+import org.apache.spark.mapmatch.partition.GlobalIndex
+import org.apache.spark.model.st.Trajectory
+import org.apache.spark.utils.GeomUtils
+import org.locationtech.jts.geom.Envelope
+
+import scala.collection.mutable.ArrayBuffer
+
+/**
+  * a piece of a trajectory matched in one spatial partition
+  *
+  * @param partitionId partition the piece is matched in
+  * @param pieceNum    number of pieces of the trajectory
+  * @param pieceIndex  order of the piece in the trajectory
+  * @param ownStartMs  the piece owns the routes entered in [ownStartMs, ownEndMs)
+  * @param ownEndMs    see ownStartMs
+  * @param traj        points of the piece, including the overlap on both sides
+  * @param trajStartMs  time of the first point of the whole trajectory, with the oid it tells the trajectories
+  *                     of the same object apart when their pieces are stitched
+  */
+case class TrajectoryPiece(partitionId: Int, pieceNum: Int, pieceIndex: Int,
+                           ownStartMs: Long, ownEndMs: Long, traj: Trajectory, trajStartMs: Long)
+
+object TrajectorySplitter {
+
+  /**
+    * cut a trajectory at partition boundaries, every point belongs to the partition that contains it.
+    * a piece is extended by up to overlap points of the neighbouring pieces on each side,
+    * as long as they are inside the leaf envelope expanded by expandDist where the roads of the partition are,
+    * so that the hmm of every piece starts and ends with context
+    *
+    * @param traj       trajectory
+    * @param index      global index, partition ids are the leaf indices
+    * @param overlap    number of points shared with the neighbouring pieces on each side
+    * @param expandDist distance the road envelopes are expanded by when they are assigned to partitions
+    */
+  def split(traj: Trajectory, index: GlobalIndex, overlap: Int, expandDist: Double): Array[TrajectoryPiece] = {
+    val stCoords = traj.getStCoordSequence.stCoords
+    val owners = stCoords.map(coord => index.findNearestId(GeomUtils.defaultFactory.createPoint(coord)))
+    val runs = new ArrayBuffer[(Int, Int)]()
+    var start = 0
+    for (i <- 1 to owners.length) {
+      if (i == owners.length || owners(i) != owners(start)) {
+        // points outside every partition are dropped
+        if (owners(start) != -1) runs += ((start, i))
+        start = i
+      }
+    }
+
+    runs.indices.map(r => {
+      val (runStart, runEnd) = runs(r)
+      val partitionId = owners(runStart)
+      val env = new Envelope(index.getLeafEnv(partitionId))
+      env.expandBy(expandDist)
+      var pieceStart = runStart
+      while (pieceStart > 0 && runStart - pieceStart < overlap && env.contains(stCoords(pieceStart - 1))) {
+        pieceStart -= 1
+      }
+      var pieceEnd = runEnd
+      while (pieceEnd < stCoords.length && pieceEnd - runEnd < overlap && env.contains(stCoords(pieceEnd))) {
+        pieceEnd += 1
+      }
+      val ownStartMs = if (r == 0) Long.MinValue else stCoords(runStart).getTime.getTime
+      val ownEndMs = if (r == runs.length - 1) Long.MaxValue else stCoords(runs(r + 1)._1).getTime.getTime
+      TrajectoryPiece(partitionId, runs.length, r, ownStartMs, ownEndMs,
+        new Trajectory(traj.getOid, stCoords.slice(pieceStart, pieceEnd)), stCoords.head.getTime.getTime)
+    }).toArray
+  }
+}
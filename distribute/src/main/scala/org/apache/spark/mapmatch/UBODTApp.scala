@@ -0,0 +1,72 @@
+package org.apache.spark.mapmatch
+
+import java.io.{BufferedReader, InputStreamReader}
+import java.nio.charset.StandardCharsets
+
+import mapmatch.shortestpath.cache.ubodt.{UBODTBuilder, UBODTProgressListener}
+import org.apache.hadoop.conf.Configuration
+import org.apache.hadoop.fs.Path
+import org.apache.spark.mapmatch.DataParser._
+import org.apache.spark.model.st.spatial.graph.{RoadNetwork, RoadSegment}
+
+import scala.collection.mutable.ArrayBuffer
+
+/**
+ * precompute the ubodt used by MapMatchApp mode 5, a plain local tool that does not start spark:
+ * the whole table is built and written on this machine, the search is parallel on its cores.
+ * the road network is read through the hadoop file system, so rnPath may be local or on hdfs,
+ * and built the same way as in MapMatchApp so that the node ids agree
+ * args: rnPath radius outputPath [parallelism]
+ */
+object UBODTApp {
+  def main(args: Array[String]): Unit = {
+    if (args.length < 3) {
+      System.err.println("usage: rnPath radius outputPath [parallelism]")
+      System.exit(1)
+    }
+    val startTime = System.currentTimeMillis()
+
+    val rnPath = args(0)
+    val radius = args(1).toDouble
+    val outputPath = args(2)
+    val parallelism = if (args.length > 3) args(3).toInt else Runtime.getRuntime.availableProcessors()
+
+    val roadSegments = readRoadSegments(rnPath)
+    val roadNetwork = new RoadNetwork(roadSegments.map(rs => (rs.getRoadId, rs)).toMap)
+    val ubodt = new UBODTBuilder(roadNetwork.getCSRGraph, radius, parallelism)
+      .setProgressListener(new UBODTProgressListener {
+        override def onProgress(finishedSources: Int, sourceNum: Int, recordNum: Long, elapsedMs: Long): Unit =
+          println(f"ubodt progress: $finishedSources/$sourceNum sources (${100.0 * finishedSources / sourceNum}%.0f%%), " +
+            f"$recordNum records, ${finishedSources * 1E3 / math.max(elapsedMs, 1)}%.0f sources/s")
+      })
+      .build()
+    ubodt.write(outputPath)
+
+    val consumingSec = (System.currentTimeMillis() - startTime) / 1E3
+    println(s"ubodt records:${ubodt.getSize};time:${consumingSec}s")
+  }
+
+  /**
+   * read every file under path (or the file itself), skipping hidden files as hadoop does, one road segment per line
+   */
+  private def readRoadSegments(path: String): Array[RoadSegment] = {
+    val hadoopPath = new Path(path)
+    val fs = hadoopPath.getFileSystem(new Configuration())
+    val roadSegments = new ArrayBuffer[RoadSegment]()
+    for (status <- fs.listStatus(hadoopPath) if status.isFile && !status.getPath.getName.startsWith("_") && !status.getPath.getName.startsWith(".")) {
+      val reader = new BufferedReader(new InputStreamReader(fs.open(status.getPath), StandardCharsets.UTF_8))
+      try {
+        var line = reader.readLine()
+        while (line != null) {
+          if (line.trim.nonEmpty) {
+            roadSegments += recoverRoadSegment(line)
+          }
+          line = reader.readLine()
+        }
+      } finally {
+        reader.close()
+      }
+    }
+    roadSegments.toArray
+  }
+}
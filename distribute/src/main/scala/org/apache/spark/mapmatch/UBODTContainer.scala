@@ -0,0 +1,21 @@
+package org.apache.spark.mapmatch
+
+import mapmatch.shortestpath.cache.ubodt.UBODT
+
+object UBODTContainer {
+  private val ubodtMap = scala.collection.mutable.Map.empty[String, UBODT]
+
+  /**
+   * memory-map a ubodt file or get it from the cache, so that all tasks in an executor share one mapping
+   *
+   * @param path local path of the ubodt file
+   * */
+  def getInstance(path: String): UBODT = {
+    val ubodt = ubodtMap.get(path)
+    if (ubodt.isEmpty) {
+      this.synchronized {
+        ubodtMap.getOrElseUpdate(path, UBODT.load(path))
+      }
+    } else ubodt.get
+  }
+}
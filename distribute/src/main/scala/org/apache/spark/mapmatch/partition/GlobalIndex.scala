@@ -21,7 +21,8 @@ trait GlobalIndex extends Serializable {
 
   def getPartitionIds(queryGeom: Geometry, distance: Double = 0.0): Array[Int] = {
     val idCollector = new ArrayBuffer[Int]()
-    val geomEnv = queryGeom.getEnvelopeInternal
+    // copy it, the internal envelope is cached by the geometry
+    val geomEnv = new Envelope(queryGeom.getEnvelopeInternal)
     if (distance > 0.0) geomEnv.expandBy(distance)
     findIntersectIds(geomEnv, idCollector)
     idCollector.toArray
@@ -0,0 +1,178 @@
+package org.apache.spark.mapmatch.partition
+
+import org.locationtech.jts.geom.{Envelope, Point}
+
+import scala.collection.mutable.ArrayBuffer
+
+/**
+  * cost balanced kd-tree partitioner.
+  * every sample carries an estimated matching cost, a node that gets k leaves is cut along its longer side
+  * at the cost quantile floor(k / 2) / k of the samples it holds, so the leaves get even costs for any leaf count.
+  * samples are located by the centre of their envelopes. cuts are snapped to a grid of gridSize,
+  * so that slightly different samples of the same data give the same layout
+  *
+  * @param spatialBound bounds of the tree, the roads' and the samples' bounds, see GlobalKDTree.bounds
+  * @param gridSize     cuts are moved to the closest multiple of it inside the node, 0 to keep the exact cuts
+  */
+class GlobalKDTree(spatialBound: Envelope, gridSize: Double = 0) extends GlobalIndex {
+  private val root = new KDNode(spatialBound)
+  private var leafNodes: Array[KDNode] = _
+
+  /**
+    * build the tree with the number of leaves chosen by the costs, see GlobalKDTree.chooseLeafNum
+    *
+    * @param samples    sample envelopes
+    * @param costs      estimated matching cost of every sample
+    * @param maxLeafNum upper bound of the number of leaves
+    * @return number of leaves
+    */
+  def build(samples: Array[Envelope], costs: Array[Double], maxLeafNum: Int): Int = {
+    build(samples, costs, maxLeafNum, GlobalKDTree.chooseLeafNum(costs, maxLeafNum))
+  }
+
+  /**
+    * build the tree with a fixed number of leaves
+    */
+  def build(samples: Array[Envelope], costs: Array[Double], maxLeafNum: Int, leafNum: Int): Int = {
+    require(samples.length == costs.length, "every sample needs a cost")
+    val xs = samples.map(_.centre().x)
+    val ys = samples.map(_.centre().y)
+    val leaves = new ArrayBuffer[KDNode]()
+    buildNode(root, samples.indices.toArray, xs, ys, costs, math.max(1, math.min(leafNum, maxLeafNum)), leaves)
+    leafNodes = leaves.toArray
+    leafNodes.length
+  }
+
+  private def buildNode(node: KDNode, indices: Array[Int], xs: Array[Double], ys: Array[Double],
+                        costs: Array[Double], leafNum: Int, leaves: ArrayBuffer[KDNode]): Unit = {
+    if (leafNum <= 1 || indices.length < 2) {
+      leaves += node
+      return
+    }
+    val leftLeafNum = leafNum / 2
+    val preferredAxis = if (node.env.getWidth >= node.env.getHeight) 0 else 1
+    var axis = preferredAxis
+    var coords = if (axis == 0) xs else ys
+    var sorted = indices.sortBy(coords(_))
+    var cut = findCut(sorted, coords, costs, leftLeafNum.toDouble / leafNum)
+    if (cut == 0) {
+      // all samples share the coordinate along the longer side, cut the other side
+      axis = 1 - preferredAxis
+      coords = if (axis == 0) xs else ys
+      sorted = indices.sortBy(coords(_))
+      cut = findCut(sorted, coords, costs, leftLeafNum.toDouble / leafNum)
+      if (cut == 0) {
+        leaves += node
+        return
+      }
+    }
+    val split = snap((coords(sorted(cut - 1)) + coords(sorted(cut))) / 2,
+      if (axis == 0) node.env.getMinX else node.env.getMinY,
+      if (axis == 0) node.env.getMaxX else node.env.getMaxY)
+    node.splitAt(axis, split)
+    buildNode(node.getLeft, sorted.take(cut), xs, ys, costs, leftLeafNum, leaves)
+    buildNode(node.getRight, sorted.drop(cut), xs, ys, costs, leafNum - leftLeafNum, leaves)
+  }
+
+  /**
+    * the grid point closest to split, or split itself when no grid point lies strictly inside (min, max)
+    */
+  private def snap(split: Double, min: Double, max: Double): Double = {
+    if (gridSize <= 0) return split
+    val snapped = math.round(split / gridSize) * gridSize
+    if (snapped > min && snapped < max) snapped
+    else {
+      val inner = if (snapped <= min) snapped + gridSize else snapped - gridSize
+      if (inner > min && inner < max) inner else split
+    }
+  }
+
+  /**
+    * @param sorted   samples sorted by coords
+    * @param fraction share of the cost that goes to the left side
+    * @return number of samples on the left side, the cut lies between two distinct coordinates, 0 if there is none
+    */
+  private def findCut(sorted: Array[Int], coords: Array[Double], costs: Array[Double], fraction: Double): Int = {
+    val target = sorted.map(costs(_)).sum * fraction
+    var cut = 1
+    var cumulative = costs(sorted(0))
+    while (cut < sorted.length - 1 && cumulative < target) {
+      cumulative += costs(sorted(cut))
+      cut += 1
+    }
+    // samples with the same coordinate stay on the same side, take the closer end of the run
+    var end = cut
+    while (end < sorted.length && coords(sorted(end)) == coords(sorted(end - 1))) {
+      end += 1
+    }
+    var start = cut
+    while (start > 0 && coords(sorted(start)) == coords(sorted(start - 1))) {
+      start -= 1
+    }
+    if (end == sorted.length) start
+    else if (start == 0) end
+    else if (end - cut <= cut - start) end
+    else start
+  }
+
+  override def findNearestId(queryCentre: Point): Int = {
+    root.findNearestId(queryCentre)
+  }
+
+  override def findIntersectIds(queryEnv: Envelope,
+                                idCollector: ArrayBuffer[Int]): Unit = {
+    root.findIntersectIds(queryEnv, idCollector)
+  }
+
+  override def assignPartitionId(baseId: Int): Int = {
+    for (i <- leafNodes.indices) {
+      leafNodes(i).setPartitionId(baseId + i)
+    }
+    baseId + leafNodes.length
+  }
+
+  override def getLeafEnv(index: Int): Envelope = leafNodes(index).env
+}
+
+object GlobalKDTree {
+
+  /**
+    * bounds of the road extent and the sample envelopes, slightly expanded so that roads and samples on the border
+    * are inside. every road intersects a leaf of a tree with these bounds, so none is left out of the partitions
+    *
+    * @param samples    sample envelopes
+    * @param roadExtent envelope of all the road segments
+    * @param gridSize   the bounds are expanded outwards to multiples of it, 0 to keep the exact bounds
+    */
+  def bounds(samples: Array[Envelope], roadExtent: Envelope, gridSize: Double): Envelope = {
+    val env = new Envelope(roadExtent)
+    samples.foreach(env.expandToInclude)
+    env.expandBy(math.max(env.getWidth, env.getHeight) * 0.01 + 1e-9)
+    if (gridSize > 0) {
+      new Envelope(math.floor(env.getMinX / gridSize) * gridSize, math.ceil(env.getMaxX / gridSize) * gridSize,
+        math.floor(env.getMinY / gridSize) * gridSize, math.ceil(env.getMaxY / gridSize) * gridSize)
+    } else {
+      env
+    }
+  }
+
+  /**
+    * estimated matching cost of a trajectory, candidates per point grow with the road density around it
+    *
+    * @param pointNum number of points
+    * @param density  road segments per density grid cell around the trajectory
+    */
+  def estimateCost(pointNum: Int, density: Double): Double = pointNum * (1.0 + density)
+
+  /**
+    * as many leaves as possible up to maxLeafNum, as long as the most expensive sample takes
+    * no more than half of the average leaf cost, otherwise single trajectories would dominate their leaves
+    */
+  def chooseLeafNum(costs: Array[Double], maxLeafNum: Int): Int = {
+    if (costs.isEmpty) return 1
+    val total = costs.sum
+    val maxCost = costs.max
+    if (maxCost <= 0) maxLeafNum
+    else math.max(1, math.min(maxLeafNum, (total / (2 * maxCost)).toInt))
+  }
+}
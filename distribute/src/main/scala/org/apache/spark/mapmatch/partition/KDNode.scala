@@ -0,0 +1,55 @@
+package org.apache.spark.mapmatch.partition
+
+import org.locationtech.jts.geom.{Envelope, Point}
+
+import scala.collection.mutable.ArrayBuffer
+
+/**
+  * node of GlobalKDTree, an inner node cuts its envelope at split along x (axis 0) or y (axis 1)
+  */
+class KDNode(val env: Envelope) extends GlobalNode {
+  private var axis = -1
+  private var split = 0.0
+  private var left: KDNode = _
+  private var right: KDNode = _
+
+  def isLeaf: Boolean = left == null
+
+  def getLeft: KDNode = left
+
+  def getRight: KDNode = right
+
+  def splitAt(axis: Int, split: Double): Unit = {
+    assert(isLeaf)
+    this.axis = axis
+    this.split = split
+    if (axis == 0) {
+      left = new KDNode(new Envelope(env.getMinX, split, env.getMinY, env.getMaxY))
+      right = new KDNode(new Envelope(split, env.getMaxX, env.getMinY, env.getMaxY))
+    } else {
+      left = new KDNode(new Envelope(env.getMinX, env.getMaxX, env.getMinY, split))
+      right = new KDNode(new Envelope(env.getMinX, env.getMaxX, split, env.getMaxY))
+    }
+  }
+
+  /**
+    * the leaf containing the point, points outside the tree go to the closest leaf
+    */
+  def findNearestId(point: Point): Int = {
+    if (isLeaf) partitionId
+    else {
+      val coord = if (axis == 0) point.getX else point.getY
+      if (coord < split) left.findNearestId(point) else right.findNearestId(point)
+    }
+  }
+
+  def findIntersectIds(queryEnv: Envelope, idCollector: ArrayBuffer[Int]): Unit = {
+    if (this.env.intersects(queryEnv)) {
+      if (isLeaf) idCollector += partitionId
+      else {
+        left.findIntersectIds(queryEnv, idCollector)
+        right.findIntersectIds(queryEnv, idCollector)
+      }
+    }
+  }
+}
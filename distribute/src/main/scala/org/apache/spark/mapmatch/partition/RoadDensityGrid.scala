@@ -0,0 +1,73 @@
+package org.apache.spark.mapmatch.partition
+
+import org.apache.spark.model.st.spatial.graph.RoadSegment
+import org.locationtech.jts.geom.Envelope
+
+/**
+  * number of road segments (by the centre of their envelopes) in every cell of a regular grid over env,
+  * kept as a summed-area table so that the density of any envelope is read in constant time
+  *
+  * @param env  bounds of the grid, road segments outside are ignored
+  * @param cols number of columns
+  * @param rows number of rows
+  */
+class RoadDensityGrid(val env: Envelope, cols: Int, rows: Int) extends Serializable {
+  private val counts = new Array[Long](cols * rows)
+
+  /**
+    * summed-area table, sums(r * (cols + 1) + c) is the number of road segments in cells [0, r) x [0, c)
+    */
+  @transient private var sums: Array[Long] = _
+
+  def add(roadSegment: RoadSegment): RoadDensityGrid = {
+    val centre = roadSegment.getEnvelopeInternal.centre()
+    if (env.contains(centre)) {
+      counts(rowOf(centre.y) * cols + colOf(centre.x)) += 1
+    }
+    sums = null
+    this
+  }
+
+  /**
+    * add the counts of another grid of the same shape
+    */
+  def merge(other: RoadDensityGrid): RoadDensityGrid = {
+    for (i <- counts.indices) {
+      counts(i) += other.counts(i)
+    }
+    sums = null
+    this
+  }
+
+  /**
+    * average number of road segments per cell over the cells the query envelope covers
+    */
+  def getDensity(query: Envelope): Double = {
+    if (!env.intersects(query)) return 0.0
+    if (sums == null) {
+      sums = buildSums()
+    }
+    val minCol = colOf(math.max(query.getMinX, env.getMinX))
+    val maxCol = colOf(math.min(query.getMaxX, env.getMaxX))
+    val minRow = rowOf(math.max(query.getMinY, env.getMinY))
+    val maxRow = rowOf(math.min(query.getMaxY, env.getMaxY))
+    val total = sums((maxRow + 1) * (cols + 1) + maxCol + 1) - sums(minRow * (cols + 1) + maxCol + 1) -
+      sums((maxRow + 1) * (cols + 1) + minCol) + sums(minRow * (cols + 1) + minCol)
+    total.toDouble / ((maxCol - minCol + 1) * (maxRow - minRow + 1))
+  }
+
+  private def buildSums(): Array[Long] = {
+    val table = new Array[Long]((rows + 1) * (cols + 1))
+    for (r <- 0 until rows; c <- 0 until cols) {
+      table((r + 1) * (cols + 1) + c + 1) = counts(r * cols + c) + table(r * (cols + 1) + c + 1) +
+        table((r + 1) * (cols + 1) + c) - table(r * (cols + 1) + c)
+    }
+    table
+  }
+
+  private def colOf(x: Double): Int =
+    if (env.getWidth <= 0) 0 else math.min(cols - 1, math.max(0, ((x - env.getMinX) / env.getWidth * cols).toInt))
+
+  private def rowOf(y: Double): Int =
+    if (env.getHeight <= 0) 0 else math.min(rows - 1, math.max(0, ((y - env.getMinY) / env.getHeight * rows).toInt))
+}
@@ -0,0 +1,67 @@
+package org.apache.spark.mapmatch.serialize
+
+import java.sql.Timestamp
+
+import com.esotericsoftware.kryo.io.{Input, Output}
+import com.esotericsoftware.kryo.{Kryo, Serializer}
+import org.apache.spark.model.st.spatial.SpatialLine
+import org.apache.spark.model.st.{RouteOfTrajectory, SubRoute}
+
+/**
+  * write the compact form of route of trajectory, enter times are written as variable length deltas to the previous time,
+  * the geometry of every sub route is only written for a spatial route so that it stays spatial after a round trip
+  */
+class RouteOfTrajectorySerializer extends Serializer[RouteOfTrajectory] {
+  /**
+    * write object which can't be null
+    *
+    * @param kryo   kryo
+    * @param output output
+    * @param route  obj
+    **/
+  override def write(kryo: Kryo, output: Output, route: RouteOfTrajectory): Unit = {
+    output.writeString(route.oid)
+    val num = route.roadSegmentIds.length
+    output.writeVarInt(num, true)
+    var preTime = if (num == 0) route.endTimeInMs else route.enterTimes(0)
+    output.writeLong(preTime)
+    for (i <- 0 until num) {
+      output.writeVarInt(route.roadSegmentIds(i), false)
+      output.writeVarLong(route.enterTimes(i) - preTime, false)
+      preTime = route.enterTimes(i)
+    }
+    output.writeVarLong(route.endTimeInMs - preTime, false)
+    output.writeBoolean(route.isSpatial)
+    if (route.isSpatial) {
+      route.subRoutes.foreach(subRoute => kryo.writeClassAndObject(output, subRoute.spatialLine.get))
+    }
+  }
+
+  /**
+    * read object which can't be null
+    *
+    * @param kryo  kryo
+    * @param input input
+    * @param clazz clazz
+    **/
+  override def read(kryo: Kryo, input: Input, clazz: Class[RouteOfTrajectory]): RouteOfTrajectory = {
+    val oid = input.readString()
+    val num = input.readVarInt(true)
+    val roadSegmentIds = new Array[Int](num)
+    val enterTimes = new Array[Long](num)
+    var preTime = input.readLong()
+    for (i <- 0 until num) {
+      roadSegmentIds(i) = input.readVarInt(false)
+      preTime += input.readVarLong(false)
+      enterTimes(i) = preTime
+    }
+    val endTimeInMs = preTime + input.readVarLong(false)
+    if (input.readBoolean()) {
+      val subRoutes = Array.tabulate(num)(i => new SubRoute(roadSegmentIds(i), new Timestamp(enterTimes(i)),
+        Some(kryo.readClassAndObject(input).asInstanceOf[SpatialLine])))
+      new RouteOfTrajectory(oid, subRoutes, new Timestamp(endTimeInMs), true)
+    } else {
+      new RouteOfTrajectory(oid, roadSegmentIds, enterTimes, endTimeInMs)
+    }
+  }
+}
@@ -1,10 +1,9 @@
 package org.apache.spark.mapmatch.serialize
 
 import com.esotericsoftware.kryo.Kryo
-import contractionhierarchy.CHRoadSegment
 import org.apache.spark.model.st.spatial.SpatialCoordSequence
 import org.apache.spark.model.st.spatial.graph.RoadSegment
-import org.apache.spark.model.st.{STCoordSequence, Trajectory}
+import org.apache.spark.model.st.{RouteOfTrajectory, STCoordSequence, Trajectory}
 import org.apache.spark.serializer.KryoRegistrator
 
 class SerializerRegistrator extends KryoRegistrator {
@@ -12,7 +11,7 @@ class SerializerRegistrator extends KryoRegistrator {
     kryo.register(classOf[SpatialCoordSequence], new SpatialCoordSeqSerializer)
     kryo.register(classOf[STCoordSequence], new STCoordSeqSerializer)
     kryo.register(classOf[RoadSegment], new RoadSegmentSerializer)
-    kryo.register(classOf[CHRoadSegment], new CHRoadSegmentSerializer)
     kryo.register(classOf[Trajectory], new TrajectorySerializer)
+    kryo.register(classOf[RouteOfTrajectory], new RouteOfTrajectorySerializer)
   }
 }
@@ -0,0 +1,82 @@
+package org.apache.spark.mapmatch.serialize;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.apache.spark.model.st.RouteOfTrajectory;
+import org.apache.spark.model.st.SubRoute;
+import org.apache.spark.model.st.spatial.SpatialCoord;
+import org.apache.spark.model.st.spatial.SpatialCoordSequence;
+import org.apache.spark.model.st.spatial.SpatialLine;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import org.junit.Test;
+import scala.Option;
+
+import java.sql.Timestamp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RouteOfTrajectorySerializerTest {
+
+    @Test
+    public void keepsSpatialRoute() {
+        RoadSegment first = segment(7, 1, 2, 116.0, 116.001);
+        RoadSegment second = segment(-8, 2, 3, 116.001, 116.003);
+        SubRoute[] subRoutes = {
+                new SubRoute(7, new Timestamp(1500000000000L), Option.<SpatialLine>apply(first)),
+                new SubRoute(-8, new Timestamp(1500000012000L), Option.<SpatialLine>apply(second))};
+        RouteOfTrajectory route = new RouteOfTrajectory("car", subRoutes, new Timestamp(1500000030000L), true);
+
+        RouteOfTrajectory copy = roundTrip(route);
+
+        assertEquals("car", copy.oid());
+        assertArrayEquals(route.roadSegmentIds(), copy.roadSegmentIds());
+        assertArrayEquals(route.enterTimes(), copy.enterTimes());
+        assertEquals(route.endTimeInMs(), copy.endTimeInMs());
+        assertTrue(copy.isSpatial());
+        assertEquals(route.getMbr(), copy.getMbr());
+        assertEquals(first.getFirstCoordinate(), copy.getStartNode().getCoordinate());
+        assertEquals(second.getLastCoordinate(), copy.getEndNode().getCoordinate());
+    }
+
+    @Test
+    public void keepsNonSpatialRoute() {
+        RouteOfTrajectory route = new RouteOfTrajectory("car", new int[]{3, 4, -5},
+                new long[]{1500000000000L, 1500000001500L, 1500000009000L}, 1500000010000L);
+
+        RouteOfTrajectory copy = roundTrip(route);
+
+        assertArrayEquals(route.roadSegmentIds(), copy.roadSegmentIds());
+        assertArrayEquals(route.enterTimes(), copy.enterTimes());
+        assertEquals(route.endTimeInMs(), copy.endTimeInMs());
+        assertFalse(copy.isSpatial());
+    }
+
+    @Test
+    public void keepsEmptyRoute() {
+        RouteOfTrajectory route = new RouteOfTrajectory("car", new int[0], new long[0], 1500000010000L);
+
+        RouteOfTrajectory copy = roundTrip(route);
+
+        assertEquals(0, copy.length());
+        assertEquals(new Timestamp(1500000010000L), copy.getStartTime());
+        assertEquals(new Timestamp(1500000010000L), copy.getEndTime());
+    }
+
+    private static RouteOfTrajectory roundTrip(RouteOfTrajectory route) {
+        Kryo kryo = new Kryo();
+        new SerializerRegistrator().registerClasses(kryo);
+        Output output = new Output(256, -1);
+        kryo.writeObject(output, route);
+        return kryo.readObject(new Input(output.toBytes()), RouteOfTrajectory.class);
+    }
+
+    private static RoadSegment segment(int id, int startId, int endId, double startLon, double endLon) {
+        return new RoadSegment(id, startId, endId, new SpatialCoordSequence(new SpatialCoord[]{
+                new SpatialCoord(startLon, 39.0), new SpatialCoord((startLon + endLon) / 2, 39.0005),
+                new SpatialCoord(endLon, 39.0)}));
+    }
+}
@@ -0,0 +1,114 @@
+package mapmatch.batch;
+
+import contractionhierarchy.CHBinaryAccessor;
+import mapmatch.shortestpath.ShortestPathAlgoTypeEnum;
+import mapmatch.tihmm.ChunkedViterbi;
+import mapmatch.tihmm.MatcherOptions;
+import mapmatch.tihmm.TiHmmMapMatcher;
+import mapmatch.tihmm.TiHmmMultipleMatcher;
+import org.apache.spark.model.st.RouteOfTrajectory;
+import org.apache.spark.model.st.Trajectory;
+import org.apache.spark.model.st.spatial.graph.RoadNetwork;
+import org.apache.spark.model.st.spatial.graph.RoadNetworkSnapshot;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * 单机批量匹配入口，不需要启动spark
+ * 参数: trajPath rnPath outputPath algorithm [threadNum] [ordered] [chPath] [chunkThreshold] [options]
+ * rnPath 也可以是RoadNetworkCompiler 生成的路网快照，此时索引直接从快照加载，chPath 为空字符串时不加载
+ * 观测点不少于chunkThreshold 的轨迹分段并行计算viterbi，见ChunkedViterbi，0 表示不分段
+ * options 为candidate、观测点过滤和静止点的参数，见MatcherOptions
+ * algorithm 为ShortestPathAlgoTypeEnum 的名字，加MULTIPLE_ 前缀时使用多对多的TiHmmMultipleMatcher，
+ * 输出每行一条路径
+ *
+ * @date 2021/07/22
+ */
+public class BatchMapMatchApp {
+
+    private static final String MULTIPLE_PREFIX = "MULTIPLE_";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("usage: trajPath rnPath outputPath algorithm [threadNum] [ordered] [chPath] [chunkThreshold] [options]");
+            System.exit(1);
+        }
+        String trajPath = args[0];
+        String rnPath = args[1];
+        String outputPath = args[2];
+        String algorithm = args[3];
+        int threadNum = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        boolean ordered = args.length > 5 && Boolean.parseBoolean(args[5]);
+        int chunkThreshold = args.length > 7 ? Integer.parseInt(args[7]) : 0;
+        MatcherOptions options = MatcherOptions.parse(args.length > 8 ? args[8] : null);
+
+        long startTime = System.currentTimeMillis();
+        boolean snapshot = RoadNetworkSnapshot.isSnapshot(rnPath);
+        RoadNetwork roadNetwork = snapshot ? RoadNetworkSnapshot.load(rnPath) : LocalDataParser.readRoadNetwork(rnPath);
+        if (args.length > 6 && !args[6].isEmpty() && roadNetwork.getCHGraph() == null) {
+            roadNetwork.setCHGraph(CHBinaryAccessor.load(args[6], roadNetwork));
+        }
+        roadNetwork.freeze(false, snapshot);
+        long loadTime = System.currentTimeMillis();
+
+        Supplier<TiHmmMapMatcher> matcherFactory = getMatcherFactory(roadNetwork, algorithm, options);
+        if (chunkThreshold > 0) {
+            // 所有线程的matcher 共享窗口使用的matcher
+            final Supplier<TiHmmMapMatcher> windowMatcherFactory = matcherFactory;
+            final ChunkedViterbi chunkedViterbi = new ChunkedViterbi(chunkThreshold, windowMatcherFactory);
+            matcherFactory = () -> {
+                TiHmmMapMatcher matcher = windowMatcherFactory.get();
+                matcher.setChunkedViterbi(chunkedViterbi);
+                return matcher;
+            };
+        }
+        BatchMapMatcher batchMatcher = new BatchMapMatcher(matcherFactory, threadNum);
+        long[] counts = new long[3];
+        try (Stream<Trajectory> trajectories = LocalDataParser.readTrajectories(trajPath);
+             BufferedWriter writer = Files.newBufferedWriter(Paths.get(outputPath), StandardCharsets.UTF_8)) {
+            batchMatcher.match(trajectories.iterator(), (traj, routes) -> {
+                counts[0]++;
+                counts[1] += traj.getSTPointList().size();
+                if (routes == null) {
+                    return;
+                }
+                try {
+                    for (RouteOfTrajectory route : routes) {
+                        writer.write(route.toString());
+                        writer.newLine();
+                        counts[2]++;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, ordered);
+        }
+        double loadSec = (loadTime - startTime) / 1E3;
+        double matchSec = (System.currentTimeMillis() - loadTime) / 1E3;
+        System.out.printf("trajectories:%d;points:%d;routes:%d;load:%.1fs;match:%.1fs;points/s:%.0f%n",
+                counts[0], counts[1], counts[2], loadSec, matchSec, counts[1] / Math.max(matchSec, 1E-3));
+    }
+
+    private static Supplier<TiHmmMapMatcher> getMatcherFactory(RoadNetwork roadNetwork, String algorithm, MatcherOptions options) {
+        final boolean multiple = algorithm.startsWith(MULTIPLE_PREFIX);
+        final ShortestPathAlgoTypeEnum algoType = ShortestPathAlgoTypeEnum.valueOf(
+                multiple ? algorithm.substring(MULTIPLE_PREFIX.length()) : algorithm);
+        return () -> {
+            if (!multiple) {
+                return options.apply(new TiHmmMapMatcher(roadNetwork, algoType));
+            }
+            try {
+                return options.apply(new TiHmmMultipleMatcher(roadNetwork, algoType));
+            } catch (Exception e) {
+                throw new IllegalArgumentException("unrecognized algorithm type " + algorithm, e);
+            }
+        };
+    }
+}
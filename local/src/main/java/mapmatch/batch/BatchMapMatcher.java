@@ -0,0 +1,130 @@
+package mapmatch.batch;
+
+import mapmatch.tihmm.TiHmmMapMatcher;
+import org.apache.spark.model.st.RouteOfTrajectory;
+import org.apache.spark.model.st.Trajectory;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * 单机多线程批量匹配，所有线程共享同一个只读路网，每个线程使用独立的matcher。
+ * 结果在调用线程中按输入顺序或完成顺序交给consumer，同时处理中的轨迹数有上限，内存与输入大小无关
+ *
+ * @date 2021/07/22
+ */
+public class BatchMapMatcher {
+
+    /**
+     * 每个线程最多有多少条轨迹在等待或处理中
+     */
+    private static final int MAX_PENDING_PER_THREAD = 64;
+
+    private final ThreadLocal<TiHmmMapMatcher> matchers;
+
+    private final int threadNum;
+
+    /**
+     * @param matcherFactory 建立matcher，每个工作线程调用一次
+     * @param threadNum      工作线程数
+     */
+    public BatchMapMatcher(Supplier<TiHmmMapMatcher> matcherFactory, int threadNum) {
+        if (threadNum <= 0) {
+            throw new IllegalArgumentException("thread number must be positive");
+        }
+        this.matchers = ThreadLocal.withInitial(matcherFactory);
+        this.threadNum = threadNum;
+    }
+
+    /**
+     * 匹配所有轨迹
+     *
+     * @param trajectories 输入轨迹
+     * @param consumer     接收轨迹及其匹配得到的路径，无法匹配时路径为null
+     * @param ordered      是否按输入顺序输出
+     */
+    public void match(Iterator<Trajectory> trajectories, BiConsumer<Trajectory, List<RouteOfTrajectory>> consumer,
+                      boolean ordered) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threadNum, new MatchThreadFactory());
+        try {
+            if (ordered) {
+                matchOrdered(trajectories, consumer, executor);
+            } else {
+                matchUnordered(trajectories, consumer, executor);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void matchOrdered(Iterator<Trajectory> trajectories, BiConsumer<Trajectory, List<RouteOfTrajectory>> consumer,
+                              ExecutorService executor) throws InterruptedException {
+        final int maxPending = threadNum * MAX_PENDING_PER_THREAD;
+        ArrayDeque<Future<MatchResult>> pending = new ArrayDeque<>(maxPending);
+        while (trajectories.hasNext() || !pending.isEmpty()) {
+            while (trajectories.hasNext() && pending.size() < maxPending) {
+                pending.add(executor.submit(newTask(trajectories.next())));
+            }
+            accept(pending.poll(), consumer);
+        }
+    }
+
+    private void matchUnordered(Iterator<Trajectory> trajectories, BiConsumer<Trajectory, List<RouteOfTrajectory>> consumer,
+                                ExecutorService executor) throws InterruptedException {
+        final int maxPending = threadNum * MAX_PENDING_PER_THREAD;
+        CompletionService<MatchResult> completionService = new ExecutorCompletionService<>(executor);
+        int pendingNum = 0;
+        while (trajectories.hasNext() || pendingNum > 0) {
+            while (trajectories.hasNext() && pendingNum < maxPending) {
+                completionService.submit(newTask(trajectories.next()));
+                pendingNum++;
+            }
+            accept(completionService.take(), consumer);
+            pendingNum--;
+        }
+    }
+
+    private Callable<MatchResult> newTask(Trajectory trajectory) {
+        return () -> new MatchResult(trajectory, matchers.get().matchTrajToRoute(trajectory));
+    }
+
+    private static void accept(Future<MatchResult> future, BiConsumer<Trajectory, List<RouteOfTrajectory>> consumer)
+            throws InterruptedException {
+        MatchResult result;
+        try {
+            result = future.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("map match failed", e.getCause());
+        }
+        consumer.accept(result.trajectory, result.routes);
+    }
+
+    private static class MatchResult {
+        private final Trajectory trajectory;
+        private final List<RouteOfTrajectory> routes;
+
+        private MatchResult(Trajectory trajectory, List<RouteOfTrajectory> routes) {
+            this.trajectory = trajectory;
+            this.routes = routes;
+        }
+    }
+
+    /**
+     * 工作线程设为daemon，调用方异常退出时不会阻止jvm 结束
+     */
+    private static class MatchThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "map-match-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package mapmatch.batch;
+
+import contractionhierarchy.CHAccessor;
+import contractionhierarchy.CHBinaryAccessor;
+import contractionhierarchy.CHRoadSegment;
+import contractionhierarchy.CHTransformer;
+import org.apache.spark.model.st.spatial.graph.RoadNetwork;
+import org.apache.spark.model.st.spatial.graph.RoadNode;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import org.jgrapht.alg.shortestpath.ContractionHierarchyPrecomputation;
+import org.jgrapht.alg.shortestpath.ContractionHierarchyPrecomputation.ContractionHierarchy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 生成CHBinaryAccessor 格式的ch 文件，供MapMatchApp 的ch 模式与RoadNetworkCompiler 使用。
+ * 没有给出textCHPath 时对路网做contraction，否则将CHAccessor 写出的文本ch 转换为二进制格式。
+ * 第三个参数为cch 时建立customizable ch，weightPath 每行为 roadId,weight，给出的有向路段按该权重重新customize，
+ * 其余路段仍为长度(m)，权重变化时只需要重新运行customize 而不需要重新contraction
+ * 参数: rnPath chPath [textCHPath | cch [weightPath]]
+ *
+ * @date 2021/07/31
+ */
+public class CHCompiler {
+
+    private static final String CCH = "cch";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: rnPath chPath [textCHPath | cch [weightPath]]");
+            System.exit(1);
+        }
+        long startTime = System.currentTimeMillis();
+        RoadNetwork roadNetwork = LocalDataParser.readRoadNetwork(args[0]);
+        ContractionHierarchy<RoadNode, RoadSegment> ch;
+        if (args.length > 2 && CCH.equals(args[2])) {
+            roadNetwork.useCustomizableCH();
+            if (args.length > 3) {
+                Map<Integer, Double> weights = readWeights(args[3]);
+                roadNetwork.reweight(segment -> weights.getOrDefault(segment.getRoadId(), segment.getLengthInM()));
+            }
+            ch = roadNetwork.getCHGraph();
+        } else if (args.length > 2) {
+            ch = readTextCH(args[2], roadNetwork);
+        } else {
+            ch = new ContractionHierarchyPrecomputation<>(roadNetwork.getRoadGraph(true)).computeContractionHierarchy();
+        }
+        CHBinaryAccessor.write(ch, args[1]);
+        System.out.println("ch edges:" + ch.getContractionGraph().edgeSet().size()
+                + ";size:" + Files.size(Paths.get(args[1]))
+                + ";time:" + (System.currentTimeMillis() - startTime) / 1E3 + "s");
+    }
+
+    private static ContractionHierarchy<RoadNode, RoadSegment> readTextCH(String path, RoadNetwork roadNetwork) throws IOException {
+        List<CHRoadSegment> chRoadSegments = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    chRoadSegments.add(CHAccessor.read(line));
+                }
+            }
+        }
+        return CHTransformer.edges2Graph(chRoadSegments, roadNetwork);
+    }
+
+    private static Map<Integer, Double> readWeights(String path) throws IOException {
+        Map<Integer, Double> weights = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    String[] elements = line.split(",");
+                    weights.put(Integer.parseInt(elements[0].trim()), Double.parseDouble(elements[1].trim()));
+                }
+            }
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,126 @@
+package mapmatch.batch;
+
+import org.apache.spark.model.st.Trajectory;
+import org.apache.spark.model.st.spatial.SpatialCoord;
+import org.apache.spark.model.st.spatial.SpatialCoordSequence;
+import org.apache.spark.model.st.spatial.graph.RoadNetwork;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import org.apache.spark.utils.WKTUtils;
+import org.locationtech.jts.geom.Coordinate;
+import trajectorystore.TrajectoryBinaryFormat;
+import trajectorystore.TrajectoryBinaryReader;
+import trajectorystore.TrajectoryTextParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 单机读取轨迹和路网文件，格式与distribute 模块的DataParser 相同
+ *
+ * @date 2021/07/22
+ */
+public class LocalDataParser {
+
+    /**
+     * 每个线程复用一个解析器
+     */
+    private static final ThreadLocal<TrajectoryTextParser> TRAJECTORY_PARSER = ThreadLocal.withInitial(TrajectoryTextParser::new);
+
+    private LocalDataParser() {
+    }
+
+    /**
+     * 解析一行轨迹: [oid,[["yyyy-MM-dd HH:mm:ss",lng,lat],...]]
+     *
+     * @param trajString 轨迹字符串
+     * @return 轨迹
+     */
+    public static Trajectory parseTrajectory(String trajString) {
+        return TRAJECTORY_PARSER.get().parse(trajString);
+    }
+
+    /**
+     * 解析一行路段: id|wkt|startId|endId|direction|level|speedLimit|lengthInM
+     *
+     * @param str 路段字符串
+     * @return 路段
+     */
+    public static RoadSegment parseRoadSegment(String str) {
+        String[] attrs = str.split("\\|");
+        Coordinate[] coordinates = WKTUtils.read(attrs[1]).getCoordinates();
+        SpatialCoord[] spatialCoords = new SpatialCoord[coordinates.length];
+        for (int i = 0; i < coordinates.length; i++) {
+            spatialCoords[i] = new SpatialCoord(coordinates[i]);
+        }
+        return new RoadSegment(Integer.parseInt(attrs[0]), Integer.parseInt(attrs[2]), Integer.parseInt(attrs[3]),
+                new SpatialCoordSequence(spatialCoords))
+                .setDirection(Integer.parseInt(attrs[4]))
+                .setLevel(Integer.parseInt(attrs[5]))
+                .setLength(Double.parseDouble(attrs[7]) / 1000)
+                .setSpeedLimit(Double.parseDouble(attrs[6]));
+    }
+
+    /**
+     * @param path 路网文件，每行一个路段
+     * @return 路网
+     */
+    public static RoadNetwork readRoadNetwork(String path) throws IOException {
+        List<RoadSegment> roadSegments = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    roadSegments.add(parseRoadSegment(line));
+                }
+            }
+        }
+        return new RoadNetwork(roadSegments.toArray(new RoadSegment[0]));
+    }
+
+    /**
+     * 读取轨迹文件，调用方需要关闭返回的stream
+     * 二进制轨迹文件（见{@link TrajectoryBinaryFormat}）通过内存映射顺序扫描，否则逐行解析
+     *
+     * @param path 轨迹文件，每行一条轨迹或二进制轨迹文件
+     * @return 轨迹stream
+     */
+    public static Stream<Trajectory> readTrajectories(String path) throws IOException {
+        if (isBinaryTrajectoryFile(path)) {
+            TrajectoryBinaryReader reader = TrajectoryBinaryReader.open(path);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(reader, Spliterator.ORDERED), false)
+                    .onClose(() -> {
+                        try {
+                            reader.close();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        }
+        return Files.lines(Paths.get(path), StandardCharsets.UTF_8)
+                .filter(line -> !line.trim().isEmpty())
+                .map(LocalDataParser::parseTrajectory);
+    }
+
+    private static boolean isBinaryTrajectoryFile(String path) throws IOException {
+        byte[] head = new byte[TrajectoryBinaryFormat.HEADER_BYTES];
+        int length = 0;
+        try (InputStream in = Files.newInputStream(Paths.get(path))) {
+            int read;
+            while (length < head.length && (read = in.read(head, length, head.length - length)) > 0) {
+                length += read;
+            }
+        }
+        return TrajectoryBinaryFormat.isBinary(head, length);
+    }
+}
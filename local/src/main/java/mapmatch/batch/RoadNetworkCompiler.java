@@ -0,0 +1,38 @@
+package mapmatch.batch;
+
+import contractionhierarchy.CHBinaryAccessor;
+import org.apache.spark.model.st.spatial.graph.RoadNetwork;
+import org.apache.spark.model.st.spatial.graph.RoadNetworkSnapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * 将文本路网编译为路网快照，包括路段几何、csr图、packed rtree 以及可选的ch，
+ * 匹配时内存映射快照，不需要解析wkt 和重建索引
+ * 参数: rnPath snapshotPath [chPath]，chPath 为CHCompiler 生成的二进制ch 文件
+ *
+ * @date 2021/07/30
+ */
+public class RoadNetworkCompiler {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: rnPath snapshotPath [chPath]");
+            System.exit(1);
+        }
+        long startTime = System.currentTimeMillis();
+        RoadNetwork roadNetwork = LocalDataParser.readRoadNetwork(args[0]);
+        if (args.length > 2) {
+            roadNetwork.setCHGraph(CHBinaryAccessor.load(args[2], roadNetwork));
+        }
+        RoadNetworkSnapshot.write(roadNetwork, args[1]);
+        long compileTime = System.currentTimeMillis();
+
+        RoadNetwork loaded = RoadNetworkSnapshot.load(args[1]).freeze(false, true);
+        System.out.println("segments:" + loaded.getRoadNum() + ";size:" + Files.size(Paths.get(args[1]))
+                + ";compile:" + (compileTime - startTime) / 1E3 + "s"
+                + ";load:" + (System.currentTimeMillis() - compileTime) / 1E3 + "s");
+    }
+}
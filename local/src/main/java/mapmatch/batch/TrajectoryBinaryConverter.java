@@ -0,0 +1,47 @@
+package mapmatch.batch;
+
+import org.apache.spark.model.st.Trajectory;
+import trajectorystore.TrajectoryBinaryFormat;
+import trajectorystore.TrajectoryBinaryWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+/**
+ * 将文本轨迹文件转换为二进制轨迹文件，重复匹配同一批历史轨迹时不需要每次解析文本
+ * 参数: textPath binaryPath [coordScale]
+ *
+ * @date 2021/07/29
+ */
+public class TrajectoryBinaryConverter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: textPath binaryPath [coordScale]");
+            System.exit(1);
+        }
+        int coordScale = args.length > 2 ? Integer.parseInt(args[2]) : TrajectoryBinaryFormat.DEFAULT_COORD_SCALE;
+
+        long startTime = System.currentTimeMillis();
+        long trajectoryNum;
+        try (Stream<Trajectory> trajectories = LocalDataParser.readTrajectories(args[0]);
+             TrajectoryBinaryWriter writer = new TrajectoryBinaryWriter(
+                     new BufferedOutputStream(Files.newOutputStream(Paths.get(args[1])), 1 << 16), coordScale)) {
+            trajectories.forEach(traj -> {
+                try {
+                    writer.write(traj);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            trajectoryNum = writer.getTrajectoryNum();
+        }
+        System.out.println("trajectory:" + trajectoryNum
+                + ";size:" + Files.size(Paths.get(args[0])) + "->" + Files.size(Paths.get(args[1]))
+                + ";time:" + (System.currentTimeMillis() - startTime) / 1E3 + "s");
+    }
+}
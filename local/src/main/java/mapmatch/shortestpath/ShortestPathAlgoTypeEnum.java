@@ -17,7 +17,15 @@ public enum ShortestPathAlgoTypeEnum implements Serializable {
 
     BI_ASTAR(AlgorithmTypeConstant.BI_ASTAR),
 
-    CH(AlgorithmTypeConstant.CH);
+    CH(AlgorithmTypeConstant.CH),
+
+    CSR_ASTAR(AlgorithmTypeConstant.CSR_ASTAR),
+
+    CSR_DIJKSTRA(AlgorithmTypeConstant.CSR_DIJKSTRA),
+
+    CSR_BI_DIJKSTRA(AlgorithmTypeConstant.CSR_BI_DIJKSTRA),
+
+    BOUNDED_DIJKSTRA(AlgorithmTypeConstant.BOUNDED_DIJKSTRA);
 
     String type;
 
@@ -47,6 +55,20 @@ public enum ShortestPathAlgoTypeEnum implements Serializable {
         static final String BI_DIJKSTRA = "BI_DIJKSTRA";
 
         static final String BI_ASTAR = "BI_ASTAR";
+
+        /**
+         * 基于CSR路网图的算法
+         */
+        static final String CSR_ASTAR = "CSR_ASTAR";
+
+        static final String CSR_DIJKSTRA = "CSR_DIJKSTRA";
+
+        static final String CSR_BI_DIJKSTRA = "CSR_BI_DIJKSTRA";
+
+        /**
+         * 基于CSR路网图, 带距离上界的一对多 Dijkstra 算法
+         */
+        static final String BOUNDED_DIJKSTRA = "BOUNDED_DIJKSTRA";
     }
 }
 
@@ -1,12 +1,12 @@
 package mapmatch.shortestpath;
 
 import org.apache.spark.model.st.RouteOfTrajectory;
+import org.apache.spark.model.st.RouteOfTrajectoryBuilder;
 import org.apache.spark.model.st.SubRoute;
 import org.apache.spark.model.st.spatial.SpatialLine;
 import org.apache.spark.model.st.spatial.graph.RoadNetwork;
 import org.apache.spark.model.st.spatial.graph.RoadNode;
 import org.apache.spark.model.st.spatial.graph.RoadSegment;
-import org.locationtech.jts.geom.GeometryFactory;
 import point.MapMatchedPoint;
 import point.MapMatchedTrajectory;
 import scala.Option;
@@ -34,16 +34,32 @@ public class ShortestPathRouteRecovery  {
     }
 
     public List<RouteOfTrajectory> recover(MapMatchedTrajectory mmTraj, RoadNetwork roadNetwork) {
+        return recover(mmTraj, roadNetwork, null);
+    }
+
+    /**
+     * @param mmTraj          map match 后的轨迹
+     * @param roadNetwork     路网
+     * @param transitionPaths 可为null，与mmTraj 中的点一一对应，为HMM 中从前一个点到该点使用的路径，
+     *                        有路径时不再重新搜索，未知时为null
+     * @return a collection of continuous path
+     */
+    public List<RouteOfTrajectory> recover(MapMatchedTrajectory mmTraj, RoadNetwork roadNetwork, List<List<RoadSegment>> transitionPaths) {
         List<MapMatchedPoint> rawMmPts = mmTraj.getMmPtList();
         List<MapMatchedPoint> mmPts = new ArrayList<>();
+        List<List<RoadSegment>> mmPaths = new ArrayList<>();
         // 去除null的map match point
-        for (MapMatchedPoint mapMatchedPoint : rawMmPts) {
+        for (int i = 0; i < rawMmPts.size(); i++) {
+            MapMatchedPoint mapMatchedPoint = rawMmPts.get(i);
             if (mapMatchedPoint.getCandidatePoint() != null) {
                 mmPts.add(mapMatchedPoint);
+                // 前一个点被去除时路径不对应相邻的两个点
+                boolean adjacent = transitionPaths != null && i > 0 && rawMmPts.get(i - 1).getCandidatePoint() != null;
+                mmPaths.add(adjacent ? transitionPaths.get(i) : null);
             }
         }
-        List<SubRoute> routeEntities = new ArrayList<>();
-        Timestamp prePtEdgeLeaveTime, prePtEdgeEnterTime, curPtEdgeEnterTime;
+        RouteOfTrajectoryBuilder routeBuilder = new RouteOfTrajectoryBuilder();
+        long prePtEdgeLeaveTime, prePtEdgeEnterTime, curPtEdgeEnterTime;
         List<RouteOfTrajectory> routes = new ArrayList<>();
         // 只有一个点匹配到了，其他map match point的candidate point 因为是null被filter掉了
         if (mmPts.size() == 1) {
@@ -52,15 +68,17 @@ public class ShortestPathRouteRecovery  {
             // km/h转为 m/s
             double speed = roadSegment.getSpeedLimit() / 3.6;
             // 无法推测进入和离开时间，因此将进入和离开时间由映射到的路段的限速来计算
-            Timestamp enterTime = Timestamp.from(mmPt.getTime().toInstant().minusSeconds(new Double(mmPt.getCandidatePoint().getOffset() / speed).longValue()));
-            Timestamp leaveTime = Timestamp.from(mmPt.getTime().toInstant().plusSeconds(new Double((roadSegment.getLength() - mmPt.getCandidatePoint().getOffset()) / speed).longValue()));
-            SpatialLine spatialLine = new SpatialLine(roadSegment.getCoordSequence(), new GeometryFactory());
-            routeEntities.add(new SubRoute(roadSegment.getRoadId(), enterTime, Option.apply(spatialLine)));
-            RouteOfTrajectory route = new RouteOfTrajectory(mmTraj.getObjectID(), routeEntities.toArray(new SubRoute[0]), leaveTime, true);
-            routes.add(route);
+            long enterTime = mmPt.getTime().getTime();
+            long leaveTime = mmPt.getTime().getTime();
+            if (speed > 0) {
+                enterTime -= 1000L * (long) (mmPt.getCandidatePoint().getOffset() / speed);
+                leaveTime += 1000L * (long) ((roadSegment.getLength() - mmPt.getCandidatePoint().getOffset()) / speed);
+            }
+            routeBuilder.add(roadSegment.getRoadId(), enterTime);
+            routes.add(routeBuilder.build(mmTraj.getObjectID(), leaveTime));
         } else if (mmPts.size() > 1) {
             // assume the first edge enter time is the first point appear time
-            prePtEdgeEnterTime = mmPts.get(0).getTime();
+            prePtEdgeEnterTime = mmPts.get(0).getTime().getTime();
             for (int idx = 1; idx < mmPts.size(); idx++) {
                 MapMatchedPoint preMMPt = mmPts.get(idx - 1);
                 MapMatchedPoint curMMPt = mmPts.get(idx);
@@ -68,43 +86,38 @@ public class ShortestPathRouteRecovery  {
                 RoadSegment curRoadSegment = roadNetwork.getRoadSegment(curMMPt.getCandidatePoint().getRoadSegmentID());
                 // only check two points on the different road
                 if (!preRoadSegment.equals(curRoadSegment)) {
-                    Tuple2<Double, List<RoadSegment>> gp = pathAlgo.findShortestPathGraph(
-                            getStartNode(preMMPt, preRoadSegment), getEndNode(curMMPt, curRoadSegment));
+                    List<RoadSegment> transitionPath = mmPaths.get(idx);
+                    Tuple2<Double, List<RoadSegment>> gp = transitionPath != null ? toGraphPath(transitionPath)
+                            : pathAlgo.findShortestPathGraph(getStartNode(preMMPt, preRoadSegment), getEndNode(curMMPt, curRoadSegment));
+                    long preTime = preMMPt.getTime().getTime();
+                    long curTime = curMMPt.getTime().getTime();
                     if (gp._2 == null) {
                         // if map matching is correct, every two road segment can be connect
                         // if can't connect, we split the route into two routes
                         // in this case, the actual previous edge leave time cannot be calculated
                         // we estimate it using the time of the next point
-                        prePtEdgeLeaveTime = preMMPt.getTime();
-                        RoadSegment tempRs = roadNetwork.getRoadSegment(preMMPt.getCandidatePoint().getRoadSegmentID());
-                        routeEntities.add(
-                                new SubRoute(tempRs.getRoadId(), prePtEdgeEnterTime, Option.apply(new SpatialLine(tempRs.getCoordSequence(), new GeometryFactory()))));
-                        RouteOfTrajectory preRoute = new RouteOfTrajectory(mmTraj.getObjectID(), routeEntities.toArray(new SubRoute[0]), prePtEdgeLeaveTime, true);
-                        routes.add(preRoute);
-                        routeEntities = new ArrayList<>();
+                        routeBuilder.add(preRoadSegment.getRoadId(), prePtEdgeEnterTime);
+                        routes.add(routeBuilder.build(mmTraj.getObjectID(), preTime));
                         // in this case, the actual next edge enter time cannot be calculated,
                         // we estimate next edge enter time as the current point time
-                        prePtEdgeEnterTime = curMMPt.getTime();
+                        prePtEdgeEnterTime = curTime;
                         continue;
                     }
-                    long totalTimeSpan = curMMPt.getTime().getTime() - preMMPt.getTime().getTime();
+                    long totalTimeSpan = curTime - preTime;
                     double preMatchedPtOffset = preMMPt.getCandidatePoint().getOffset();
                     double curMatchedPtOffset = curMMPt.getCandidatePoint().getOffset();
                     double totalDistance = gp._1 +
                             (preRoadSegment.getLength() - preMatchedPtOffset) + curMatchedPtOffset;
-                    prePtEdgeLeaveTime = Timestamp.from(preMMPt.getTime().toInstant().plusMillis(
-                            (long) ((preRoadSegment.getLength() - preMatchedPtOffset) *
-                                    totalTimeSpan / totalDistance)));
-                    routeEntities.add(new SubRoute(preRoadSegment.getRoadId(), prePtEdgeEnterTime, Option.apply(new SpatialLine(preRoadSegment.getCoordSequence(), new GeometryFactory()))));
-                    curPtEdgeEnterTime = Timestamp.from(curMMPt.getTime().toInstant().minusMillis(
-                            (long) (curMatchedPtOffset * totalTimeSpan / totalDistance)));
+                    prePtEdgeLeaveTime = preTime + (long) ((preRoadSegment.getLength() - preMatchedPtOffset) *
+                            totalTimeSpan / totalDistance);
+                    routeBuilder.add(preRoadSegment.getRoadId(), prePtEdgeEnterTime);
+                    curPtEdgeEnterTime = curTime - (long) (curMatchedPtOffset * totalTimeSpan / totalDistance);
 
                     if (gp._2.isEmpty()) {
                         // to make sure the last connect edge leave time meets cur point enter time due to double calculation accuracy
                         curPtEdgeEnterTime = prePtEdgeLeaveTime;
                     } else {
-                        List<SubRoute> interpolatedPart = linearInterpolateRoute(gp, prePtEdgeLeaveTime, curPtEdgeEnterTime);
-                        routeEntities.addAll(interpolatedPart);
+                        linearInterpolateRoute(gp, prePtEdgeLeaveTime, curPtEdgeEnterTime, routeBuilder);
                     }
                     // enter time is updated only when a new edge comes
                     prePtEdgeEnterTime = curPtEdgeEnterTime;
@@ -112,11 +125,9 @@ public class ShortestPathRouteRecovery  {
             }
             // add the last edge
             // assume the last edge leave time is the last point appear time
-            RoadSegment lastRs = roadNetwork.getRoadSegment(mmPts.get(mmPts.size() - 1).getCandidatePoint().getRoadSegmentID());
-            routeEntities.add(
-                    new SubRoute(lastRs.getRoadId(),
-                            prePtEdgeEnterTime, Option.apply(new SpatialLine(lastRs.getCoordSequence(), new GeometryFactory()))));
-            routes.add(new RouteOfTrajectory(mmTraj.getObjectID(), routeEntities.toArray(new SubRoute[0]), mmPts.get(mmPts.size() - 1).getTime(), true));
+            MapMatchedPoint lastMMPt = mmPts.get(mmPts.size() - 1);
+            routeBuilder.add(lastMMPt.getCandidatePoint().getRoadSegmentID(), prePtEdgeEnterTime);
+            routes.add(routeBuilder.build(mmTraj.getObjectID(), lastMMPt.getTime().getTime()));
         } else {
             return null;
         }
@@ -129,7 +140,7 @@ public class ShortestPathRouteRecovery  {
      * @param pathLeaveTime 离开时间
      * @return List<SegmentInTrajectory> 轨迹中路段list
      */
-    private List<SubRoute> linearInterpolateRoute(Tuple2<Double, List<RoadSegment>>  gp, Timestamp pathEnterTime,
+    public static List<SubRoute> linearInterpolateRoute(Tuple2<Double, List<RoadSegment>>  gp, Timestamp pathEnterTime,
                                                   Timestamp pathLeaveTime) {
         List<RoadSegment> path = gp._2;
         List<SubRoute> routeEntities = new ArrayList<>();
@@ -146,20 +157,53 @@ public class ShortestPathRouteRecovery  {
                         * pathTimeSpan / gp._1)));
             }
             RoadSegment tempRs = path.get(j);
-            routeEntities.add(new SubRoute(tempRs.getRoadId(), edgeEnterTime, Option.apply(new SpatialLine(tempRs.getCoordSequence(), new GeometryFactory()))));
+            routeEntities.add(new SubRoute(tempRs.getRoadId(), edgeEnterTime, Option.<SpatialLine>apply(tempRs)));
             edgeEnterTime = edgeLeaveTime;
         }
         return routeEntities;
     }
 
-    private RoadNode getStartNode(MapMatchedPoint pt, RoadSegment roadSegment) {
+    /**
+     * 与linearInterpolateRoute 相同，路段直接加入routeBuilder
+     *
+     * @param gp            图
+     * @param pathEnterTime 进入时间(ms)
+     * @param pathLeaveTime 离开时间(ms)
+     * @param routeBuilder  输出
+     */
+    public static void linearInterpolateRoute(Tuple2<Double, List<RoadSegment>> gp, long pathEnterTime,
+                                              long pathLeaveTime, RouteOfTrajectoryBuilder routeBuilder) {
+        List<RoadSegment> path = gp._2;
+        long pathTimeSpan = pathLeaveTime - pathEnterTime;
+        long edgeEnterTime = pathEnterTime;
+        int j = 0;
+        for (RoadSegment rs : path) {
+            routeBuilder.add(rs.getRoadId(), edgeEnterTime);
+            edgeEnterTime = ++j == path.size() ? pathLeaveTime
+                    : edgeEnterTime + (long) (rs.getLength() * pathTimeSpan / gp._1);
+        }
+    }
+
+    /**
+     * @param transitionPath HMM 中计算transition p 时得到的路径
+     * @return 与findShortestPathGraph 相同格式的路径，距离为路径上所有路段长度之和
+     */
+    public static Tuple2<Double, List<RoadSegment>> toGraphPath(List<RoadSegment> transitionPath) {
+        double dist = 0.0;
+        for (RoadSegment rs : transitionPath) {
+            dist += rs.getLength();
+        }
+        return new Tuple2<>(dist, transitionPath);
+    }
+
+    public static RoadNode getStartNode(MapMatchedPoint pt, RoadSegment roadSegment) {
         if (pt.getCandidatePoint().getOffset() == 0.0) {
             return roadSegment.getStartNode();
         }
         return roadSegment.getEndNode();
     }
 
-    private RoadNode getEndNode(MapMatchedPoint pt, RoadSegment roadSegment) {
+    public static RoadNode getEndNode(MapMatchedPoint pt, RoadSegment roadSegment) {
         if (pt.getCandidatePoint().getOffset() == roadSegment.getLength()) {
             return roadSegment.getEndNode();
         }
@@ -0,0 +1,282 @@
+package mapmatch.shortestpath.cache.ubodt;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Upper-bounded origin-destination table: 预计算的半径内所有顶点对的最短路径.
+ * 开放寻址(线性探测)哈希表, key为(source, target)打包成的long, 每个slot保存距离, 路径上的第一个路段和该路段的终点,
+ * 依次查询(nextNode, target)即可还原整条路径.
+ * 表的内存布局与文件布局一致, 查询时直接对只读内存映射的文件操作, 不占用堆内存, 也不会产生装箱对象.
+ * <p>
+ * 文件格式(little endian): header(magic, version, capacity, size, radius) + capacity个slot,
+ * slot = key(long) + distance(double) + firstSegmentId(int) + nextNodeId(int)
+ *
+ * @date 2021/07/12
+ */
+public class UBODT {
+
+    private static final int MAGIC = 0x55424F44;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 32;
+
+    private static final int SLOT_BYTES = 24;
+
+    private static final int DISTANCE_OFFSET = 8;
+
+    private static final int FIRST_SEGMENT_OFFSET = 16;
+
+    private static final int NEXT_NODE_OFFSET = 20;
+
+    /**
+     * 单个buffer最多容纳的slot数(2^25 * 24B = 768MB), 保证不超过ByteBuffer的2GB上限
+     */
+    private static final int CHUNK_SHIFT = 25;
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private static final double LOAD_FACTOR = 0.7;
+
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+
+    private final ByteBuffer[] chunks;
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final int chunkShift;
+
+    private final int chunkMask;
+
+    private final double radius;
+
+    private int size;
+
+    private UBODT(ByteBuffer[] chunks, int capacity, int size, double radius) {
+        this.chunks = chunks;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.chunkShift = Math.min(CHUNK_SHIFT, Integer.numberOfTrailingZeros(capacity));
+        this.chunkMask = (1 << chunkShift) - 1;
+        this.size = size;
+        this.radius = radius;
+    }
+
+    /**
+     * 在堆内创建一个可写入的空表
+     *
+     * @param expectedSize 预计的记录数
+     * @param radius       预计算时的搜索半径(m)
+     */
+    static UBODT create(long expectedSize, double radius) {
+        int capacity = tableCapacity(expectedSize);
+        int chunkSlots = Math.min(capacity, 1 << CHUNK_SHIFT);
+        ByteBuffer[] chunks = new ByteBuffer[capacity / chunkSlots];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ByteBuffer.allocate(chunkSlots * SLOT_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (int slot = 0; slot < chunkSlots; slot++) {
+                chunks[i].putLong(slot * SLOT_BYTES, EMPTY_KEY);
+            }
+        }
+        return new UBODT(chunks, capacity, 0, radius);
+    }
+
+    /**
+     * 以只读内存映射的方式打开UBODT文件
+     *
+     * @param path 本地文件路径
+     */
+    public static UBODT load(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("not a UBODT file: " + path);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("unsupported UBODT version " + header.getInt(4) + ": " + path);
+            }
+            int capacity = header.getInt(8);
+            int size = header.getInt(12);
+            double radius = header.getDouble(16);
+            int chunkSlots = Math.min(capacity, 1 << CHUNK_SHIFT);
+            long chunkBytes = (long) chunkSlots * SLOT_BYTES;
+            if (channel.size() != HEADER_BYTES + chunkBytes * (capacity / chunkSlots)) {
+                throw new IOException("truncated UBODT file: " + path);
+            }
+            ByteBuffer[] chunks = new ByteBuffer[capacity / chunkSlots];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + i * chunkBytes, chunkBytes)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return new UBODT(chunks, capacity, size, radius);
+        }
+    }
+
+    /**
+     * 写入文件, 文件可直接被{@link #load(String)}映射
+     *
+     * @param path 本地文件路径
+     */
+    public void write(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw");
+             FileChannel channel = file.getChannel()) {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(capacity).putInt(size).putDouble(radius);
+            header.clear();
+            writeFully(channel, header);
+            for (ByteBuffer chunk : chunks) {
+                writeFully(channel, (ByteBuffer) chunk.duplicate().clear());
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * 插入一条记录, 已存在时覆盖
+     */
+    void put(int source, int target, double distance, int firstSegmentId, int nextNodeId) {
+        long key = packKey(source, target);
+        int slot = hash(key) & mask;
+        while (true) {
+            long slotKey = getKey(slot);
+            if (slotKey == EMPTY_KEY) {
+                if (size >= capacity * LOAD_FACTOR) {
+                    throw new IllegalStateException("UBODT is full, capacity: " + capacity);
+                }
+                size++;
+                break;
+            }
+            if (slotKey == key) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        ByteBuffer chunk = chunks[slot >>> chunkShift];
+        int offset = (slot & chunkMask) * SLOT_BYTES;
+        chunk.putLong(offset, key);
+        chunk.putDouble(offset + DISTANCE_OFFSET, distance);
+        chunk.putInt(offset + FIRST_SEGMENT_OFFSET, firstSegmentId);
+        chunk.putInt(offset + NEXT_NODE_OFFSET, nextNodeId);
+    }
+
+    /**
+     * @param source 起点id
+     * @param target 终点id
+     * @return (source, target)所在的slot, 不在表中(超出半径或不可达)时返回-1
+     */
+    public int find(int source, int target) {
+        long key = packKey(source, target);
+        int slot = hash(key) & mask;
+        while (true) {
+            long slotKey = getKey(slot);
+            if (slotKey == key) {
+                return slot;
+            }
+            if (slotKey == EMPTY_KEY) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return 最短路径长度(m)
+     */
+    public double getDistance(int slot) {
+        return chunks[slot >>> chunkShift].getDouble((slot & chunkMask) * SLOT_BYTES + DISTANCE_OFFSET);
+    }
+
+    /**
+     * @return 最短路径上的第一个路段id, source与target相同时为-1
+     */
+    public int getFirstSegmentId(int slot) {
+        return chunks[slot >>> chunkShift].getInt((slot & chunkMask) * SLOT_BYTES + FIRST_SEGMENT_OFFSET);
+    }
+
+    /**
+     * @return 第一个路段的终点id, source与target相同时为target
+     */
+    public int getNextNodeId(int slot) {
+        return chunks[slot >>> chunkShift].getInt((slot & chunkMask) * SLOT_BYTES + NEXT_NODE_OFFSET);
+    }
+
+    /**
+     * 还原source到target的最短路径
+     *
+     * @return 路径上的路段id, 不在表中时返回null
+     */
+    public int[] getPath(int source, int target) {
+        int slot = find(source, target);
+        if (slot < 0) {
+            return null;
+        }
+        int[] path = new int[8];
+        int length = 0;
+        int node = source;
+        while (node != target) {
+            if (slot < 0 || length > size) {
+                return null;
+            }
+            if (length == path.length) {
+                int[] newPath = new int[length * 2];
+                System.arraycopy(path, 0, newPath, 0, length);
+                path = newPath;
+            }
+            path[length++] = getFirstSegmentId(slot);
+            node = getNextNodeId(slot);
+            slot = find(node, target);
+        }
+        int[] result = new int[length];
+        System.arraycopy(path, 0, result, 0, length);
+        return result;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+
+    private long getKey(int slot) {
+        return chunks[slot >>> chunkShift].getLong((slot & chunkMask) * SLOT_BYTES);
+    }
+
+    private static long packKey(int source, int target) {
+        return ((long) source << 32) | (target & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private static int tableCapacity(long expectedSize) {
+        long capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize + 1) {
+            capacity <<= 1;
+        }
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("too many UBODT records: " + expectedSize);
+        }
+        return (int) capacity;
+    }
+}
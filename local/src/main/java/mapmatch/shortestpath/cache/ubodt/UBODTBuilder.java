@@ -0,0 +1,196 @@
+package mapmatch.shortestpath.cache.ubodt;
+
+import mapmatch.shortestpath.csr.CSRSearchFrontier;
+import org.apache.spark.model.st.spatial.graph.CSRRoadGraph;
+import org.apache.spark.model.st.spatial.graph.RoadNetwork;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 预计算UBODT: 对每个顶点做一次半径受限的Dijkstra, 记录半径内所有被settle的顶点.
+ * 起点按固定大小切分成shard, 在ForkJoinPool中并行计算; 每个线程持有自己的搜索状态,
+ * 每个shard的结果写入独立的缓冲区, 全部完成后再合并到一张表中; 进度通过UBODTProgressListener 报告, 默认不输出
+ *
+ * @date 2021/07/12
+ */
+public class UBODTBuilder {
+
+    /**
+     * 每个shard包含的起点数
+     */
+    private static final int SHARD_SIZE = 256;
+
+    /**
+     * 每完成该比例的起点报告一次进度
+     */
+    private static final double PROGRESS_STEP = 0.05;
+
+    private final CSRRoadGraph graph;
+
+    private final double radius;
+
+    private final int parallelism;
+
+    private final ThreadLocal<SearchState> searchStates;
+
+    private UBODTProgressListener progressListener = null;
+
+    private int finishedSources;
+
+    private long finishedRecords;
+
+    private long startTime;
+
+    public UBODTBuilder(CSRRoadGraph graph, double radius) {
+        this(graph, radius, Runtime.getRuntime().availableProcessors());
+    }
+
+    public UBODTBuilder(CSRRoadGraph graph, double radius, int parallelism) {
+        this.graph = graph;
+        this.radius = radius;
+        this.parallelism = parallelism;
+        this.searchStates = ThreadLocal.withInitial(() -> new SearchState(graph));
+    }
+
+    /**
+     * @param progressListener 接收计算进度，为null 时不报告
+     */
+    public UBODTBuilder setProgressListener(UBODTProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    public static UBODT build(RoadNetwork roadNetwork, double radius) {
+        return new UBODTBuilder(roadNetwork.getCSRGraph(), radius).build();
+    }
+
+    public static UBODT build(RoadNetwork roadNetwork, double radius, int parallelism) {
+        return new UBODTBuilder(roadNetwork.getCSRGraph(), radius, parallelism).build();
+    }
+
+    public UBODT build() {
+        final int nodeNum = graph.getNodeNum();
+        final UBODTRecords[] shards = new UBODTRecords[(nodeNum + SHARD_SIZE - 1) / SHARD_SIZE];
+        finishedSources = 0;
+        finishedRecords = 0;
+        startTime = System.currentTimeMillis();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new ShardTask(shards, 0, shards.length));
+        } finally {
+            pool.shutdown();
+        }
+        long recordNum = 0;
+        for (UBODTRecords shard : shards) {
+            recordNum += shard.size();
+        }
+        UBODT ubodt = UBODT.create(recordNum, radius);
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].putAll(ubodt);
+            shards[i] = null;
+        }
+        return ubodt;
+    }
+
+    /**
+     * 计算一个shard内所有起点的结果
+     */
+    private UBODTRecords buildShard(int shard) {
+        final SearchState state = searchStates.get();
+        final UBODTRecords records = new UBODTRecords();
+        final int from = shard * SHARD_SIZE;
+        final int to = Math.min(from + SHARD_SIZE, graph.getNodeNum());
+        for (int source = from; source < to; source++) {
+            state.search(source, records);
+        }
+        reportProgress(to - from, records.size());
+        return records;
+    }
+
+    private synchronized void reportProgress(int sourceNum, long recordNum) {
+        if (progressListener == null) {
+            return;
+        }
+        final int nodeNum = graph.getNodeNum();
+        final int step = Math.max(1, (int) (nodeNum * PROGRESS_STEP));
+        finishedSources += sourceNum;
+        finishedRecords += recordNum;
+        if (finishedSources / step != (finishedSources - sourceNum) / step || finishedSources == nodeNum) {
+            progressListener.onProgress(finishedSources, nodeNum, finishedRecords, System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * 把[from, to)范围内的shard二分, 直到只剩一个shard
+     */
+    private class ShardTask extends RecursiveAction {
+
+        private final UBODTRecords[] shards;
+
+        private final int from;
+
+        private final int to;
+
+        ShardTask(UBODTRecords[] shards, int from, int to) {
+            this.shards = shards;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                shards[from] = buildShard(from);
+            } else if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ShardTask(shards, from, mid), new ShardTask(shards, mid, to));
+            }
+        }
+    }
+
+    /**
+     * 单个线程的搜索状态
+     */
+    private class SearchState {
+
+        private final CSRSearchFrontier frontier;
+
+        /**
+         * 每个被settle的顶点在最短路径树上经过的第一条边
+         */
+        private final int[] firstEdges;
+
+        SearchState(CSRRoadGraph graph) {
+            this.frontier = new CSRSearchFrontier(graph, true);
+            this.firstEdges = new int[graph.getNodeNum()];
+        }
+
+        /**
+         * 从source出发做半径受限的Dijkstra, 把结果追加到records
+         */
+        void search(int source, UBODTRecords records) {
+            final int sourceId = graph.getNodeId(source);
+            frontier.reset();
+            frontier.updateDistance(source, -1, 0d);
+            while (!frontier.isEmpty() && frontier.peekKey() <= radius) {
+                int v = frontier.deleteMin();
+                double vDistance = frontier.getDistance(v);
+                int treeEdge = frontier.getTreeEdge(v);
+                if (treeEdge < 0) {
+                    firstEdges[v] = -1;
+                    records.add(sourceId, sourceId, 0d, -1, sourceId);
+                } else {
+                    int parent = graph.getEdgeSource(treeEdge);
+                    int firstEdge = parent == source ? treeEdge : firstEdges[parent];
+                    firstEdges[v] = firstEdge;
+                    records.add(sourceId, graph.getNodeId(v), vDistance,
+                            graph.getSegmentId(firstEdge), graph.getNodeId(graph.getEdgeTarget(firstEdge)));
+                }
+                for (int e = graph.getFirstOutEdge(v), end = graph.getFirstOutEdge(v + 1); e < end; e++) {
+                    frontier.updateDistance(graph.getEdgeTarget(e), e, vDistance + graph.getEdgeWeight(e));
+                }
+            }
+        }
+    }
+}
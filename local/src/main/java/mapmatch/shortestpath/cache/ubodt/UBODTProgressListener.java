@@ -0,0 +1,19 @@
+package mapmatch.shortestpath.cache.ubodt;
+
+/**
+ * 接收UBODT 预计算的进度，回调在ForkJoinPool 的计算线程中发生，同一时间只有一个回调
+ *
+ * @date 2021/07/31
+ */
+public interface UBODTProgressListener {
+
+    /**
+     * 每完成约5% 的起点以及全部完成时调用一次
+     *
+     * @param finishedSources 已完成的起点数
+     * @param sourceNum       起点总数
+     * @param recordNum       已完成的起点产生的记录数
+     * @param elapsedMs       开始计算后经过的时间(ms)
+     */
+    void onProgress(int finishedSources, int sourceNum, long recordNum, long elapsedMs);
+}
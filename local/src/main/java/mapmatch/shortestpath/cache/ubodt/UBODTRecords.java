@@ -0,0 +1,53 @@
+package mapmatch.shortestpath.cache.ubodt;
+
+import java.util.Arrays;
+
+/**
+ * 构建UBODT时暂存记录的可增长的基本类型数组
+ *
+ * @date 2021/07/12
+ */
+class UBODTRecords {
+
+    private int[] sources = new int[1024];
+
+    private int[] targets = new int[1024];
+
+    private double[] distances = new double[1024];
+
+    private int[] firstSegmentIds = new int[1024];
+
+    private int[] nextNodeIds = new int[1024];
+
+    private int size = 0;
+
+    void add(int source, int target, double distance, int firstSegmentId, int nextNodeId) {
+        if (size == sources.length) {
+            int newLength = size * 2;
+            sources = Arrays.copyOf(sources, newLength);
+            targets = Arrays.copyOf(targets, newLength);
+            distances = Arrays.copyOf(distances, newLength);
+            firstSegmentIds = Arrays.copyOf(firstSegmentIds, newLength);
+            nextNodeIds = Arrays.copyOf(nextNodeIds, newLength);
+        }
+        sources[size] = source;
+        targets[size] = target;
+        distances[size] = distance;
+        firstSegmentIds[size] = firstSegmentId;
+        nextNodeIds[size] = nextNodeId;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 把所有记录写入ubodt
+     */
+    void putAll(UBODT ubodt) {
+        for (int i = 0; i < size; i++) {
+            ubodt.put(sources[i], targets[i], distances[i], firstSegmentIds[i], nextNodeIds[i]);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package mapmatch.shortestpath.cache.ubodt;
+
+import mapmatch.shortestpath.AbstractShortestPathAlgo;
+import org.apache.spark.model.st.spatial.graph.RoadNetwork;
+import org.apache.spark.model.st.spatial.graph.RoadNode;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 优先从UBODT中查询最短路径, 不在表中时退回到fallback算法
+ *
+ * @date 2021/07/12
+ */
+public class UBODTShortestPathAlgo extends AbstractShortestPathAlgo<RoadNode, RoadSegment> {
+
+    private final UBODT ubodt;
+
+    private final RoadNetwork roadNetwork;
+
+    private final AbstractShortestPathAlgo fallbackAlgo;
+
+    public UBODTShortestPathAlgo(UBODT ubodt, RoadNetwork roadNetwork, AbstractShortestPathAlgo fallbackAlgo) {
+        super(roadNetwork.getRoadGraph(true));
+        this.ubodt = ubodt;
+        this.roadNetwork = roadNetwork;
+        this.fallbackAlgo = fallbackAlgo;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Tuple2<Double, List<RoadSegment>> findShortestPathGraph(RoadNode startNode, RoadNode endNode) {
+        int slot = ubodt.find(startNode.nodeId(), endNode.nodeId());
+        int[] segmentIds = slot < 0 ? null : ubodt.getPath(startNode.nodeId(), endNode.nodeId());
+        if (segmentIds == null) {
+            return fallbackAlgo.findShortestPathGraph(startNode, endNode);
+        }
+        List<RoadSegment> path = new ArrayList<>(segmentIds.length);
+        for (int segmentId : segmentIds) {
+            path.add(roadNetwork.getRoadSegment(segmentId));
+        }
+        return new Tuple2<>(ubodt.getDistance(slot), path);
+    }
+}
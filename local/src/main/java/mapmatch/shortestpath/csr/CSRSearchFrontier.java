@@ -0,0 +1,239 @@
+package mapmatch.shortestpath.csr;
+
+import org.apache.spark.model.st.spatial.graph.CSRRoadGraph;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * Dijkstra search frontier on a {@link CSRRoadGraph}, all state is kept in primitive arrays indexed by vertex.
+ * A frontier is reused across queries, {@link #reset()} invalidates the previous search in O(1)
+ * by increasing the visit stamp instead of clearing the arrays.
+ * Not thread safe, every thread should hold its own frontier.
+ *
+ * @date 2021/07/05
+ */
+public class CSRSearchFrontier {
+    /**
+     * the graph to search
+     */
+    public final CSRRoadGraph graph;
+    /**
+     * true: search along out edges, false: search along in edges
+     */
+    private final boolean forward;
+    /**
+     * tentative distance of every visited vertex
+     */
+    private final double[] distance;
+    /**
+     * edge connecting a visited vertex to its predecessor in the shortest path tree, -1 for the root
+     */
+    private final int[] treeEdge;
+    /**
+     * position of a visited vertex in the heap, -1 once it is settled
+     */
+    private final int[] heapIndex;
+    /**
+     * vertex is visited in current search iff its stamp equals currentStamp
+     */
+    private final int[] visitStamp;
+    private int currentStamp = 1;
+    /**
+     * binary min heap of vertices keyed by priority
+     */
+    private final int[] heapNodes;
+    private final double[] heapKeys;
+    private int heapSize = 0;
+
+    public CSRSearchFrontier(CSRRoadGraph graph, boolean forward) {
+        this.graph = graph;
+        this.forward = forward;
+        int nodeNum = graph.getNodeNum();
+        this.distance = new double[nodeNum];
+        this.treeEdge = new int[nodeNum];
+        this.heapIndex = new int[nodeNum];
+        this.visitStamp = new int[nodeNum];
+        this.heapNodes = new int[nodeNum];
+        this.heapKeys = new double[nodeNum];
+    }
+
+    /**
+     * start a new search
+     */
+    public void reset() {
+        heapSize = 0;
+        if (++currentStamp == Integer.MAX_VALUE) {
+            Arrays.fill(visitStamp, 0);
+            currentStamp = 1;
+        }
+    }
+
+    public boolean isForward() {
+        return forward;
+    }
+
+    public boolean isVisited(int v) {
+        return visitStamp[v] == currentStamp;
+    }
+
+    public boolean isSettled(int v) {
+        return visitStamp[v] == currentStamp && heapIndex[v] < 0;
+    }
+
+    public double getDistance(int v) {
+        return visitStamp[v] == currentStamp ? distance[v] : Double.POSITIVE_INFINITY;
+    }
+
+    public int getTreeEdge(int v) {
+        return visitStamp[v] == currentStamp ? treeEdge[v] : -1;
+    }
+
+    /**
+     * the vertex reached by edge e when relaxing it from the other side
+     *
+     * @param e edge
+     * @return target of e in forward search, source of e in backward search
+     */
+    public int getEdgeHead(int e) {
+        return forward ? graph.getEdgeTarget(e) : graph.getEdgeSource(e);
+    }
+
+    /**
+     * @param v vertex
+     * @return first index of adjacent edges of v
+     */
+    public int getFirstEdge(int v) {
+        return forward ? graph.getFirstOutEdge(v) : graph.getFirstInEdge(v);
+    }
+
+    /**
+     * @param i index in [getFirstEdge(v), getFirstEdge(v + 1))
+     * @return edge
+     */
+    public int getEdge(int i) {
+        return forward ? i : graph.getInEdge(i);
+    }
+
+    public void updateDistance(int v, int e, double dist) {
+        updateDistance(v, e, dist, dist);
+    }
+
+    /**
+     * insert a vertex into the frontier or decrease its distance
+     *
+     * @param v        vertex
+     * @param e        tree edge
+     * @param dist     distance from the root
+     * @param priority heap key, equals dist for dijkstra, dist plus heuristic for a*
+     */
+    public void updateDistance(int v, int e, double dist, double priority) {
+        if (visitStamp[v] != currentStamp) {
+            visitStamp[v] = currentStamp;
+            distance[v] = dist;
+            treeEdge[v] = e;
+            heapNodes[heapSize] = v;
+            heapKeys[heapSize] = priority;
+            heapIndex[v] = heapSize;
+            siftUp(heapSize++);
+        } else if (heapIndex[v] >= 0 && dist < distance[v]) {
+            distance[v] = dist;
+            treeEdge[v] = e;
+            heapKeys[heapIndex[v]] = priority;
+            siftUp(heapIndex[v]);
+        }
+    }
+
+    public boolean isEmpty() {
+        return heapSize == 0;
+    }
+
+    /**
+     * @return min key in the heap, positive infinity if empty
+     */
+    public double peekKey() {
+        return heapSize == 0 ? Double.POSITIVE_INFINITY : heapKeys[0];
+    }
+
+    /**
+     * remove the vertex with min key and mark it settled
+     *
+     * @return settled vertex
+     */
+    public int deleteMin() {
+        int v = heapNodes[0];
+        heapIndex[v] = -1;
+        if (--heapSize > 0) {
+            heapNodes[0] = heapNodes[heapSize];
+            heapKeys[0] = heapKeys[heapSize];
+            heapIndex[heapNodes[0]] = 0;
+            siftDown(0);
+        }
+        return v;
+    }
+
+    /**
+     * collect road segments of the tree path between the root and v
+     *
+     * @param v    vertex
+     * @param path forward search prepends edges root->v, backward search appends edges v->root
+     * @return length(m) of the collected edges
+     */
+    public double collectPath(int v, LinkedList<RoadSegment> path) {
+        double length = 0.0;
+        int e = getTreeEdge(v);
+        while (e >= 0) {
+            length += graph.getEdgeLength(e);
+            if (forward) {
+                path.addFirst(graph.getRoadSegment(e));
+                v = graph.getEdgeSource(e);
+            } else {
+                path.addLast(graph.getRoadSegment(e));
+                v = graph.getEdgeTarget(e);
+            }
+            e = treeEdge[v];
+        }
+        return length;
+    }
+
+    private void siftUp(int i) {
+        int v = heapNodes[i];
+        double key = heapKeys[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapKeys[parent] <= key) {
+                break;
+            }
+            heapNodes[i] = heapNodes[parent];
+            heapKeys[i] = heapKeys[parent];
+            heapIndex[heapNodes[i]] = i;
+            i = parent;
+        }
+        heapNodes[i] = v;
+        heapKeys[i] = key;
+        heapIndex[v] = i;
+    }
+
+    private void siftDown(int i) {
+        int v = heapNodes[i];
+        double key = heapKeys[i];
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+                child++;
+            }
+            if (key <= heapKeys[child]) {
+                break;
+            }
+            heapNodes[i] = heapNodes[child];
+            heapKeys[i] = heapKeys[child];
+            heapIndex[heapNodes[i]] = i;
+            i = child;
+        }
+        heapNodes[i] = v;
+        heapKeys[i] = key;
+        heapIndex[v] = i;
+    }
+}
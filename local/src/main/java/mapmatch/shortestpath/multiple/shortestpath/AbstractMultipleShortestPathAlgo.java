@@ -4,6 +4,7 @@ import mapmatch.shortestpath.AbstractShortestPathAlgo;
 import mapmatch.shortestpath.ShortestPathAlgoTypeEnum;
 import org.apache.spark.model.st.spatial.graph.RoadNetwork;
 import org.apache.spark.model.st.spatial.graph.RoadNode;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
 import org.jgrapht.Graph;
 import point.CandidatePoint;
 import scala.Tuple2;
@@ -27,6 +28,8 @@ public abstract class AbstractMultipleShortestPathAlgo<V, E> extends AbstractSho
             case CH:
                 Objects.requireNonNull(roadNetwork.getCHGraph(), "contraction graph should not be null!");
                 return new ManyToManyCH(roadNetwork.getCHGraph());
+            case BOUNDED_DIJKSTRA:
+                return new OneToManyBoundedDijkstra(roadNetwork.getCSRGraph());
             default:
                 throw new Exception("unsupported shortestPath algorithm");
         }
@@ -40,5 +43,37 @@ public abstract class AbstractMultipleShortestPathAlgo<V, E> extends AbstractSho
 
     public abstract Map<Tuple2<RoadNode,RoadNode>, Double> findAllPath(Set<RoadNode> startNodes, Set<RoadNode> endNodes);
 
+    /**
+     * 带距离上界的查询, 超过maxDistance的结果可以不返回
+     *
+     * @param maxDistance 最短路径长度上界(m)
+     */
+    public Map<Tuple2<RoadNode,RoadNode>, Double> findAllPath(List<CandidatePoint> startCandidates, List<CandidatePoint> endCandidates, RoadNetwork roadNetwork, double maxDistance) {
+        Set<RoadNode> startNodes = startCandidates.stream().map(i -> roadNetwork.getRoadSegment(i.getRoadSegmentID()).getEndNode()).collect(Collectors.toSet());
+        Set<RoadNode> endNodes = endCandidates.stream().map(i -> roadNetwork.getRoadSegment(i.getRoadSegmentID()).getStartNode()).collect(Collectors.toSet());
+        return findAllPath(startNodes, endNodes, maxDistance);
+    }
+
+    /**
+     * 默认忽略上界, 支持剪枝的算法覆盖此方法
+     */
+    public Map<Tuple2<RoadNode,RoadNode>, Double> findAllPath(Set<RoadNode> startNodes, Set<RoadNode> endNodes, double maxDistance) {
+        return findAllPath(startNodes, endNodes);
+    }
+
+    /**
+     * 与带上界的findAllPath 相同, 同时给出最短路径经过的路段, 供route recovery 复用
+     */
+    public Map<Tuple2<RoadNode,RoadNode>, Tuple2<Double, List<RoadSegment>>> findAllRoute(List<CandidatePoint> startCandidates, List<CandidatePoint> endCandidates, RoadNetwork roadNetwork, double maxDistance) {
+        Set<RoadNode> startNodes = startCandidates.stream().map(i -> roadNetwork.getRoadSegment(i.getRoadSegmentID()).getEndNode()).collect(Collectors.toSet());
+        Set<RoadNode> endNodes = endCandidates.stream().map(i -> roadNetwork.getRoadSegment(i.getRoadSegmentID()).getStartNode()).collect(Collectors.toSet());
+        return findAllRoute(startNodes, endNodes, maxDistance);
+    }
+
+    /**
+     * 路径从搜索树中取出, 起点与终点相同时为空列表, 不可达时与findAllPath 一样不返回或者距离为正无穷、路径为null
+     */
+    public abstract Map<Tuple2<RoadNode,RoadNode>, Tuple2<Double, List<RoadSegment>>> findAllRoute(Set<RoadNode> startNodes, Set<RoadNode> endNodes, double maxDistance);
+
 
 }
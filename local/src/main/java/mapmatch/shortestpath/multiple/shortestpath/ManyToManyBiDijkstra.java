@@ -51,6 +51,22 @@ public class ManyToManyBiDijkstra extends AbstractMultipleShortestPathAlgo<RoadN
         return pathMap;
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Tuple2<RoadNode, RoadNode>, Tuple2<Double, List<RoadSegment>>> findAllRoute(Set<RoadNode> startNodes, Set<RoadNode> endNodes, double maxDistance) {
+        getAllPaths(startNodes, endNodes);
+        Map<Tuple2<RoadNode, RoadNode>, Tuple2<Double, List<RoadSegment>>> routeMap = new HashMap<>();
+        for (RoadNode source : startNodes) {
+            for (RoadNode target : endNodes) {
+                final GraphPath<RoadNode, RoadSegment> graphPath = getPath(source, target);
+                if (graphPath != null) {
+                    routeMap.put(new Tuple2<>(source, target), getFinalPath(graphPath));
+                }
+            }
+        }
+        return routeMap;
+    }
+
     @Override
     public Tuple2<Double, List<RoadSegment>> findShortestPathGraph(RoadNode startNode, RoadNode endNode) {
         return new OneToOneDijkstra(graph).findShortestPathGraph(startNode, endNode);
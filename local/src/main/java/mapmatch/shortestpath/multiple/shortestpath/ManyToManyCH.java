@@ -3,6 +3,7 @@ package mapmatch.shortestpath.multiple.shortestpath;
 import mapmatch.shortestpath.single.shortestpath.OneToOneCH;
 import org.apache.spark.model.st.spatial.graph.RoadNode;
 import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import org.jgrapht.Graph;
 import org.jgrapht.alg.shortestpath.ContractionHierarchyBidirectionalDijkstra.ContractionSearchFrontier;
 import org.jgrapht.alg.shortestpath.ContractionHierarchyPrecomputation.ContractionEdge;
 import org.jgrapht.alg.shortestpath.ContractionHierarchyPrecomputation.ContractionHierarchy;
@@ -16,42 +17,83 @@ import scala.Tuple2;
 
 import java.util.*;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
+/**
+ * bucket-based many-to-many CH:
+ * 每个终点做一次反向upward搜索, 在被settle的顶点上记录(终点, 距离)的bucket;
+ * 再对每个起点做一次正向upward搜索, 扫描所经顶点的bucket得到到所有终点的距离
+ */
 public class ManyToManyCH extends AbstractMultipleShortestPathAlgo<RoadNode, RoadSegment> {
 
     private final ContractionHierarchy<RoadNode, RoadSegment> ch;
 
-    private Map<RoadNode, ForwardFrontier<RoadNode, RoadSegment>> forwardFrontiers;
-
-
     private final Supplier<AddressableHeap<Double, Pair<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>>>> heapSupplier;
 
-    private Map<RoadNode, ContractionSearchFrontier<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>>> backwardFrontiers;
+    private final Graph<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>> forwardGraph;
+
+    private final Graph<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>> backwardGraph;
 
     public ManyToManyCH(ContractionHierarchy<RoadNode, RoadSegment> hierarchy) {
         super(hierarchy.getGraph());
         ch = hierarchy;
         heapSupplier = PairingHeap::new;
+        forwardGraph = new MaskSubgraph<>(ch.getContractionGraph(), v -> false, e -> !e.isUpward);
+        backwardGraph = new MaskSubgraph<>(new EdgeReversedGraph<>(ch.getContractionGraph()), v -> false, e -> e.isUpward);
     }
 
     @Override
     public Map<Tuple2<RoadNode, RoadNode>, Double> findAllPath(Set<RoadNode> startNodes, Set<RoadNode> endNodes) {
-        getAllPaths(startNodes, endNodes);
-        Map<Tuple2<RoadNode, RoadNode>, Double> pathMap = new HashMap<>();
+        final List<RoadNode> sinks = new ArrayList<>(endNodes);
+        final Map<ContractionVertex<RoadNode>, List<Bucket>> buckets = new HashMap<>();
+        for (int i = 0; i < sinks.size(); i++) {
+            backwardSearch(i, sinks.get(i), buckets);
+        }
+        final double[] bestDist = new double[sinks.size()];
+        Map<Tuple2<RoadNode, RoadNode>, Double> pathMap = new HashMap<>(startNodes.size() * sinks.size() * 2);
         for (RoadNode source : startNodes) {
-            for (RoadNode target : endNodes) {
-                final Tuple2<RoadNode, RoadNode> key = new Tuple2<>(source, target);
-                if (source.equals(target)) {
-                    pathMap.put(key, 0d);
+            forwardSearch(source, buckets, bestDist, null);
+            for (int i = 0; i < sinks.size(); i++) {
+                RoadNode sink = sinks.get(i);
+                pathMap.put(new Tuple2<>(source, sink), source.equals(sink) ? 0d : bestDist[i]);
+            }
+        }
+        return pathMap;
+    }
+
+    /**
+     * 在findAllPath 的基础上保留反向搜索树和每个终点的最优交汇顶点, 从两侧的搜索树中展开shortcut 得到路径
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Tuple2<RoadNode, RoadNode>, Tuple2<Double, List<RoadSegment>>> findAllRoute(Set<RoadNode> startNodes, Set<RoadNode> endNodes, double maxDistance) {
+        final List<RoadNode> sinks = new ArrayList<>(endNodes);
+        final Map<ContractionVertex<RoadNode>, List<Bucket>> buckets = new HashMap<>();
+        final List<ContractionSearchFrontier<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>>> backwardFrontiers = new ArrayList<>(sinks.size());
+        for (int i = 0; i < sinks.size(); i++) {
+            backwardFrontiers.add(backwardSearch(i, sinks.get(i), buckets));
+        }
+        final double[] bestDist = new double[sinks.size()];
+        final List<ContractionVertex<RoadNode>> commonVertices = new ArrayList<>(Collections.nCopies(sinks.size(), null));
+        Map<Tuple2<RoadNode, RoadNode>, Tuple2<Double, List<RoadSegment>>> routeMap = new HashMap<>(startNodes.size() * sinks.size() * 2);
+        for (RoadNode source : startNodes) {
+            Collections.fill(commonVertices, null);
+            ContractionSearchFrontier<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>> forwardFrontier =
+                    forwardSearch(source, buckets, bestDist, commonVertices);
+            for (int i = 0; i < sinks.size(); i++) {
+                RoadNode sink = sinks.get(i);
+                Tuple2<Double, List<RoadSegment>> route;
+                if (source.equals(sink)) {
+                    route = new Tuple2<>(0d, new ArrayList<>());
+                } else if (commonVertices.get(i) == null) {
+                    route = new Tuple2<>(Double.POSITIVE_INFINITY, null);
                 } else {
-                    final ForwardFrontier<RoadNode, RoadSegment> frontier = forwardFrontiers.get(source);
-                    double bestPath = frontier.bestTupleMap.get(target)._2;
-                    pathMap.put(key, bestPath);
+                    route = getFinalPath(createPath(forwardFrontier, backwardFrontiers.get(i), bestDist[i],
+                            ch.getContractionMapping().get(source), commonVertices.get(i), ch.getContractionMapping().get(sink), ch));
                 }
+                routeMap.put(new Tuple2<>(source, sink), route);
             }
         }
-        return pathMap;
+        return routeMap;
     }
 
     @Override
@@ -59,100 +101,97 @@ public class ManyToManyCH extends AbstractMultipleShortestPathAlgo<RoadNode, Roa
         return new OneToOneCH(ch).findShortestPathGraph(startNode, endNode);
     }
 
-    private void getAllPaths(Set<RoadNode> sources, Set<RoadNode> sinks) {
-        forwardFrontiers = new HashMap<>(sources.size());
-        backwardFrontiers = new HashMap<>(sinks.size());
-        final MaskSubgraph<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>> forwardGraph =
-                new MaskSubgraph<>(ch.getContractionGraph(), v -> false, e -> !e.isUpward);
-        final MaskSubgraph<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>> backwardGraph =
-                new MaskSubgraph<>(new EdgeReversedGraph<>(ch.getContractionGraph()), v -> false, e -> e.isUpward);
-        for (RoadNode source : sources) {
-            ContractionSearchFrontier<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>> forwardFrontier =
-                    new ContractionSearchFrontier<>(forwardGraph, heapSupplier);
-            forwardFrontier.updateDistance(ch.getContractionMapping().get(source), null, 0d);
-            forwardFrontiers.put(source, new ForwardFrontier<>(source, forwardFrontier, sinks));
+    /**
+     * 从sink出发的完整反向upward搜索, 把每个settle的顶点到sink的距离放入该顶点的bucket
+     *
+     * @return 搜索树, sink 不在CH 中时为null
+     */
+    private ContractionSearchFrontier<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>> backwardSearch(
+            int sinkIndex, RoadNode sink, Map<ContractionVertex<RoadNode>, List<Bucket>> buckets) {
+        final ContractionVertex<RoadNode> root = ch.getContractionMapping().get(sink);
+        if (root == null) {
+            return null;
         }
-        for (RoadNode sink : sinks) {
-            ContractionSearchFrontier<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>> backwardFrontier =
-                    new ContractionSearchFrontier<>(backwardGraph, heapSupplier);
-            backwardFrontier.updateDistance(ch.getContractionMapping().get(sink), null, 0d);
-            backwardFrontiers.put(sink, backwardFrontier);
-        }
-        while (!forwardFrontiers.values().stream().allMatch(i -> i.isStop) || !backwardFrontiers.values().stream().allMatch(i -> i.isFinished)) {
-            forwardMove();
-            backwardMove();
+        ContractionSearchFrontier<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>> frontier =
+                new ContractionSearchFrontier<>(backwardGraph, heapSupplier);
+        frontier.updateDistance(root, null, 0d);
+        while (!frontier.heap.isEmpty()) {
+            AddressableHeap.Handle<Double, Pair<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>>> node =
+                    frontier.heap.deleteMin();
+            ContractionVertex<RoadNode> v = node.getValue().getFirst();
+            double vDistance = node.getKey();
+            buckets.computeIfAbsent(v, k -> new ArrayList<>()).add(new Bucket(sinkIndex, vDistance));
+            for (ContractionEdge<RoadSegment> e : backwardGraph.outgoingEdgesOf(v)) {
+                frontier.updateDistance(backwardGraph.getEdgeTarget(e), e, vDistance + backwardGraph.getEdgeWeight(e));
+            }
         }
+        return frontier;
     }
 
-    private void forwardMove() {
-        for (ForwardFrontier<RoadNode, RoadSegment> forwardFrontier : forwardFrontiers.values()) {
-            if (forwardFrontier.isStop) {
-                continue;
-            }
-            if (forwardFrontier.chFrontier.heap.isEmpty() ||
-                    backwardFrontiers.keySet().stream().allMatch(forwardFrontier::isForwardStop)) {
-                forwardFrontier.isStop = true;
-            } else {
-                AddressableHeap.Handle<Double,
-                        Pair<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>>> node =
-                        forwardFrontier.chFrontier.heap.deleteMin();
-                ContractionVertex<RoadNode> v = node.getValue().getFirst();
-                double vDistance = node.getKey();
-
-                for (ContractionEdge<RoadSegment> e : forwardFrontier.chFrontier.graph.outgoingEdgesOf(v)) {
-                    ContractionVertex<RoadNode> u = forwardFrontier.chFrontier.graph.getEdgeTarget(e);
-                    double eWeight = forwardFrontier.chFrontier.graph.getEdgeWeight(e);
-                    double newDist = vDistance + eWeight;
-                    forwardFrontier.chFrontier.updateDistance(u, e, newDist);
-                    for (Map.Entry<RoadNode, ContractionSearchFrontier<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>>> entry : backwardFrontiers.entrySet()) {
-                        RoadNode sink = entry.getKey();
-                        final Tuple2<ContractionVertex<RoadNode>, Double> tuple2 = forwardFrontier.bestTupleMap.get(sink);
-                        double bestDist = tuple2._2;
-                        double pathDistance = newDist + entry.getValue().getDistance(u);
-                        if (pathDistance < bestDist) {
-                            forwardFrontier.bestTupleMap.put(sink, new Tuple2<>(u, pathDistance));
+    /**
+     * 从source出发的正向upward搜索, 扫描settle顶点的bucket更新到各终点的最短距离;
+     * 堆顶距离不小于所有终点的当前最优值时提前结束
+     *
+     * @param commonVertices 不为null 时记录到各终点的最短路径上正反两个搜索的交汇顶点
+     * @return 搜索树, source 不在CH 中时为null
+     */
+    private ContractionSearchFrontier<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>> forwardSearch(
+            RoadNode source, Map<ContractionVertex<RoadNode>, List<Bucket>> buckets, double[] bestDist,
+            List<ContractionVertex<RoadNode>> commonVertices) {
+        Arrays.fill(bestDist, Double.POSITIVE_INFINITY);
+        final ContractionVertex<RoadNode> root = ch.getContractionMapping().get(source);
+        if (root == null) {
+            return null;
+        }
+        ContractionSearchFrontier<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>> frontier =
+                new ContractionSearchFrontier<>(forwardGraph, heapSupplier);
+        frontier.updateDistance(root, null, 0d);
+        double maxBest = Double.POSITIVE_INFINITY;
+        while (!frontier.heap.isEmpty() && frontier.heap.findMin().getKey() < maxBest) {
+            AddressableHeap.Handle<Double, Pair<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>>> node =
+                    frontier.heap.deleteMin();
+            ContractionVertex<RoadNode> v = node.getValue().getFirst();
+            double vDistance = node.getKey();
+            List<Bucket> bucketList = buckets.get(v);
+            if (bucketList != null) {
+                for (Bucket bucket : bucketList) {
+                    double pathDistance = vDistance + bucket.distance;
+                    if (pathDistance < bestDist[bucket.sinkIndex]) {
+                        bestDist[bucket.sinkIndex] = pathDistance;
+                        if (commonVertices != null) {
+                            commonVertices.set(bucket.sinkIndex, v);
                         }
                     }
                 }
+                maxBest = max(bestDist);
+            }
+            for (ContractionEdge<RoadSegment> e : forwardGraph.outgoingEdgesOf(v)) {
+                frontier.updateDistance(forwardGraph.getEdgeTarget(e), e, vDistance + forwardGraph.getEdgeWeight(e));
             }
         }
+        return frontier;
     }
 
-    private void backwardMove() {
-        for (Map.Entry<RoadNode, ContractionSearchFrontier<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>>> entry : backwardFrontiers.entrySet()) {
-            RoadNode sink = entry.getKey();
-            ContractionSearchFrontier<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>> backwardFrontier = entry.getValue();
-            if (backwardFrontier.isFinished) {
-                continue;
-            }
-            if (backwardFrontier.heap.isEmpty() ||
-                    backwardFrontier.heap.findMin().getKey() > Collections.max(
-                            forwardFrontiers.values().stream().map(i -> i.bestTupleMap.get(sink)._2).collect(Collectors.toList())
-                    )) {
-                backwardFrontier.isFinished = true;
-            } else {
-                AddressableHeap.Handle<Double,
-                        Pair<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>>> node =
-                        backwardFrontier.heap.deleteMin();
-                ContractionVertex<RoadNode> v = node.getValue().getFirst();
-                double vDistance = node.getKey();
-
-                for (ContractionEdge<RoadSegment> e : backwardFrontier.graph.outgoingEdgesOf(v)) {
-                    ContractionVertex<RoadNode> u = backwardFrontier.graph.getEdgeTarget(e);
-                    double eWeight = backwardFrontier.graph.getEdgeWeight(e);
-                    double newDist = vDistance + eWeight;
-                    backwardFrontier.updateDistance(u, e, newDist);
-                    for (ForwardFrontier<RoadNode, RoadSegment> forwardFrontier : forwardFrontiers.values()) {
-                        final Tuple2<ContractionVertex<RoadNode>, Double> tuple2 = forwardFrontier.bestTupleMap.get(sink);
-                        double bestDist = tuple2._2;
-                        double pathDistance = newDist + forwardFrontier.chFrontier.getDistance(u);
-                        if (pathDistance < bestDist) {
-                            forwardFrontier.bestTupleMap.put(sink, new Tuple2<>(u, pathDistance));
-                        }
-                    }
-                }
-            }
+    private static double max(double[] values) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : values) {
+            max = Math.max(max, value);
         }
+        return max;
     }
 
+    /**
+     * 反向搜索在某个顶点留下的记录
+     */
+    private static final class Bucket {
+
+        final int sinkIndex;
+
+        final double distance;
+
+        Bucket(int sinkIndex, double distance) {
+            this.sinkIndex = sinkIndex;
+            this.distance = distance;
+        }
+    }
 }
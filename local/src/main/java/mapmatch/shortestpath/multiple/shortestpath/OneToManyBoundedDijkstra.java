@@ -0,0 +1,147 @@
+package mapmatch.shortestpath.multiple.shortestpath;
+
+import mapmatch.shortestpath.csr.CSRSearchFrontier;
+import mapmatch.shortestpath.single.shortestpath.OneToOneCSRDijkstra;
+import org.apache.spark.model.st.spatial.graph.CSRRoadGraph;
+import org.apache.spark.model.st.spatial.graph.RoadNode;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 每个起点做一次Dijkstra, 一次扩展即可得到到所有终点的距离;
+ * 当所有终点都已确定或堆顶距离超过maxDistance时提前结束, 超过上界的终点视为不可达
+ *
+ * @date 2021/07/08
+ */
+public class OneToManyBoundedDijkstra extends AbstractMultipleShortestPathAlgo<RoadNode, RoadSegment> {
+
+    private final CSRRoadGraph csrGraph;
+
+    private final CSRSearchFrontier frontier;
+
+    private final OneToOneCSRDijkstra pathAlgo;
+
+    /**
+     * vertex is a target of current query iff its stamp equals currentStamp
+     */
+    private final int[] targetStamp;
+
+    private int currentStamp = 0;
+
+    public OneToManyBoundedDijkstra(CSRRoadGraph csrGraph) {
+        super(null);
+        this.csrGraph = csrGraph;
+        this.frontier = new CSRSearchFrontier(csrGraph, true);
+        this.pathAlgo = new OneToOneCSRDijkstra(csrGraph);
+        this.targetStamp = new int[csrGraph.getNodeNum()];
+    }
+
+    @Override
+    public Map<Tuple2<RoadNode, RoadNode>, Double> findAllPath(Set<RoadNode> startNodes, Set<RoadNode> endNodes) {
+        return findAllPath(startNodes, endNodes, Double.POSITIVE_INFINITY);
+    }
+
+    @Override
+    public Map<Tuple2<RoadNode, RoadNode>, Double> findAllPath(Set<RoadNode> startNodes, Set<RoadNode> endNodes, double maxDistance) {
+        Map<Tuple2<RoadNode, RoadNode>, Double> pathMap = new HashMap<>(startNodes.size() * endNodes.size() * 2);
+        RoadNode[] targetNodes = new RoadNode[endNodes.size()];
+        int[] targets = new int[endNodes.size()];
+        int targetNum = markTargets(endNodes, targetNodes, targets);
+        if (targetNum == 0) {
+            return pathMap;
+        }
+        for (RoadNode startNode : startNodes) {
+            int source = csrGraph.getNodeIndex(startNode.nodeId());
+            if (source < 0) {
+                continue;
+            }
+            search(source, targetNum, maxDistance);
+            for (int i = 0; i < targetNum; i++) {
+                if (frontier.isSettled(targets[i])) {
+                    pathMap.put(new Tuple2<>(startNode, targetNodes[i]), frontier.getDistance(targets[i]));
+                }
+            }
+        }
+        return pathMap;
+    }
+
+    @Override
+    public Map<Tuple2<RoadNode, RoadNode>, Tuple2<Double, List<RoadSegment>>> findAllRoute(Set<RoadNode> startNodes, Set<RoadNode> endNodes, double maxDistance) {
+        Map<Tuple2<RoadNode, RoadNode>, Tuple2<Double, List<RoadSegment>>> routeMap = new HashMap<>(startNodes.size() * endNodes.size() * 2);
+        RoadNode[] targetNodes = new RoadNode[endNodes.size()];
+        int[] targets = new int[endNodes.size()];
+        int targetNum = markTargets(endNodes, targetNodes, targets);
+        if (targetNum == 0) {
+            return routeMap;
+        }
+        for (RoadNode startNode : startNodes) {
+            int source = csrGraph.getNodeIndex(startNode.nodeId());
+            if (source < 0) {
+                continue;
+            }
+            search(source, targetNum, maxDistance);
+            for (int i = 0; i < targetNum; i++) {
+                if (frontier.isSettled(targets[i])) {
+                    LinkedList<RoadSegment> path = new LinkedList<>();
+                    frontier.collectPath(targets[i], path);
+                    routeMap.put(new Tuple2<>(startNode, targetNodes[i]), new Tuple2<>(frontier.getDistance(targets[i]), new ArrayList<>(path)));
+                }
+            }
+        }
+        return routeMap;
+    }
+
+    /**
+     * 标记本次查询的终点, 重复和不在图中的终点被跳过
+     *
+     * @return 终点数
+     */
+    private int markTargets(Set<RoadNode> endNodes, RoadNode[] targetNodes, int[] targets) {
+        if (++currentStamp == Integer.MAX_VALUE) {
+            Arrays.fill(targetStamp, 0);
+            currentStamp = 1;
+        }
+        int targetNum = 0;
+        for (RoadNode endNode : endNodes) {
+            int target = csrGraph.getNodeIndex(endNode.nodeId());
+            if (target >= 0 && targetStamp[target] != currentStamp) {
+                targetStamp[target] = currentStamp;
+                targetNodes[targetNum] = endNode;
+                targets[targetNum++] = target;
+            }
+        }
+        return targetNum;
+    }
+
+    @Override
+    public Tuple2<Double, List<RoadSegment>> findShortestPathGraph(RoadNode startNode, RoadNode endNode) {
+        return pathAlgo.findShortestPathGraph(startNode, endNode);
+    }
+
+    /**
+     * 从source扩展, 直到settle了targetNum个终点或距离超过maxDistance
+     */
+    private void search(int source, int targetNum, double maxDistance) {
+        frontier.reset();
+        frontier.updateDistance(source, -1, 0d);
+        int remaining = targetNum;
+        while (!frontier.isEmpty() && frontier.peekKey() <= maxDistance) {
+            int v = frontier.deleteMin();
+            if (targetStamp[v] == currentStamp && --remaining == 0) {
+                return;
+            }
+            double vDistance = frontier.getDistance(v);
+            for (int e = csrGraph.getFirstOutEdge(v), end = csrGraph.getFirstOutEdge(v + 1); e < end; e++) {
+                frontier.updateDistance(csrGraph.getEdgeTarget(e), e, vDistance + csrGraph.getEdgeWeight(e));
+            }
+        }
+    }
+}
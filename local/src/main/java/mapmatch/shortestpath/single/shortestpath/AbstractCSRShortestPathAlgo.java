@@ -0,0 +1,53 @@
+package mapmatch.shortestpath.single.shortestpath;
+
+import org.apache.spark.model.st.spatial.graph.CSRRoadGraph;
+import org.apache.spark.model.st.spatial.graph.RoadNode;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * 基于CSR路网图的最短路径算法的抽象类, 查询时不经过jgrapht的图结构
+ *
+ * @date 2021/07/05
+ */
+public abstract class AbstractCSRShortestPathAlgo extends AbstractSingleShortestPathAlgo<RoadNode, RoadSegment> {
+
+    protected final CSRRoadGraph csrGraph;
+
+    public AbstractCSRShortestPathAlgo(CSRRoadGraph csrGraph) {
+        super(null);
+        this.csrGraph = csrGraph;
+    }
+
+    @Override
+    public Tuple2<Double, List<RoadSegment>> findShortestPathGraph(RoadNode startNode, RoadNode endNode) {
+        int source = csrGraph.getNodeIndex(startNode.nodeId());
+        int target = csrGraph.getNodeIndex(endNode.nodeId());
+        if (source < 0 || target < 0) {
+            return new Tuple2<>(Double.MAX_VALUE, null);
+        }
+        if (source == target) {
+            return new Tuple2<>(0d, new ArrayList<>());
+        }
+        LinkedList<RoadSegment> path = new LinkedList<>();
+        double dist = findPath(source, target, path);
+        if (dist == Double.MAX_VALUE) {
+            return new Tuple2<>(Double.MAX_VALUE, null);
+        }
+        return new Tuple2<>(dist, path);
+    }
+
+    /**
+     * 求CSR图中两个不同顶点间的最短路径
+     *
+     * @param source 起始顶点
+     * @param target 终点顶点
+     * @param path   用于收集最短路径上的路段
+     * @return 最短路径的长度(m), 不可达时返回Double.MAX_VALUE
+     */
+    protected abstract double findPath(int source, int target, LinkedList<RoadSegment> path);
+}
@@ -30,6 +30,12 @@ public abstract class AbstractSingleShortestPathAlgo<V, E> extends AbstractShort
             case CH:
                 Objects.requireNonNull(roadNetwork.getCHGraph(), "contraction graph should not be null!");
                 return new OneToOneCH(roadNetwork.getCHGraph());
+            case CSR_ASTAR:
+                return new OneToOneCSRAStar(roadNetwork.getCSRGraph());
+            case CSR_DIJKSTRA:
+                return new OneToOneCSRDijkstra(roadNetwork.getCSRGraph());
+            case CSR_BI_DIJKSTRA:
+                return new OneToOneCSRBiDijkstra(roadNetwork.getCSRGraph());
         }
         return new OneToOneAStar(roadNetwork.getRoadGraph(true));
     }
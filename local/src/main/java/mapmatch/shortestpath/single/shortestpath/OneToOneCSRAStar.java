@@ -0,0 +1,49 @@
+package mapmatch.shortestpath.single.shortestpath;
+
+import mapmatch.shortestpath.csr.CSRSearchFrontier;
+import org.apache.spark.model.st.spatial.graph.CSRRoadGraph;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import point.GeoFunction;
+
+import java.util.LinkedList;
+
+public class OneToOneCSRAStar extends AbstractCSRShortestPathAlgo {
+
+    private final CSRSearchFrontier frontier;
+
+    public OneToOneCSRAStar(CSRRoadGraph csrGraph) {
+        super(csrGraph);
+        frontier = new CSRSearchFrontier(csrGraph, true);
+    }
+
+    /**
+     * 以到终点的球面距离作为启发函数, 与OneToOneAStar一致, 要求边权为路段长度
+     */
+    @Override
+    protected double findPath(int source, int target, LinkedList<RoadSegment> path) {
+        final double targetLon = csrGraph.getLon(target);
+        final double targetLat = csrGraph.getLat(target);
+        frontier.reset();
+        frontier.updateDistance(source, -1, 0d,
+                GeoFunction.getDistanceInM(csrGraph.getLon(source), csrGraph.getLat(source), targetLon, targetLat));
+        while (!frontier.isEmpty()) {
+            int v = frontier.deleteMin();
+            if (v == target) {
+                return frontier.collectPath(target, path);
+            }
+            double vDistance = frontier.getDistance(v);
+            for (int e = csrGraph.getFirstOutEdge(v), end = csrGraph.getFirstOutEdge(v + 1); e < end; e++) {
+                int u = csrGraph.getEdgeTarget(e);
+                if (frontier.isSettled(u)) {
+                    continue;
+                }
+                double uDistance = vDistance + csrGraph.getEdgeWeight(e);
+                if (uDistance < frontier.getDistance(u)) {
+                    double heuristic = GeoFunction.getDistanceInM(csrGraph.getLon(u), csrGraph.getLat(u), targetLon, targetLat);
+                    frontier.updateDistance(u, e, uDistance, uDistance + heuristic);
+                }
+            }
+        }
+        return Double.MAX_VALUE;
+    }
+}
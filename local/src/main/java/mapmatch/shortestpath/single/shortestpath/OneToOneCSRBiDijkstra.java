@@ -0,0 +1,67 @@
+package mapmatch.shortestpath.single.shortestpath;
+
+import mapmatch.shortestpath.csr.CSRSearchFrontier;
+import org.apache.spark.model.st.spatial.graph.CSRRoadGraph;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+
+import java.util.LinkedList;
+
+public class OneToOneCSRBiDijkstra extends AbstractCSRShortestPathAlgo {
+
+    private final CSRSearchFrontier forwardFrontier;
+
+    private final CSRSearchFrontier backwardFrontier;
+
+    private int bestPathCommonVertex = -1;
+
+    private double bestPath = Double.POSITIVE_INFINITY;
+
+    public OneToOneCSRBiDijkstra(CSRRoadGraph csrGraph) {
+        super(csrGraph);
+        forwardFrontier = new CSRSearchFrontier(csrGraph, true);
+        backwardFrontier = new CSRSearchFrontier(csrGraph, false);
+    }
+
+    @Override
+    protected double findPath(int source, int target, LinkedList<RoadSegment> path) {
+        bestPathCommonVertex = -1;
+        bestPath = Double.POSITIVE_INFINITY;
+        forwardFrontier.reset();
+        backwardFrontier.reset();
+        forwardFrontier.updateDistance(source, -1, 0d);
+        backwardFrontier.updateDistance(target, -1, 0d);
+        while (!forwardFrontier.isEmpty() || !backwardFrontier.isEmpty()) {
+            double forwardMin = forwardFrontier.peekKey();
+            double backwardMin = backwardFrontier.peekKey();
+            if (forwardMin + backwardMin >= bestPath) {
+                break;
+            }
+            // expand the frontier with the smaller radius
+            if (forwardMin <= backwardMin) {
+                move(forwardFrontier, backwardFrontier);
+            } else {
+                move(backwardFrontier, forwardFrontier);
+            }
+        }
+        if (bestPathCommonVertex < 0) {
+            return Double.MAX_VALUE;
+        }
+        return forwardFrontier.collectPath(bestPathCommonVertex, path)
+                + backwardFrontier.collectPath(bestPathCommonVertex, path);
+    }
+
+    private void move(CSRSearchFrontier frontier, CSRSearchFrontier otherFrontier) {
+        int v = frontier.deleteMin();
+        double vDistance = frontier.getDistance(v);
+        for (int i = frontier.getFirstEdge(v), end = frontier.getFirstEdge(v + 1); i < end; i++) {
+            int e = frontier.getEdge(i);
+            int u = frontier.getEdgeHead(e);
+            frontier.updateDistance(u, e, vDistance + csrGraph.getEdgeWeight(e));
+            double pathDistance = frontier.getDistance(u) + otherFrontier.getDistance(u);
+            if (pathDistance < bestPath) {
+                bestPath = pathDistance;
+                bestPathCommonVertex = u;
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package mapmatch.shortestpath.single.shortestpath;
+
+import mapmatch.shortestpath.csr.CSRSearchFrontier;
+import org.apache.spark.model.st.spatial.graph.CSRRoadGraph;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+
+import java.util.LinkedList;
+
+public class OneToOneCSRDijkstra extends AbstractCSRShortestPathAlgo {
+
+    private final CSRSearchFrontier frontier;
+
+    public OneToOneCSRDijkstra(CSRRoadGraph csrGraph) {
+        super(csrGraph);
+        frontier = new CSRSearchFrontier(csrGraph, true);
+    }
+
+    @Override
+    protected double findPath(int source, int target, LinkedList<RoadSegment> path) {
+        frontier.reset();
+        frontier.updateDistance(source, -1, 0d);
+        while (!frontier.isEmpty()) {
+            int v = frontier.deleteMin();
+            if (v == target) {
+                return frontier.collectPath(target, path);
+            }
+            double vDistance = frontier.getDistance(v);
+            for (int e = csrGraph.getFirstOutEdge(v), end = csrGraph.getFirstOutEdge(v + 1); e < end; e++) {
+                frontier.updateDistance(csrGraph.getEdgeTarget(e), e, vDistance + csrGraph.getEdgeWeight(e));
+            }
+        }
+        return Double.MAX_VALUE;
+    }
+}
@@ -0,0 +1,126 @@
+package mapmatch.tihmm;
+
+import org.apache.spark.model.st.STPoint;
+import org.apache.spark.model.st.spatial.graph.RoadNetwork;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import point.CandidatePoint;
+import point.GeoFunction;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 生成每个轨迹点的candidate point，限制每一步HMM 的计算量:
+ * 搜索半径从searchRadius 开始，candidate 少于minCandidateNum 时按radiusGrowthFactor 扩大，最大到maxSearchRadius；
+ * 投影点相距不超过dedupDistance 的candidate 只保留误差距离最小的一个(同一条路的两个方向除外)；
+ * 最后按误差距离保留最多maxCandidateNum 个。默认只按searchRadius 搜索，不做其他处理
+ *
+ * @date 2021/07/26
+ */
+public class CandidatePolicy {
+
+    private double searchRadius;
+
+    private double maxSearchRadius;
+
+    private int minCandidateNum = 1;
+
+    private double radiusGrowthFactor = 2.0;
+
+    private int maxCandidateNum = Integer.MAX_VALUE;
+
+    private double dedupDistance = 0;
+
+    /**
+     * @param searchRadius 初始搜索半径(m)
+     */
+    public CandidatePolicy(double searchRadius) {
+        if (searchRadius <= 0) {
+            throw new IllegalArgumentException("search radius must be positive");
+        }
+        this.searchRadius = searchRadius;
+        this.maxSearchRadius = searchRadius;
+    }
+
+    /**
+     * candidate 过少时扩大搜索半径
+     *
+     * @param minCandidateNum    少于该数量时扩大半径
+     * @param maxSearchRadius    最大搜索半径(m)
+     * @param radiusGrowthFactor 每次扩大的倍数
+     */
+    public CandidatePolicy setAdaptiveRadius(int minCandidateNum, double maxSearchRadius, double radiusGrowthFactor) {
+        if (maxSearchRadius < searchRadius || radiusGrowthFactor <= 1) {
+            throw new IllegalArgumentException("max search radius must not be smaller than the search radius and growth factor must be larger than 1");
+        }
+        this.minCandidateNum = minCandidateNum;
+        this.maxSearchRadius = maxSearchRadius;
+        this.radiusGrowthFactor = radiusGrowthFactor;
+        return this;
+    }
+
+    /**
+     * @param maxCandidateNum 按误差距离保留的最多candidate 数
+     */
+    public CandidatePolicy setMaxCandidateNum(int maxCandidateNum) {
+        if (maxCandidateNum <= 0) {
+            throw new IllegalArgumentException("max candidate number must be positive");
+        }
+        this.maxCandidateNum = maxCandidateNum;
+        return this;
+    }
+
+    /**
+     * @param dedupDistance 投影点相距不超过该距离(m)的candidate 视为重复，0 表示不去重
+     */
+    public CandidatePolicy setDedupDistance(double dedupDistance) {
+        this.dedupDistance = dedupDistance;
+        return this;
+    }
+
+    /**
+     * @param pt          原始轨迹点
+     * @param roadNetwork 路网
+     * @return candidate point 列表
+     */
+    public List<CandidatePoint> getCandidates(STPoint pt, RoadNetwork roadNetwork) {
+        double radius = searchRadius;
+        List<CandidatePoint> candidates = CandidatePoint.getCandidatePoint(pt, roadNetwork, radius);
+        while (candidates.size() < minCandidateNum && radius < maxSearchRadius) {
+            radius = Math.min(radius * radiusGrowthFactor, maxSearchRadius);
+            candidates = CandidatePoint.getCandidatePoint(pt, roadNetwork, radius);
+        }
+        if (dedupDistance <= 0 && candidates.size() <= maxCandidateNum) {
+            return candidates;
+        }
+        candidates.sort(Comparator.comparingDouble(CandidatePoint::getErrorDistanceInMeter));
+        if (dedupDistance > 0) {
+            candidates = dedup(candidates, roadNetwork);
+        }
+        return candidates.size() <= maxCandidateNum ? candidates : new ArrayList<>(candidates.subList(0, maxCandidateNum));
+    }
+
+    /**
+     * candidates 已按误差距离排序，依次保留与已保留的candidate 都不重复的
+     */
+    private List<CandidatePoint> dedup(List<CandidatePoint> candidates, RoadNetwork roadNetwork) {
+        List<CandidatePoint> result = new ArrayList<>(candidates.size());
+        List<RoadSegment> resultSegments = new ArrayList<>(candidates.size());
+        for (CandidatePoint candidate : candidates) {
+            RoadSegment segment = roadNetwork.getRoadSegment(candidate.getRoadSegmentID());
+            boolean duplicated = false;
+            for (int i = 0; i < result.size() && !duplicated; i++) {
+                RoadSegment keptSegment = resultSegments.get(i);
+                // 双向道路的两个方向投影相同，但行驶方向不同，都需要保留
+                boolean reverse = segment.getStartId() == keptSegment.getEndId() && segment.getEndId() == keptSegment.getStartId();
+                duplicated = !reverse && GeoFunction.getDistanceInM(candidate, result.get(i)) <= dedupDistance;
+            }
+            if (!duplicated) {
+                result.add(candidate);
+                resultSegments.add(segment);
+            }
+        }
+        return result;
+    }
+}
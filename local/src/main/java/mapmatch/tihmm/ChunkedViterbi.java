@@ -0,0 +1,173 @@
+package mapmatch.tihmm;
+
+import org.apache.spark.model.st.STPoint;
+import point.CandidatePoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * 超长轨迹的分段并行viterbi:
+ * 观测点不少于threshold 时按windowSize 切成窗口，各窗口同时计算candidate、emission p 和transition p(其中的图搜索占了绝大部分时间)，
+ * 窗口的第一个点没有上一个time step，只有candidate 和emission p。
+ * 调用线程按顺序把time step 交给同一个viterbi，与顺序计算完全相同地做前向计算和回溯。
+ * 在窗口衔接处，从真正的上一个time step 重新计算窗口开头的time step，直到重新计算的candidate 与窗口中的一致(一致点)，
+ * 此后窗口中的transition p 与顺序计算相同，可以直接使用。candidate 不依赖于上一步时一致点就是窗口的第一个点，
+ * 衔接处只多一次transition 计算，结果与顺序计算相同。
+ * matcher 不是线程安全的，窗口使用matcherFactory 建立的matcher，用完后放回复用
+ *
+ * @date 2021/07/31
+ */
+public class ChunkedViterbi {
+
+    private final int threshold;
+
+    private final Supplier<TiHmmMapMatcher> matcherFactory;
+
+    private int windowSize;
+
+    private Executor executor = ForkJoinPool.commonPool();
+
+    /**
+     * 空闲的matcher，数量不超过同时计算的窗口数
+     */
+    private final Queue<TiHmmMapMatcher> idleMatchers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param threshold      观测点不少于该数量时分段计算
+     * @param matcherFactory 建立计算窗口的matcher，需要与调用的matcher 使用相同的配置
+     */
+    public ChunkedViterbi(int threshold, Supplier<TiHmmMapMatcher> matcherFactory) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("threshold must be positive");
+        }
+        this.threshold = threshold;
+        this.matcherFactory = matcherFactory;
+        this.windowSize = Math.max(threshold / 4, 200);
+    }
+
+    /**
+     * @param windowSize 每个窗口的观测点数
+     */
+    public ChunkedViterbi setWindowSize(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("window size must be positive");
+        }
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    /**
+     * @param executor 计算窗口的线程池，默认为ForkJoinPool.commonPool()
+     */
+    public ChunkedViterbi setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * @param pointNum 观测点数
+     * @return 是否分段计算
+     */
+    boolean accept(int pointNum) {
+        return pointNum >= threshold && pointNum > windowSize;
+    }
+
+    /**
+     * 分段计算viterbi sequence，第一个窗口在调用线程中使用caller 计算
+     *
+     * @param caller 调用的matcher
+     * @param ptList 原始轨迹ptList
+     * @return 与ptList 一一对应的sequence state，与caller 顺序计算的结果相同
+     */
+    List<SequenceState> computeViterbiSequence(TiHmmMapMatcher caller, List<STPoint> ptList) {
+        final int pointNum = ptList.size();
+        final int windowNum = (pointNum + windowSize - 1) / windowSize;
+        List<CompletableFuture<List<TimeStep>>> futures = new ArrayList<>(windowNum);
+        for (int w = 1; w < windowNum; w++) {
+            List<STPoint> window = ptList.subList(w * windowSize, Math.min(pointNum, (w + 1) * windowSize));
+            futures.add(CompletableFuture.supplyAsync(() -> computeWindow(window), executor));
+        }
+        SequenceDecoder decoder = caller.newSequenceDecoder(pointNum);
+        TimeStep preTimeStep = null;
+        for (STPoint pt : ptList.subList(0, Math.min(pointNum, windowSize))) {
+            preTimeStep = caller.computeTimeStep(preTimeStep, pt);
+            decoder.next(pt, preTimeStep);
+        }
+        for (int w = 1; w < windowNum; w++) {
+            List<TimeStep> windowSteps;
+            try {
+                windowSteps = futures.get(w - 1).join();
+            } catch (CompletionException e) {
+                futures.forEach(future -> future.cancel(false));
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+            int start = w * windowSize;
+            int i = 0;
+            boolean agreed = false;
+            for (; i < windowSteps.size() && !agreed; i++) {
+                STPoint pt = ptList.get(start + i);
+                TimeStep timeStep = caller.computeTimeStep(preTimeStep, pt);
+                agreed = sameCandidates(timeStep, windowSteps.get(i));
+                decoder.next(pt, timeStep);
+                preTimeStep = timeStep;
+            }
+            // 一致点之后窗口中的time step 与顺序计算的相同
+            for (; i < windowSteps.size(); i++) {
+                preTimeStep = windowSteps.get(i);
+                decoder.next(ptList.get(start + i), preTimeStep);
+            }
+        }
+        return decoder.finish();
+    }
+
+    private List<TimeStep> computeWindow(List<STPoint> window) {
+        TiHmmMapMatcher matcher = idleMatchers.poll();
+        if (matcher == null) {
+            matcher = matcherFactory.get();
+        }
+        try {
+            List<TimeStep> timeSteps = new ArrayList<>(window.size());
+            TimeStep preTimeStep = null;
+            for (STPoint pt : window) {
+                preTimeStep = matcher.computeTimeStep(preTimeStep, pt);
+                timeSteps.add(preTimeStep);
+            }
+            return timeSteps;
+        } finally {
+            idleMatchers.add(matcher);
+        }
+    }
+
+    /**
+     * candidate 的路段、位置和顺序都相同时，下一个time step 的计算结果也相同
+     */
+    private static boolean sameCandidates(TimeStep a, TimeStep b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        List<CandidatePoint> candidatesA = a.getCandidates();
+        List<CandidatePoint> candidatesB = b.getCandidates();
+        if (candidatesA.size() != candidatesB.size()) {
+            return false;
+        }
+        for (int k = 0; k < candidatesA.size(); k++) {
+            CandidatePoint candidateA = candidatesA.get(k);
+            CandidatePoint candidateB = candidatesB.get(k);
+            if (candidateA.getRoadSegmentID() != candidateB.getRoadSegmentID()
+                    || candidateA.getOffset() != candidateB.getOffset()
+                    || candidateA.getX() != candidateB.getX() || candidateA.getY() != candidateB.getY()
+                    || candidateA.getErrorDistanceInMeter() != candidateB.getErrorDistanceInMeter()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -15,6 +15,10 @@ class HmmProbabilities {
      * transition p的指数分布参数
      */
     private final double beta;
+    /**
+     * transitionMetric超过beta的该倍数时, log transition p比最大值低该倍数, 视为不可能
+     */
+    private static final double MAX_TRANSITION_METRIC_RATIO = 500.0;
 
     /**
      * 构造函数
@@ -46,6 +50,17 @@ class HmmProbabilities {
         return logExponentialDistribution(this.beta, transitionMetric);
     }
 
+    /**
+     * 路径长度的上界, 超过该长度的候选路径transition p可忽略不计;
+     * 允许的绕路距离取直线距离与 beta * MAX_TRANSITION_METRIC_RATIO 中的较大者
+     *
+     * @param linearDistance Linear distance [m] between two consecutive GPS measurements
+     * @return 路径长度上界(m)
+     */
+    double maxRouteLength(double linearDistance) {
+        return linearDistance + Math.max(linearDistance, this.beta * MAX_TRANSITION_METRIC_RATIO);
+    }
+
     /**
      * 数学方程，正太分布
      * @param sigma 正太分布参数
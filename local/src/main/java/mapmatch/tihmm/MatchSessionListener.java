@@ -0,0 +1,38 @@
+package mapmatch.tihmm;
+
+import org.apache.spark.model.st.SubRoute;
+import point.MapMatchedPoint;
+
+import java.sql.Timestamp;
+
+/**
+ * 接收流式匹配session 增量输出的结果，同一个session 的回调按时间顺序在推入观测点的线程中发生
+ *
+ * @date 2021/07/20
+ */
+public interface MatchSessionListener {
+
+    /**
+     * 一个观测点的匹配已经确定
+     *
+     * @param vehicleId 车辆id
+     * @param point     匹配结果，没有candidate 的观测点其candidate point 为null
+     */
+    void onMatchedPoint(String vehicleId, MapMatchedPoint point);
+
+    /**
+     * 一个路段已经走完
+     *
+     * @param vehicleId 车辆id
+     * @param subRoute  路段及其进入时间
+     */
+    void onSubRoute(String vehicleId, SubRoute subRoute);
+
+    /**
+     * 当前的连续路径结束，之后的sub route 属于新的路径
+     *
+     * @param vehicleId 车辆id
+     * @param endTime   离开最后一个路段的时间
+     */
+    void onRouteEnd(String vehicleId, Timestamp endTime);
+}
@@ -0,0 +1,126 @@
+package mapmatch.tihmm;
+
+import java.io.Serializable;
+
+/**
+ * 匹配参数，由命令行的一个参数给出，格式为逗号分隔的 key=value，例如 candidates=4,minDistance=20,stationary=5:
+ * radius、maxRadius、minCandidates 为candidate 的搜索半径(m)，candidate 少于minCandidates 时逐步扩大到maxRadius；
+ * candidates 为最多保留的candidate 数，dedup 为candidate 的去重距离(m)，见CandidatePolicy；
+ * minDistance、maxSpeed(m/s)、simplify 为观测点过滤的参数，见ObservationFilter；
+ * stationary 为静止判定距离(m)，见TiHmmMapMatcher.setStationaryDistance。
+ * 没有给出的功能保持matcher 的默认设置，同一个参数要应用到每个线程、每个分段窗口使用的matcher 上
+ *
+ * @date 2021/07/31
+ */
+public class MatcherOptions implements Serializable {
+
+    private double radius = TiHmmMapMatcher.measurementErrorSigma;
+
+    private double maxRadius = 0;
+
+    private int minCandidates = 1;
+
+    private int candidates = Integer.MAX_VALUE;
+
+    private double dedup = 0;
+
+    private boolean candidatePolicySet = false;
+
+    private double minDistance = 0;
+
+    private double maxSpeed = Double.POSITIVE_INFINITY;
+
+    private double simplify = 0;
+
+    private boolean observationFilterSet = false;
+
+    private double stationary = 0;
+
+    /**
+     * @param options 逗号分隔的 key=value，null 或空字符串表示全部使用默认设置
+     */
+    public static MatcherOptions parse(String options) {
+        MatcherOptions result = new MatcherOptions();
+        if (options == null || options.trim().isEmpty()) {
+            return result;
+        }
+        for (String option : options.split(",")) {
+            String[] keyValue = option.split("=", 2);
+            if (keyValue.length != 2) {
+                throw new IllegalArgumentException("matcher option should be key=value: " + option);
+            }
+            String value = keyValue[1].trim();
+            switch (keyValue[0].trim()) {
+                case "radius":
+                    result.radius = Double.parseDouble(value);
+                    result.candidatePolicySet = true;
+                    break;
+                case "maxRadius":
+                    result.maxRadius = Double.parseDouble(value);
+                    result.candidatePolicySet = true;
+                    break;
+                case "minCandidates":
+                    result.minCandidates = Integer.parseInt(value);
+                    result.candidatePolicySet = true;
+                    break;
+                case "candidates":
+                    result.candidates = Integer.parseInt(value);
+                    result.candidatePolicySet = true;
+                    break;
+                case "dedup":
+                    result.dedup = Double.parseDouble(value);
+                    result.candidatePolicySet = true;
+                    break;
+                case "minDistance":
+                    result.minDistance = Double.parseDouble(value);
+                    result.observationFilterSet = true;
+                    break;
+                case "maxSpeed":
+                    result.maxSpeed = Double.parseDouble(value);
+                    result.observationFilterSet = true;
+                    break;
+                case "simplify":
+                    result.simplify = Double.parseDouble(value);
+                    result.observationFilterSet = true;
+                    break;
+                case "stationary":
+                    result.stationary = Double.parseDouble(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unrecognized matcher option " + keyValue[0]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 把参数应用到matcher 上，每个matcher 使用独立的CandidatePolicy 和ObservationFilter
+     *
+     * @param matcher matcher
+     * @return matcher
+     */
+    public TiHmmMapMatcher apply(TiHmmMapMatcher matcher) {
+        if (candidatePolicySet) {
+            CandidatePolicy policy = new CandidatePolicy(radius)
+                    .setMaxCandidateNum(candidates)
+                    .setDedupDistance(dedup);
+            if (maxRadius > radius) {
+                policy.setAdaptiveRadius(minCandidates, maxRadius, 2.0);
+            }
+            matcher.setCandidatePolicy(policy);
+        }
+        if (observationFilterSet) {
+            ObservationFilter filter = new ObservationFilter()
+                    .setMinDistance(minDistance)
+                    .setSimplifyTolerance(simplify);
+            if (maxSpeed != Double.POSITIVE_INFINITY) {
+                filter.setMaxSpeed(maxSpeed);
+            }
+            matcher.setObservationFilter(filter);
+        }
+        if (stationary > 0) {
+            matcher.setStationaryDistance(stationary);
+        }
+        return matcher;
+    }
+}
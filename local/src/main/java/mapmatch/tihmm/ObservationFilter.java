@@ -0,0 +1,135 @@
+package mapmatch.tihmm;
+
+import org.apache.spark.model.st.STPoint;
+import point.GeoFunction;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * HMM 之前的观测点过滤，只有保留的点参与candidate 搜索和viterbi 计算:
+ * 与上一个保留点的距离小于minDistance 的点视为冗余，
+ * 进入和离开的速度都超过maxSpeed 的点视为跳点，
+ * simplifyTolerance 大于0 时再对保留的点做Douglas-Peucker 化简。
+ * 第一个和最后一个点除非是跳点，否则总是保留。默认不过滤任何点
+ *
+ * @date 2021/07/27
+ */
+public class ObservationFilter {
+
+    private double minDistance = 0;
+
+    private double maxSpeed = Double.POSITIVE_INFINITY;
+
+    private double simplifyTolerance = 0;
+
+    /**
+     * @param minDistance 与上一个保留点距离(m)小于该值的点被丢弃，通常取2倍的measurement error sigma
+     */
+    public ObservationFilter setMinDistance(double minDistance) {
+        this.minDistance = minDistance;
+        return this;
+    }
+
+    /**
+     * @param maxSpeed 物理上可能的最大速度(m/s)
+     */
+    public ObservationFilter setMaxSpeed(double maxSpeed) {
+        if (maxSpeed <= 0) {
+            throw new IllegalArgumentException("max speed must be positive");
+        }
+        this.maxSpeed = maxSpeed;
+        return this;
+    }
+
+    /**
+     * @param simplifyTolerance Douglas-Peucker 化简的距离阈值(m)，0 表示不化简
+     */
+    public ObservationFilter setSimplifyTolerance(double simplifyTolerance) {
+        this.simplifyTolerance = simplifyTolerance;
+        return this;
+    }
+
+    /**
+     * @param ptList 原始轨迹点
+     * @return 保留的点在ptList 中的下标，升序
+     */
+    public int[] filter(List<STPoint> ptList) {
+        int n = ptList.size();
+        int[] kept = new int[n];
+        int keptNum = 0;
+        for (int i = 0; i < n; i++) {
+            STPoint pt = ptList.get(i);
+            if (isSpike(ptList, i, keptNum == 0 ? -1 : kept[keptNum - 1])) {
+                continue;
+            }
+            if (keptNum > 0 && i < n - 1 && GeoFunction.getDistanceInM(ptList.get(kept[keptNum - 1]), pt) < minDistance) {
+                continue;
+            }
+            kept[keptNum++] = i;
+        }
+        if (simplifyTolerance > 0 && keptNum > 2) {
+            keptNum = simplify(ptList, kept, keptNum);
+        }
+        int[] result = new int[keptNum];
+        System.arraycopy(kept, 0, result, 0, keptNum);
+        return result;
+    }
+
+    /**
+     * 从上一个保留点到该点，以及从该点到下一个点的速度都不可能时，该点是跳点
+     */
+    private boolean isSpike(List<STPoint> ptList, int i, int lastKept) {
+        if (maxSpeed == Double.POSITIVE_INFINITY) {
+            return false;
+        }
+        STPoint pt = ptList.get(i);
+        boolean impossibleIn = lastKept >= 0 && Math.abs(GeoFunction.getSpeedInMeterPerSecond(ptList.get(lastKept), pt)) > maxSpeed;
+        boolean impossibleOut = i + 1 < ptList.size() && Math.abs(GeoFunction.getSpeedInMeterPerSecond(pt, ptList.get(i + 1))) > maxSpeed;
+        if (lastKept < 0 || i + 1 == ptList.size()) {
+            // 首尾的点只有一侧，一侧不可能即视为跳点
+            return impossibleIn || impossibleOut;
+        }
+        return impossibleIn && impossibleOut;
+    }
+
+    /**
+     * Douglas-Peucker 化简，在kept 中原地保留化简后的下标
+     *
+     * @return 化简后的点数
+     */
+    private int simplify(List<STPoint> ptList, int[] kept, int keptNum) {
+        boolean[] marked = new boolean[keptNum];
+        marked[0] = true;
+        marked[keptNum - 1] = true;
+        Deque<int[]> ranges = new ArrayDeque<>();
+        ranges.push(new int[]{0, keptNum - 1});
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.pop();
+            STPoint start = ptList.get(kept[range[0]]);
+            STPoint end = ptList.get(kept[range[1]]);
+            double maxDistance = -1;
+            int farthest = -1;
+            for (int k = range[0] + 1; k < range[1]; k++) {
+                double distance = GeoFunction.projectPtToSegment(start, end, ptList.get(kept[k])).getErrorDistance();
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = k;
+                }
+            }
+            if (farthest >= 0 && maxDistance > simplifyTolerance) {
+                marked[farthest] = true;
+                ranges.push(new int[]{range[0], farthest});
+                ranges.push(new int[]{farthest, range[1]});
+            }
+        }
+        int simplifiedNum = 0;
+        for (int k = 0; k < keptNum; k++) {
+            if (marked[k]) {
+                kept[simplifiedNum++] = kept[k];
+            }
+        }
+        return simplifiedNum;
+    }
+}
@@ -0,0 +1,76 @@
+package mapmatch.tihmm;
+
+import org.apache.spark.model.st.STPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按顺序接收time step 并计算viterbi sequence：没有candidate 的点以及HMM 断开处重新开始，
+ * 顺序计算和分段计算共用，保证两者的结果相同
+ *
+ * @date 2021/07/31
+ */
+class SequenceDecoder {
+
+    private final boolean onlineViterbi;
+
+    private final List<SequenceState> seq;
+
+    private TiViterbi viterbi = new TiViterbi();
+
+    /**
+     * 当前viterbi 是否已经开始
+     */
+    private boolean started = false;
+
+    private int pointNum = 0;
+
+    /**
+     * @param onlineViterbi 是否在路径收敛后立即取出已确定的部分
+     * @param capacity      预计的观测点数
+     */
+    SequenceDecoder(boolean onlineViterbi, int capacity) {
+        this.onlineViterbi = onlineViterbi;
+        this.seq = new ArrayList<>(capacity);
+    }
+
+    /**
+     * @param pt       原始轨迹点
+     * @param timeStep 该点的time step，transition p 必须是从上一个点的time step 计算的，没有candidate 时为null
+     */
+    void next(STPoint pt, TimeStep timeStep) {
+        pointNum++;
+        if (timeStep == null) {
+            seq.addAll(viterbi.computeMostLikelySequence());
+            seq.add(new SequenceState(null, pt));
+            viterbi = new TiViterbi();
+            started = false;
+            return;
+        }
+        if (!started) {
+            viterbi.startWithInitialObservation(timeStep.getObservation(), timeStep.getCandidates(), timeStep.getEmissionLogProbabilities());
+            started = true;
+        } else {
+            viterbi.nextStep(timeStep.getObservation(), timeStep.getCandidates(), timeStep.getEmissionLogProbabilities(), timeStep.getTransitionLogProbabilities(), timeStep.getTransitionPaths());
+        }
+        if (viterbi.isBroken) {
+            seq.addAll(viterbi.computeMostLikelySequence());
+            viterbi = new TiViterbi();
+            viterbi.startWithInitialObservation(timeStep.getObservation(), timeStep.getCandidates(), timeStep.getEmissionLogProbabilities());
+        }
+        if (onlineViterbi) {
+            seq.addAll(viterbi.retrieveConvergedSequence());
+        }
+    }
+
+    /**
+     * @return 与接收的点一一对应的sequence state
+     */
+    List<SequenceState> finish() {
+        if (seq.size() < pointNum) {
+            seq.addAll(viterbi.computeMostLikelySequence());
+        }
+        return seq;
+    }
+}
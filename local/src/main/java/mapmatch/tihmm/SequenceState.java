@@ -1,8 +1,11 @@
 package mapmatch.tihmm;
 
 import org.apache.spark.model.st.STPoint;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
 import point.CandidatePoint;
 
+import java.util.List;
+
 /**
  * 辅助class，保存状态信息
  *
@@ -18,6 +21,10 @@ public class SequenceState {
      * 原始point
      */
     private final STPoint observation;
+    /**
+     * 从上一步的state 所在路段终点到该state 所在路段起点的路径，未知时为null
+     */
+    private final List<RoadSegment> transitionPath;
 
     /**
      * 构造函数
@@ -25,8 +32,18 @@ public class SequenceState {
      * @param observation 原始point
      */
     public SequenceState(CandidatePoint state, STPoint observation) {
+        this(state, observation, null);
+    }
+
+    /**
+     * @param state          原始point的candidate
+     * @param observation    原始point
+     * @param transitionPath 计算transition p 时得到的路径，未知时为null
+     */
+    public SequenceState(CandidatePoint state, STPoint observation, List<RoadSegment> transitionPath) {
         this.state = state;
         this.observation = observation;
+        this.transitionPath = transitionPath;
     }
 
     public CandidatePoint getState() {
@@ -37,4 +54,8 @@ public class SequenceState {
         return observation;
     }
 
+    public List<RoadSegment> getTransitionPath() {
+        return transitionPath;
+    }
+
 }
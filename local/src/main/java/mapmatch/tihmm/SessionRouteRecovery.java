@@ -0,0 +1,130 @@
+package mapmatch.tihmm;
+
+import mapmatch.shortestpath.ShortestPathRouteRecovery;
+import org.apache.spark.model.st.SubRoute;
+import org.apache.spark.model.st.spatial.SpatialLine;
+import org.apache.spark.model.st.spatial.graph.RoadNetwork;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import point.MapMatchedPoint;
+import scala.Option;
+import scala.Tuple2;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * 增量版本的ShortestPathRouteRecovery，匹配点逐个加入，路段在离开时输出
+ *
+ * @date 2021/07/20
+ */
+class SessionRouteRecovery {
+
+    private final String vehicleId;
+
+    private final MatchSessionListener listener;
+
+    /**
+     * 上一个匹配到路段的点
+     */
+    private MapMatchedPoint preMMPt;
+
+    /**
+     * 上一个点所在路段的进入时间
+     */
+    private Timestamp prePtEdgeEnterTime;
+
+    /**
+     * 匹配到路段的点数
+     */
+    private int matchedPointNum = 0;
+
+    SessionRouteRecovery(String vehicleId, MatchSessionListener listener) {
+        this.vehicleId = vehicleId;
+        this.listener = listener;
+    }
+
+    /**
+     * @param curMMPt        匹配点
+     * @param transitionPath HMM 中从上一个匹配点到该点的路径，未知时为null
+     * @param matcher        当前线程的matcher
+     */
+    void addPoint(MapMatchedPoint curMMPt, List<RoadSegment> transitionPath, TiHmmMapMatcher matcher) {
+        if (curMMPt.getCandidatePoint() == null) {
+            return;
+        }
+        if (preMMPt == null) {
+            preMMPt = curMMPt;
+            // assume the first edge enter time is the first point appear time
+            prePtEdgeEnterTime = curMMPt.getTime();
+            matchedPointNum = 1;
+            return;
+        }
+        RoadNetwork roadNetwork = matcher.roadNetwork;
+        RoadSegment preRoadSegment = roadNetwork.getRoadSegment(preMMPt.getCandidatePoint().getRoadSegmentID());
+        RoadSegment curRoadSegment = roadNetwork.getRoadSegment(curMMPt.getCandidatePoint().getRoadSegmentID());
+        if (!preRoadSegment.equals(curRoadSegment)) {
+            Tuple2<Double, List<RoadSegment>> gp = transitionPath != null
+                    ? ShortestPathRouteRecovery.toGraphPath(transitionPath)
+                    : matcher.pathAlgo.findShortestPathGraph(
+                    ShortestPathRouteRecovery.getStartNode(preMMPt, preRoadSegment),
+                    ShortestPathRouteRecovery.getEndNode(curMMPt, curRoadSegment));
+            if (gp._2 == null) {
+                // can't connect, split the route, the leave time is estimated by the previous point time
+                listener.onSubRoute(vehicleId, newSubRoute(preRoadSegment, prePtEdgeEnterTime));
+                listener.onRouteEnd(vehicleId, preMMPt.getTime());
+                prePtEdgeEnterTime = curMMPt.getTime();
+                preMMPt = curMMPt;
+                matchedPointNum++;
+                return;
+            }
+            long totalTimeSpan = curMMPt.getTime().getTime() - preMMPt.getTime().getTime();
+            double preMatchedPtOffset = preMMPt.getCandidatePoint().getOffset();
+            double curMatchedPtOffset = curMMPt.getCandidatePoint().getOffset();
+            double totalDistance = gp._1 + (preRoadSegment.getLength() - preMatchedPtOffset) + curMatchedPtOffset;
+            Timestamp prePtEdgeLeaveTime = Timestamp.from(preMMPt.getTime().toInstant().plusMillis(
+                    (long) ((preRoadSegment.getLength() - preMatchedPtOffset) * totalTimeSpan / totalDistance)));
+            listener.onSubRoute(vehicleId, newSubRoute(preRoadSegment, prePtEdgeEnterTime));
+            Timestamp curPtEdgeEnterTime = Timestamp.from(curMMPt.getTime().toInstant().minusMillis(
+                    (long) (curMatchedPtOffset * totalTimeSpan / totalDistance)));
+            if (gp._2.isEmpty()) {
+                curPtEdgeEnterTime = prePtEdgeLeaveTime;
+            } else {
+                for (SubRoute subRoute : ShortestPathRouteRecovery.linearInterpolateRoute(gp, prePtEdgeLeaveTime, curPtEdgeEnterTime)) {
+                    listener.onSubRoute(vehicleId, subRoute);
+                }
+            }
+            prePtEdgeEnterTime = curPtEdgeEnterTime;
+        }
+        preMMPt = curMMPt;
+        matchedPointNum++;
+    }
+
+    /**
+     * 输出最后一个路段并结束当前路径
+     */
+    void finish(TiHmmMapMatcher matcher) {
+        if (preMMPt == null) {
+            return;
+        }
+        RoadSegment lastRs = matcher.roadNetwork.getRoadSegment(preMMPt.getCandidatePoint().getRoadSegmentID());
+        if (matchedPointNum == 1 && lastRs.getSpeedLimit() > 0) {
+            // 无法推测进入和离开时间，由路段的限速来估计
+            double speed = lastRs.getSpeedLimit() / 3.6;
+            Timestamp enterTime = Timestamp.from(preMMPt.getTime().toInstant().minusSeconds((long) (preMMPt.getCandidatePoint().getOffset() / speed)));
+            Timestamp leaveTime = Timestamp.from(preMMPt.getTime().toInstant().plusSeconds((long) ((lastRs.getLength() - preMMPt.getCandidatePoint().getOffset()) / speed)));
+            listener.onSubRoute(vehicleId, newSubRoute(lastRs, enterTime));
+            listener.onRouteEnd(vehicleId, leaveTime);
+        } else {
+            // assume the last edge leave time is the last point appear time
+            listener.onSubRoute(vehicleId, newSubRoute(lastRs, prePtEdgeEnterTime));
+            listener.onRouteEnd(vehicleId, preMMPt.getTime());
+        }
+        preMMPt = null;
+        prePtEdgeEnterTime = null;
+        matchedPointNum = 0;
+    }
+
+    private static SubRoute newSubRoute(RoadSegment roadSegment, Timestamp enterTime) {
+        return new SubRoute(roadSegment.getRoadId(), enterTime, Option.<SpatialLine>apply(roadSegment));
+    }
+}
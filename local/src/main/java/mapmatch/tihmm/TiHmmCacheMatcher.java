@@ -1,6 +1,8 @@
 package mapmatch.tihmm;
 
-import mapmatch.shortestpath.single.shortestpath.OneToOneAStar;
+import mapmatch.shortestpath.AbstractShortestPathAlgo;
+import mapmatch.shortestpath.cache.ubodt.UBODT;
+import mapmatch.shortestpath.cache.ubodt.UBODTShortestPathAlgo;
 import org.apache.spark.model.st.spatial.graph.RoadNetwork;
 import org.apache.spark.model.st.spatial.graph.RoadNode;
 import org.apache.spark.model.st.spatial.graph.RoadSegment;
@@ -8,42 +10,63 @@ import point.CandidatePoint;
 import point.GeoFunction;
 import scala.Tuple2;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 public class TiHmmCacheMatcher extends TiHmmMapMatcher {
 
-    Map<Tuple2<Integer, Integer>, Double> cachePathMap;
+    private final UBODT ubodt;
 
-    public TiHmmCacheMatcher(RoadNetwork roadNetwork, Map<Tuple2<Integer, Integer>, Double> cachePathMap) {
+    /**
+     * 不在UBODT中的顶点对使用的算法
+     */
+    private final AbstractShortestPathAlgo fallbackAlgo;
+
+    public TiHmmCacheMatcher(RoadNetwork roadNetwork, UBODT ubodt) {
         super(roadNetwork);
-        this.cachePathMap = cachePathMap;
+        this.ubodt = ubodt;
+        this.fallbackAlgo = pathAlgo;
+        this.pathAlgo = new UBODTShortestPathAlgo(ubodt, roadNetwork, fallbackAlgo);
     }
 
     @Override
     protected void computeTransitionProbabilities(TimeStep prevTimeStep, TimeStep timeStep, HmmProbabilities probabilities) {
         final double linearDist = GeoFunction.getDistanceInM(prevTimeStep.getObservation(), timeStep.getObservation());
 
-        for (CandidatePoint preCandiPt : prevTimeStep.getCandidates()) {
-            for (CandidatePoint curCandiPt : timeStep.getCandidates()) {
-                RoadSegment preRs = roadNetwork.getRoadSegment(preCandiPt.getRoadSegmentID());
-                RoadNode preV = preRs.getEndNode();
+        final List<CandidatePoint> prevCandidates = prevTimeStep.getCandidates();
+        final List<CandidatePoint> curCandidates = timeStep.getCandidates();
+        for (int i = 0; i < prevCandidates.size(); i++) {
+            final CandidatePoint preCandiPt = prevCandidates.get(i);
+            final RoadSegment preRs = roadNetwork.getRoadSegment(preCandiPt.getRoadSegmentID());
+            final RoadNode preV = preRs.getEndNode();
+            for (int j = 0; j < curCandidates.size(); j++) {
+                final CandidatePoint curCandiPt = curCandidates.get(j);
                 RoadNode curU = roadNetwork.getRoadSegment(curCandiPt.getRoadSegmentID()).getStartNode();
                 double dist;
+                List<RoadSegment> path;
                 try {
-                    final Tuple2<Integer, Integer> key = new Tuple2<>(preV.nodeId(), curU.nodeId());
-                    if (cachePathMap.containsKey(key)) {
-                        dist = cachePathMap.get(key);
+                    final int slot = ubodt.find(preV.nodeId(), curU.nodeId());
+                    final int[] segmentIds = slot < 0 ? null : ubodt.getPath(preV.nodeId(), curU.nodeId());
+                    if (segmentIds != null) {
+                        dist = ubodt.getDistance(slot);
+                        path = new ArrayList<>(segmentIds.length);
+                        for (int segmentId : segmentIds) {
+                            path.add(roadNetwork.getRoadSegment(segmentId));
+                        }
                     } else {
-                        dist = new OneToOneAStar(roadNetwork.getRoadGraph(true)).findShortestPathGraph(preV, curU)._1;
+                        final Tuple2<Double, List<RoadSegment>> tuple2 = fallbackAlgo.findShortestPathGraph(preV, curU);
+                        dist = tuple2._1;
+                        path = tuple2._2;
                     }
                 } catch (Exception e) {
                     dist = Double.POSITIVE_INFINITY;
+                    path = null;
                 }
-                if (dist != Double.POSITIVE_INFINITY) {
+                if (dist != Double.POSITIVE_INFINITY && dist != Double.MAX_VALUE) {
                     double distToSrc = preRs.getLength() - preCandiPt.getOffset();
                     double distToEnd = curCandiPt.getOffset();
-                    timeStep.addTransitionLogProbability(preCandiPt, curCandiPt,
-                            probabilities.transitionLogProbability(dist + distToSrc + distToEnd, linearDist));
+                    timeStep.addTransitionLogProbability(i, j,
+                            probabilities.transitionLogProbability(dist + distToSrc + distToEnd, linearDist), path);
                 }
             }
         }
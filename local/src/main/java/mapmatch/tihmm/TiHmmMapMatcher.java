@@ -29,7 +29,7 @@ public class TiHmmMapMatcher {
     /**
      * emission P用正态分布函数来模拟，sigma为正态分布的概率函数参数
      */
-    private static final double measurementErrorSigma = 50.0;
+    static final double measurementErrorSigma = 50.0;
     /**
      * transition p 的指数概率函数参数
      */
@@ -42,6 +42,34 @@ public class TiHmmMapMatcher {
 
     protected AbstractShortestPathAlgo pathAlgo;
 
+    private final HmmProbabilities probabilities = new HmmProbabilities(measurementErrorSigma, transitionProbabilityBeta);
+
+    /**
+     * 是否使用online viterbi，每一步在所有路径收敛后立即输出已确定的部分，适用于超长轨迹
+     */
+    private boolean onlineViterbi = false;
+
+    /**
+     * candidate point 的生成方式，默认为measurementErrorSigma 范围内的所有路段
+     */
+    private CandidatePolicy candidatePolicy = new CandidatePolicy(measurementErrorSigma);
+
+    /**
+     * HMM 之前的观测点过滤，为null 时所有点都参与匹配
+     */
+    private ObservationFilter observationFilter = null;
+
+    /**
+     * 与上一次空间查询的观测点距离(m)不超过该值时视为静止：不查询R-tree，把上一步的candidate 路段重新投影到当前点，
+     * 同一路段以及首尾相接的路段之间的transition 按offset 计算，不做图搜索。0 表示不启用
+     */
+    private double stationaryDistance = 0;
+
+    /**
+     * 超长轨迹的分段并行viterbi，为null 时所有轨迹都在调用线程中顺序计算
+     */
+    private ChunkedViterbi chunkedViterbi = null;
+
     /**
      * 构造函数
      *
@@ -56,6 +84,26 @@ public class TiHmmMapMatcher {
         pathAlgo = AbstractSingleShortestPathAlgo.getAlgo(roadNetwork, algoType);
     }
 
+    public void setOnlineViterbi(boolean onlineViterbi) {
+        this.onlineViterbi = onlineViterbi;
+    }
+
+    public void setCandidatePolicy(CandidatePolicy candidatePolicy) {
+        this.candidatePolicy = candidatePolicy;
+    }
+
+    public void setObservationFilter(ObservationFilter observationFilter) {
+        this.observationFilter = observationFilter;
+    }
+
+    public void setStationaryDistance(double stationaryDistance) {
+        this.stationaryDistance = stationaryDistance;
+    }
+
+    public void setChunkedViterbi(ChunkedViterbi chunkedViterbi) {
+        this.chunkedViterbi = chunkedViterbi;
+    }
+
     /**
      * 实现抽象类的map match 方法
      *
@@ -63,19 +111,101 @@ public class TiHmmMapMatcher {
      * @return map match后的轨迹
      */
     public MapMatchedTrajectory matchTrajToMapMatchedTraj(Trajectory traj) {
-        List<SequenceState> seq = this.computeViterbiSequence(traj.getSTPointList());
-        assert traj.getSTPointList().size() == seq.size();
-        List<MapMatchedPoint> mapMatchedPointList = new ArrayList<>(seq.size());
-        for (SequenceState ss : seq) {
-            CandidatePoint candiPt = null;
-            if (ss.getState() != null) {
-                candiPt = ss.getState();
+        return matchTrajToMapMatchedTraj(traj, null);
+    }
+
+    /**
+     * @param traj            原始轨迹
+     * @param transitionPaths 输出，可为null，第k 个元素为第k-1 个匹配点到第k 个匹配点在HMM 中使用的路径，未知时为null
+     * @return map match后的轨迹
+     */
+    private MapMatchedTrajectory matchTrajToMapMatchedTraj(Trajectory traj, List<List<RoadSegment>> transitionPaths) {
+        List<STPoint> ptList = traj.getSTPointList();
+        int[] keptIdx = observationFilter == null ? null : observationFilter.filter(ptList);
+        if (keptIdx == null || keptIdx.length == ptList.size()) {
+            keptIdx = null;
+        }
+        List<STPoint> keptPtList = ptList;
+        if (keptIdx != null) {
+            keptPtList = new ArrayList<>(keptIdx.length);
+            for (int idx : keptIdx) {
+                keptPtList.add(ptList.get(idx));
+            }
+        }
+        List<SequenceState> seq = this.computeViterbiSequence(keptPtList);
+        assert keptPtList.size() == seq.size();
+        List<MapMatchedPoint> mapMatchedPointList = new ArrayList<>(ptList.size());
+        for (int k = 0; k < seq.size(); k++) {
+            SequenceState ss = seq.get(k);
+            if (keptIdx != null) {
+                // 被过滤的点投影到前后两个保留点之间的路径上
+                int from = k == 0 ? 0 : keptIdx[k - 1] + 1;
+                CandidatePoint preState = k == 0 ? null : seq.get(k - 1).getState();
+                for (int i = from; i < keptIdx[k]; i++) {
+                    mapMatchedPointList.add(new MapMatchedPoint(ptList.get(i), projectDroppedPoint(ptList.get(i), preState, ss.getState(), ss.getTransitionPath())));
+                    addTransitionPath(transitionPaths, null);
+                }
+            }
+            mapMatchedPointList.add(new MapMatchedPoint(ss.getObservation(), ss.getState()));
+            // 中间插入了被过滤的点时路径不再对应相邻的两个匹配点
+            boolean adjacent = keptIdx == null || (k > 0 && keptIdx[k - 1] == keptIdx[k] - 1);
+            addTransitionPath(transitionPaths, adjacent ? ss.getTransitionPath() : null);
+        }
+        if (keptIdx != null) {
+            CandidatePoint lastState = seq.isEmpty() ? null : seq.get(seq.size() - 1).getState();
+            for (int i = keptIdx.length == 0 ? 0 : keptIdx[keptIdx.length - 1] + 1; i < ptList.size(); i++) {
+                mapMatchedPointList.add(new MapMatchedPoint(ptList.get(i), projectDroppedPoint(ptList.get(i), lastState, null, null)));
+                addTransitionPath(transitionPaths, null);
             }
-            mapMatchedPointList.add(new MapMatchedPoint(ss.getObservation(), candiPt));
         }
         return new MapMatchedTrajectory(traj.getOid(), mapMatchedPointList);
     }
 
+    private static void addTransitionPath(List<List<RoadSegment>> transitionPaths, List<RoadSegment> path) {
+        if (transitionPaths != null) {
+            transitionPaths.add(path);
+        }
+    }
+
+    /**
+     * 把被过滤掉的点投影到preState 和curState 之间的路径上，取误差最小的路段
+     *
+     * @param pt             被过滤的点
+     * @param preState       之前保留点的匹配结果，可为null
+     * @param curState       之后保留点的匹配结果，可为null
+     * @param transitionPath HMM 中从preState 到curState 的路径，未知时为null
+     * @return candidate point，两个都为null 时为null
+     */
+    private CandidatePoint projectDroppedPoint(STPoint pt, CandidatePoint preState, CandidatePoint curState, List<RoadSegment> transitionPath) {
+        if (preState == null && curState == null) {
+            return null;
+        }
+        List<RoadSegment> route = new ArrayList<>();
+        if (preState != null) {
+            route.add(roadNetwork.getRoadSegment(preState.getRoadSegmentID()));
+        }
+        if (curState != null && (preState == null || curState.getRoadSegmentID() != preState.getRoadSegmentID())) {
+            if (transitionPath != null) {
+                route.addAll(transitionPath);
+            } else if (preState != null) {
+                final Tuple2<Double, List<RoadSegment>> tuple2
+                        = pathAlgo.findShortestPathByCandidatePoint(preState, curState, roadNetwork);
+                if (tuple2._2 != null) {
+                    route.addAll(tuple2._2);
+                }
+            }
+            route.add(roadNetwork.getRoadSegment(curState.getRoadSegmentID()));
+        }
+        CandidatePoint best = null;
+        for (RoadSegment rs : route) {
+            CandidatePoint candiPt = CandidatePoint.calCandidatePoint(pt, rs);
+            if (best == null || candiPt.getErrorDistanceInMeter() < best.getErrorDistanceInMeter()) {
+                best = candiPt;
+            }
+        }
+        return best;
+    }
+
     public List<RouteOfTrajectory> matchTrajToRoute(MapMatchedTrajectory trajectory) {
         ShortestPathRouteRecovery recovery = new ShortestPathRouteRecovery(pathAlgo);
         List<RouteOfTrajectory> routeOfTrajectories = recovery.recover(trajectory, roadNetwork);
@@ -92,17 +222,32 @@ public class TiHmmMapMatcher {
      * @return a collection of continuous path
      */
     public List<RouteOfTrajectory> matchTrajToRoute(Trajectory trajectory) throws Exception {
-        MapMatchedTrajectory mmTraj = matchTrajToMapMatchedTraj(trajectory);
+        List<List<RoadSegment>> transitionPaths = new ArrayList<>(trajectory.getSTPointList().size());
+        MapMatchedTrajectory mmTraj = matchTrajToMapMatchedTraj(trajectory, transitionPaths);
         if (mmTraj == null) {
             return null;
         }
-        List<RouteOfTrajectory> routeOfTrajectories = matchTrajToRoute(mmTraj);
+        // HMM 中已经计算过的路径直接用于route recovery，不再重复搜索
+        ShortestPathRouteRecovery recovery = new ShortestPathRouteRecovery(pathAlgo);
+        List<RouteOfTrajectory> routeOfTrajectories = recovery.recover(mmTraj, roadNetwork, transitionPaths);
         if (null == routeOfTrajectories || routeOfTrajectories.isEmpty()) {
             return null;
         }
         return routeOfTrajectories;
     }
 
+    /**
+     * 打开一个流式匹配session，观测点逐个推入，匹配结果增量输出，session 只能在单线程中使用
+     *
+     * @param vehicleId 车辆id
+     * @param maxLag    最多有多少个观测点在等待确定
+     * @param listener  接收匹配结果
+     * @return session
+     */
+    public TiHmmMatchSession openSession(String vehicleId, int maxLag, MatchSessionListener listener) {
+        return new TiHmmMatchSession(vehicleId, () -> this, maxLag, listener);
+    }
+
     /**
      * 建立一个time step
      *
@@ -111,7 +256,7 @@ public class TiHmmMapMatcher {
      */
     private TimeStep createTimeStep(STPoint pt) {
         TimeStep timeStep = null;
-        List<CandidatePoint> candidates = CandidatePoint.getCandidatePoint(pt, roadNetwork, measurementErrorSigma);
+        List<CandidatePoint> candidates = candidatePolicy.getCandidates(pt, roadNetwork);
         if (!candidates.isEmpty()) {
             timeStep = new TimeStep(pt, candidates);
         }
@@ -119,46 +264,122 @@ public class TiHmmMapMatcher {
     }
 
     /**
-     * 计算一个 Viterbi sequence
+     * 计算一个 Viterbi sequence，观测点足够多时分段并行计算
      *
      * @param ptList 原始轨迹ptList
      * @return 保存了每一步step的所有状态
      */
     private List<SequenceState> computeViterbiSequence(List<STPoint> ptList) {
-        List<SequenceState> seq = new ArrayList<>();
-        final HmmProbabilities probabilities = new HmmProbabilities(measurementErrorSigma, transitionProbabilityBeta);
-        TiViterbi viterbi = new TiViterbi();
+        if (chunkedViterbi != null && chunkedViterbi.accept(ptList.size())) {
+            return chunkedViterbi.computeViterbiSequence(this, ptList);
+        }
+        return computeSequentialViterbiSequence(ptList);
+    }
+
+    /**
+     * 在当前线程中顺序计算 Viterbi sequence
+     *
+     * @param ptList 原始轨迹ptList
+     * @return 保存了每一步step的所有状态
+     */
+    List<SequenceState> computeSequentialViterbiSequence(List<STPoint> ptList) {
+        SequenceDecoder decoder = newSequenceDecoder(ptList.size());
         TimeStep preTimeStep = null;
-        int idx = 0;
-        int nbPoints = ptList.size();
-        while (idx < nbPoints) {
-            TimeStep timeStep = this.createTimeStep(ptList.get(idx));
-            if (timeStep == null) {
-                seq.addAll(viterbi.computeMostLikelySequence());
-                seq.add(new SequenceState(null, ptList.get(idx)));
-                viterbi = new TiViterbi();
-                preTimeStep = null;
-            } else {
-                this.computeEmissionProbabilities(timeStep, probabilities);
-                if (preTimeStep == null) {
-                    viterbi.startWithInitialObservation(timeStep.getObservation(), timeStep.getCandidates(), timeStep.getEmissionLogProbabilities());
+        for (STPoint pt : ptList) {
+            TimeStep timeStep = this.computeTimeStep(preTimeStep, pt);
+            decoder.next(pt, timeStep);
+            preTimeStep = timeStep;
+        }
+        return decoder.finish();
+    }
+
+    SequenceDecoder newSequenceDecoder(int capacity) {
+        return new SequenceDecoder(onlineViterbi, capacity);
+    }
+
+    /**
+     * 建立time step 并计算emission p，以及从preTimeStep 到该time step 的transition p
+     *
+     * @param preTimeStep 之前的timestep，没有时为null
+     * @param pt          原始轨迹点
+     * @return timestep，没有candidate 时为null
+     */
+    TimeStep computeTimeStep(TimeStep preTimeStep, STPoint pt) {
+        final boolean stationary = this.isStationary(preTimeStep, pt);
+        TimeStep timeStep = stationary ? this.createStationaryTimeStep(preTimeStep, pt) : this.createTimeStep(pt);
+        if (timeStep != null) {
+            this.computeEmissionProbabilities(timeStep, probabilities);
+            if (preTimeStep != null) {
+                timeStep.initTransitionLogProbabilities(preTimeStep.getCandidates().size());
+                if (stationary) {
+                    this.computeStationaryTransitionProbabilities(preTimeStep, timeStep, probabilities);
                 } else {
                     this.computeTransitionProbabilities(preTimeStep, timeStep, probabilities);
-                    viterbi.nextStep(timeStep.getObservation(), timeStep.getCandidates(), timeStep.getEmissionLogProbabilities(), timeStep.getTransitionLogProbabilities());
-                }
-                if (viterbi.isBroken) {
-                    seq.addAll(viterbi.computeMostLikelySequence());
-                    viterbi = new TiViterbi();
-                    viterbi.startWithInitialObservation(timeStep.getObservation(), timeStep.getCandidates(), timeStep.getEmissionLogProbabilities());
                 }
-                preTimeStep = timeStep;
             }
-            idx += 1;
         }
-        if (seq.size() < nbPoints) {
-            seq.addAll(viterbi.computeMostLikelySequence());
+        return timeStep;
+    }
+
+    /**
+     * 与上一步的空间查询点距离不超过stationaryDistance 时视为静止。
+     * 比较的是查询点而不是上一个观测点，缓慢移动时candidate 路段也会定期更新
+     */
+    private boolean isStationary(TimeStep preTimeStep, STPoint pt) {
+        return stationaryDistance > 0 && preTimeStep != null
+                && GeoFunction.getDistanceInM(preTimeStep.getQueryObservation(), pt) <= stationaryDistance;
+    }
+
+    /**
+     * 把上一步的candidate 路段按相同的顺序重新投影到当前点，不查询R-tree
+     *
+     * @param preTimeStep 之前的timestep
+     * @param pt          原始轨迹点
+     * @return timestep
+     */
+    private TimeStep createStationaryTimeStep(TimeStep preTimeStep, STPoint pt) {
+        final List<CandidatePoint> prevCandidates = preTimeStep.getCandidates();
+        List<CandidatePoint> candidates = new ArrayList<>(prevCandidates.size());
+        for (CandidatePoint prevCandiPt : prevCandidates) {
+            candidates.add(CandidatePoint.calCandidatePoint(pt, roadNetwork.getRoadSegment(prevCandiPt.getRoadSegmentID())));
+        }
+        return new TimeStep(pt, candidates, preTimeStep.getQueryObservation());
+    }
+
+    /**
+     * 静止的点之间的transition p：同一路段上按offset 差计算，GPS 抖动造成的不超过stationaryDistance 的倒退按其绝对值计算
+     * (双向道路的两个方向是两个路段，抖动时总有一个方向的offset 减小)；前一个路段的终点是后一个路段的起点时，
+     * 距离为前一个路段剩余的长度加上后一个candidate 的offset，路径为空。其他candidate 之间仍然做图搜索
+     *
+     * @param preTimeStep   之前的timestep
+     * @param timeStep      当前的timestep
+     * @param probabilities 建立好的概率分布函数
+     */
+    private void computeStationaryTransitionProbabilities(TimeStep preTimeStep, TimeStep timeStep, HmmProbabilities probabilities) {
+        final double linearDist = GeoFunction.getDistanceInM(preTimeStep.getObservation(), timeStep.getObservation());
+        final List<CandidatePoint> prevCandidates = preTimeStep.getCandidates();
+        final List<CandidatePoint> curCandidates = timeStep.getCandidates();
+        for (int i = 0; i < prevCandidates.size(); i++) {
+            final CandidatePoint prevCandiPt = prevCandidates.get(i);
+            final RoadSegment prevRs = roadNetwork.getRoadSegment(prevCandiPt.getRoadSegmentID());
+            for (int j = 0; j < curCandidates.size(); j++) {
+                final CandidatePoint curCandiPt = curCandidates.get(j);
+                final double offsetDiff = curCandiPt.getOffset() - prevCandiPt.getOffset();
+                if (prevCandiPt.getRoadSegmentID() == curCandiPt.getRoadSegmentID() && offsetDiff >= -stationaryDistance) {
+                    timeStep.addTransitionLogProbability(i, j, probabilities.transitionLogProbability(Math.abs(offsetDiff), linearDist), new ArrayList<>());
+                } else if (prevCandiPt.getRoadSegmentID() != curCandiPt.getRoadSegmentID()
+                        && prevRs.getEndId() == roadNetwork.getRoadSegment(curCandiPt.getRoadSegmentID()).getStartId()) {
+                    final double routeDist = prevRs.getLength() - prevCandiPt.getOffset() + curCandiPt.getOffset();
+                    timeStep.addTransitionLogProbability(i, j, probabilities.transitionLogProbability(routeDist, linearDist), new ArrayList<>());
+                } else {
+                    final Tuple2<Double, List<RoadSegment>> tuple2
+                            = pathAlgo.findShortestPathByCandidatePoint(prevCandiPt, curCandiPt, roadNetwork);
+                    if (tuple2._1 != Double.MAX_VALUE) {
+                        timeStep.addTransitionLogProbability(i, j, probabilities.transitionLogProbability(tuple2._1, linearDist), tuple2._2);
+                    }
+                }
+            }
         }
-        return seq;
     }
 
     /**
@@ -168,9 +389,10 @@ public class TiHmmMapMatcher {
      * @param probability 建立好的概率分布函数
      */
     private void computeEmissionProbabilities(TimeStep timeStep, HmmProbabilities probability) {
-        for (CandidatePoint candiPt : timeStep.getCandidates()) {
-            final double dist = candiPt.getErrorDistanceInMeter();
-            timeStep.addEmissionLogProbability(candiPt, probability.emissionLogProbability(dist));
+        List<CandidatePoint> candidates = timeStep.getCandidates();
+        for (int j = 0; j < candidates.size(); j++) {
+            final double dist = candidates.get(j).getErrorDistanceInMeter();
+            timeStep.addEmissionLogProbability(j, probability.emissionLogProbability(dist));
         }
     }
 
@@ -183,12 +405,14 @@ public class TiHmmMapMatcher {
      */
     protected void computeTransitionProbabilities(TimeStep prevTimeStep, TimeStep timeStep, HmmProbabilities probabilities) {
         final double linearDist = GeoFunction.getDistanceInM(prevTimeStep.getObservation(), timeStep.getObservation());
-        for (CandidatePoint preCandiPt : prevTimeStep.getCandidates()) {
-            for (CandidatePoint curCandiPt : timeStep.getCandidates()) {
+        final List<CandidatePoint> prevCandidates = prevTimeStep.getCandidates();
+        final List<CandidatePoint> curCandidates = timeStep.getCandidates();
+        for (int i = 0; i < prevCandidates.size(); i++) {
+            for (int j = 0; j < curCandidates.size(); j++) {
                 final Tuple2<Double, List<RoadSegment>> tuple2
-                        = pathAlgo.findShortestPathByCandidatePoint(preCandiPt, curCandiPt, roadNetwork);
+                        = pathAlgo.findShortestPathByCandidatePoint(prevCandidates.get(i), curCandidates.get(j), roadNetwork);
                 if (tuple2._1 != Double.MAX_VALUE) {
-                    timeStep.addTransitionLogProbability(preCandiPt, curCandiPt, probabilities.transitionLogProbability(tuple2._1, linearDist));
+                    timeStep.addTransitionLogProbability(i, j, probabilities.transitionLogProbability(tuple2._1, linearDist), tuple2._2);
                 }
             }
         }
@@ -0,0 +1,143 @@
+package mapmatch.tihmm;
+
+import org.apache.spark.model.st.STPoint;
+import point.MapMatchedPoint;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 单个车辆的流式匹配session，观测点按时间顺序逐个推入。
+ * 所有路径收敛后立即输出已确定的匹配点，最多有maxLag 个观测点在等待，超出时按当前最优路径强制输出，
+ * 因此保存的状态和输出延迟都与轨迹长度无关
+ *
+ * @date 2021/07/20
+ */
+public class TiHmmMatchSession {
+
+    private final String vehicleId;
+
+    /**
+     * 提供当前线程使用的matcher
+     */
+    private final Supplier<TiHmmMapMatcher> matcherSupplier;
+
+    private final int maxLag;
+
+    private final MatchSessionListener listener;
+
+    private final SessionRouteRecovery routeRecovery;
+
+    private TiViterbi viterbi = new TiViterbi();
+
+    private TimeStep preTimeStep;
+
+    /**
+     * 最后一个观测点的时间，早于它的观测点被丢弃
+     */
+    private long lastPointTime = Long.MIN_VALUE;
+
+    /**
+     * 最后一次推入观测点的系统时间
+     */
+    private volatile long lastActiveTime = System.currentTimeMillis();
+
+    private boolean closed = false;
+
+    /**
+     * @param vehicleId       车辆id
+     * @param matcherSupplier 提供当前线程使用的matcher
+     * @param maxLag          最多有多少个观测点在等待确定，0 表示每个点立即输出
+     * @param listener        接收匹配结果
+     */
+    public TiHmmMatchSession(String vehicleId, Supplier<TiHmmMapMatcher> matcherSupplier, int maxLag, MatchSessionListener listener) {
+        if (maxLag < 0) {
+            throw new IllegalArgumentException("max lag must not be negative");
+        }
+        this.vehicleId = vehicleId;
+        this.matcherSupplier = matcherSupplier;
+        this.maxLag = maxLag;
+        this.listener = listener;
+        this.routeRecovery = new SessionRouteRecovery(vehicleId, listener);
+    }
+
+    /**
+     * 推入一个观测点
+     *
+     * @param pt 观测点
+     * @return session 已经关闭时返回false
+     */
+    public synchronized boolean push(STPoint pt) {
+        if (closed) {
+            return false;
+        }
+        lastActiveTime = System.currentTimeMillis();
+        long pointTime = pt.getTime().getTime();
+        if (pointTime < lastPointTime) {
+            return true;
+        }
+        lastPointTime = pointTime;
+        TiHmmMapMatcher matcher = matcherSupplier.get();
+        TimeStep timeStep = matcher.computeTimeStep(preTimeStep, pt);
+        if (timeStep == null) {
+            emit(viterbi.computeMostLikelySequence(), matcher);
+            emit(new SequenceState(null, pt), matcher);
+            viterbi = new TiViterbi();
+            preTimeStep = null;
+            return true;
+        }
+        if (preTimeStep == null) {
+            viterbi.startWithInitialObservation(timeStep.getObservation(), timeStep.getCandidates(), timeStep.getEmissionLogProbabilities());
+        } else {
+            viterbi.nextStep(timeStep.getObservation(), timeStep.getCandidates(), timeStep.getEmissionLogProbabilities(), timeStep.getTransitionLogProbabilities(), timeStep.getTransitionPaths());
+        }
+        if (viterbi.isBroken) {
+            emit(viterbi.computeMostLikelySequence(), matcher);
+            viterbi = new TiViterbi();
+            viterbi.startWithInitialObservation(timeStep.getObservation(), timeStep.getCandidates(), timeStep.getEmissionLogProbabilities());
+        }
+        emit(viterbi.retrieveConvergedSequence(), matcher);
+        emit(viterbi.retrieveLaggedSequence(maxLag), matcher);
+        preTimeStep = timeStep;
+        return true;
+    }
+
+    /**
+     * 输出所有等待中的观测点和最后一个路段并关闭session
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        TiHmmMapMatcher matcher = matcherSupplier.get();
+        emit(viterbi.computeMostLikelySequence(), matcher);
+        routeRecovery.finish(matcher);
+        viterbi = null;
+        preTimeStep = null;
+    }
+
+    private void emit(List<SequenceState> seq, TiHmmMapMatcher matcher) {
+        for (SequenceState ss : seq) {
+            emit(ss, matcher);
+        }
+    }
+
+    private void emit(SequenceState ss, TiHmmMapMatcher matcher) {
+        MapMatchedPoint mmPt = new MapMatchedPoint(ss.getObservation(), ss.getState());
+        listener.onMatchedPoint(vehicleId, mmPt);
+        routeRecovery.addPoint(mmPt, ss.getTransitionPath(), matcher);
+    }
+
+    public String getVehicleId() {
+        return vehicleId;
+    }
+
+    long getLastActiveTime() {
+        return lastActiveTime;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+}
@@ -9,6 +9,7 @@ import point.CandidatePoint;
 import point.GeoFunction;
 import scala.Tuple2;
 
+import java.util.List;
 import java.util.Map;
 
 public class TiHmmMultipleMatcher extends TiHmmMapMatcher {
@@ -26,24 +27,25 @@ public class TiHmmMultipleMatcher extends TiHmmMapMatcher {
     @Override
     protected void computeTransitionProbabilities(TimeStep prevTimeStep, TimeStep timeStep, HmmProbabilities probabilities) {
         final double linearDist = GeoFunction.getDistanceInM(prevTimeStep.getObservation(), timeStep.getObservation());
-        final Map<Tuple2<RoadNode, RoadNode>, Double> path = ((AbstractMultipleShortestPathAlgo) pathAlgo).findAllPath(prevTimeStep.getCandidates(), timeStep.getCandidates(), roadNetwork);
+        final Map<Tuple2<RoadNode, RoadNode>, Tuple2<Double, List<RoadSegment>>> routes = ((AbstractMultipleShortestPathAlgo) pathAlgo).findAllRoute(
+                prevTimeStep.getCandidates(), timeStep.getCandidates(), roadNetwork, probabilities.maxRouteLength(linearDist));
 
-        for (CandidatePoint preCandiPt : prevTimeStep.getCandidates()) {
-            for (CandidatePoint curCandiPt : timeStep.getCandidates()) {
-                RoadSegment preRs = roadNetwork.getRoadSegment(preCandiPt.getRoadSegmentID());
-                RoadNode preV = preRs.getEndNode();
+        final List<CandidatePoint> prevCandidates = prevTimeStep.getCandidates();
+        final List<CandidatePoint> curCandidates = timeStep.getCandidates();
+        for (int i = 0; i < prevCandidates.size(); i++) {
+            final CandidatePoint preCandiPt = prevCandidates.get(i);
+            final RoadSegment preRs = roadNetwork.getRoadSegment(preCandiPt.getRoadSegmentID());
+            final RoadNode preV = preRs.getEndNode();
+            for (int j = 0; j < curCandidates.size(); j++) {
+                final CandidatePoint curCandiPt = curCandidates.get(j);
                 RoadNode curU = roadNetwork.getRoadSegment(curCandiPt.getRoadSegmentID()).getStartNode();
-                double dist;
-                try {
-                    dist = path.getOrDefault(new Tuple2<>(preV, curU), Double.POSITIVE_INFINITY);
-                } catch (Exception e) {
-                    dist = Double.POSITIVE_INFINITY;
-                }
+                final Tuple2<Double, List<RoadSegment>> route = routes.get(new Tuple2<>(preV, curU));
+                final double dist = route == null ? Double.POSITIVE_INFINITY : route._1;
                 if (dist != Double.POSITIVE_INFINITY) {
                     double distToSrc = preRs.getLength() - preCandiPt.getOffset();
                     double distToEnd = curCandiPt.getOffset();
-                    timeStep.addTransitionLogProbability(preCandiPt, curCandiPt,
-                            probabilities.transitionLogProbability(dist + distToSrc + distToEnd, linearDist));
+                    timeStep.addTransitionLogProbability(i, j,
+                            probabilities.transitionLogProbability(dist + distToSrc + distToEnd, linearDist), route._2);
                 }
             }
         }
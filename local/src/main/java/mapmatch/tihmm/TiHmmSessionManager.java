@@ -0,0 +1,132 @@
+package mapmatch.tihmm;
+
+import org.apache.spark.model.st.STPoint;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 管理大量车辆的流式匹配session，可以从多个线程同时推入观测点。
+ * matcher 不是线程安全的，每个线程使用matcherFactory 建立的独立matcher。
+ * 空闲超过idleTimeout 的session 在evictIdleSessions 时关闭，session 数超过上限时关闭最久没有更新的session
+ *
+ * @date 2021/07/20
+ */
+public class TiHmmSessionManager {
+
+    private final Map<String, TiHmmMatchSession> sessions = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<TiHmmMapMatcher> matchers;
+
+    private final MatchSessionListener listener;
+
+    private final int maxLag;
+
+    private final long idleTimeoutMs;
+
+    private final int maxSessionNum;
+
+    /**
+     * @param matcherFactory 建立matcher，每个线程调用一次
+     * @param listener       接收所有session 的匹配结果，需要是线程安全的
+     * @param maxLag         每个session 最多有多少个观测点在等待确定
+     * @param idleTimeoutMs  session 空闲多久后被关闭
+     * @param maxSessionNum  最多同时保存的session 数
+     */
+    public TiHmmSessionManager(Supplier<TiHmmMapMatcher> matcherFactory, MatchSessionListener listener,
+                               int maxLag, long idleTimeoutMs, int maxSessionNum) {
+        if (maxSessionNum <= 0) {
+            throw new IllegalArgumentException("max session number must be positive");
+        }
+        this.matchers = ThreadLocal.withInitial(matcherFactory);
+        this.listener = listener;
+        this.maxLag = maxLag;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.maxSessionNum = maxSessionNum;
+    }
+
+    /**
+     * 推入车辆的一个观测点，车辆没有打开的session 时新建一个
+     *
+     * @param vehicleId 车辆id
+     * @param pt        观测点
+     */
+    public void push(String vehicleId, STPoint pt) {
+        while (true) {
+            TiHmmMatchSession session = sessions.get(vehicleId);
+            if (session == null) {
+                TiHmmMatchSession newSession = new TiHmmMatchSession(vehicleId, matchers::get, maxLag, listener);
+                session = sessions.putIfAbsent(vehicleId, newSession);
+                if (session == null) {
+                    session = newSession;
+                    if (sessions.size() > maxSessionNum) {
+                        evictLeastRecentlyActive(vehicleId);
+                    }
+                }
+            }
+            if (session.push(pt)) {
+                return;
+            }
+            // session 在推入前被其他线程关闭了
+            sessions.remove(vehicleId, session);
+        }
+    }
+
+    /**
+     * 关闭车辆的session，输出所有等待中的结果
+     *
+     * @param vehicleId 车辆id
+     */
+    public void close(String vehicleId) {
+        TiHmmMatchSession session = sessions.remove(vehicleId);
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    /**
+     * 关闭所有空闲超过idleTimeout 的session，需要定期调用
+     *
+     * @return 关闭的session 数
+     */
+    public int evictIdleSessions() {
+        long deadline = System.currentTimeMillis() - idleTimeoutMs;
+        int evictedNum = 0;
+        for (TiHmmMatchSession session : sessions.values()) {
+            if (session.getLastActiveTime() < deadline && sessions.remove(session.getVehicleId(), session)) {
+                session.close();
+                evictedNum++;
+            }
+        }
+        return evictedNum;
+    }
+
+    /**
+     * 关闭所有session
+     */
+    public void closeAll() {
+        for (TiHmmMatchSession session : sessions.values()) {
+            if (sessions.remove(session.getVehicleId(), session)) {
+                session.close();
+            }
+        }
+    }
+
+    public int getSessionNum() {
+        return sessions.size();
+    }
+
+    private void evictLeastRecentlyActive(String excludedVehicleId) {
+        TiHmmMatchSession oldest = null;
+        for (TiHmmMatchSession session : sessions.values()) {
+            if (!session.getVehicleId().equals(excludedVehicleId)
+                    && (oldest == null || session.getLastActiveTime() < oldest.getLastActiveTime())) {
+                oldest = session;
+            }
+        }
+        if (oldest != null && sessions.remove(oldest.getVehicleId(), oldest)) {
+            oldest.close();
+        }
+    }
+}
@@ -2,30 +2,44 @@ package mapmatch.tihmm;
 
 
 import org.apache.spark.model.st.STPoint;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
 import point.CandidatePoint;
-import scala.Tuple2;
 
 import java.util.*;
 
 /**
  * Tihmm 核心算法class
+ * candidate point 以其在当前time step 中的位置为索引，概率与反向指针都保存在数组中
  *
  * @author : Haowen Zhu
  * @date : 2019/09/027
  */
 public class TiViterbi {
     /**
-     * 上一个状态下每一个candidate point 对应的extended state
+     * 每一步的原始轨迹点
      */
-    private Map<CandidatePoint, ExtendedState> lastExtendedStates;
+    private final List<STPoint> observations = new ArrayList<>();
     /**
-     * 上一个状态下原始轨迹点对应的所有candidate point
+     * 每一步原始轨迹点对应的所有candidate point
      */
-    private List<CandidatePoint> prevCandidates;
+    private final List<List<CandidatePoint>> candidatesOfSteps = new ArrayList<>();
     /**
-     * 每个candidate point 对应的p
+     * 每一步的反向指针，backPointers.get(t)[j] 为第t步第j个candidate 在第t-1步中的最优前驱位置，-1表示没有前驱
      */
-    public Map<CandidatePoint, Double> message;
+    private final List<int[]> backPointers = new ArrayList<>();
+    /**
+     * 每一步的最优前驱到每个candidate 的路径，与backPointers 对应，没有路径信息时为null
+     */
+    private final List<List<RoadSegment>[]> transitionPathsOfSteps = new ArrayList<>();
+    /**
+     * 当前状态下每个candidate point 对应的p，message[j] 对应最后一步的第j个candidate
+     */
+    private double[] message;
+    /**
+     * 收敛检测时标记存活candidate 的辅助数组
+     */
+    private int[] stateMarks = new int[0];
+    private int markStamp = 0;
     /**
      * 是否停止初始化状态概率函数
      */
@@ -39,132 +53,243 @@ public class TiViterbi {
      * @param candidates              原始轨迹点对应的candidates
      * @param initialLogProbabilities 初始状态概率
      */
-    private void initializeStateProbabilities(STPoint observation, List<CandidatePoint> candidates, Map<CandidatePoint, Double> initialLogProbabilities) {
+    private void initializeStateProbabilities(STPoint observation, List<CandidatePoint> candidates, double[] initialLogProbabilities) {
         if (message != null) {
             throw new IllegalArgumentException("Initial probabilities have already been set.");
         }
-        Map<CandidatePoint, Double> initialMessage = new HashMap<>(initialLogProbabilities.size());
-        for (CandidatePoint candidate : candidates) {
-            if (!initialLogProbabilities.containsKey(candidate)) {
-                throw new IllegalArgumentException("No initial probability for " + candidate);
-            }
-            double logProbability = initialLogProbabilities.get(candidate);
-            initialMessage.put(candidate, logProbability);
+        if (initialLogProbabilities.length != candidates.size()) {
+            throw new IllegalArgumentException("Initial probabilities do not match the candidates.");
         }
-        isBroken = hmmBreak(initialMessage);
+        isBroken = hmmBreak(initialLogProbabilities);
         if (isBroken) {
             return;
         }
-        message = initialMessage;
-        lastExtendedStates = new HashMap<>(candidates.size());
-        prevCandidates = new ArrayList<>(candidates.size());
-        for (CandidatePoint candidate : candidates) {
-            lastExtendedStates.put(candidate, new ExtendedState(candidate, null, observation));
-            prevCandidates.add(candidate);
-        }
+        message = initialLogProbabilities.clone();
+        addStep(observation, candidates, null, null);
     }
 
     /**
-     * 如果初始化的概率有接近武无穷小的，停止初始化
+     * 如果概率全部为负无穷，停止计算
      *
      * @param message 状态概率
      * @return
      */
-    private Boolean hmmBreak(Map<CandidatePoint, Double> message) {
-        for (Double logProbability : message.values()) {
-            if (!logProbability.equals(Double.NEGATIVE_INFINITY)) {
+    private Boolean hmmBreak(double[] message) {
+        for (double logProbability : message) {
+            if (logProbability != Double.NEGATIVE_INFINITY) {
                 return false;
             }
         }
         return true;
     }
 
+    private void addStep(STPoint observation, List<CandidatePoint> candidates, int[] backPointer, List<RoadSegment>[] winningPaths) {
+        observations.add(observation);
+        candidatesOfSteps.add(candidates);
+        // 之前的步骤已全部输出时，当前步骤成为新的起点
+        backPointers.add(observations.size() == 1 ? null : backPointer);
+        transitionPathsOfSteps.add(winningPaths);
+    }
+
+    /**
+     * 第t 步第state 个candidate 对应的sequence state
+     */
+    private SequenceState toSequenceState(int t, int state) {
+        List<RoadSegment>[] winningPaths = transitionPathsOfSteps.get(t);
+        return new SequenceState(candidatesOfSteps.get(t).get(state), observations.get(t),
+                winningPaths == null ? null : winningPaths[state]);
+    }
+
+    /**
+     * 丢弃前stepNum 步，剩余的第一步成为新的起点
+     */
+    private void removeSteps(int stepNum) {
+        observations.subList(0, stepNum).clear();
+        candidatesOfSteps.subList(0, stepNum).clear();
+        backPointers.subList(0, stepNum).clear();
+        transitionPathsOfSteps.subList(0, stepNum).clear();
+        if (!backPointers.isEmpty()) {
+            backPointers.set(0, null);
+        }
+    }
+
     /**
      * 开始viterbi计算，向前extend
      *
-     * @param observation                原始轨迹点
-     * @param prevCandidates             之前的candidates
-     * @param curCandidates              当前的candidates
-     * @param message                    状态概率
+     * @param prevMessage                之前candidates的状态概率
+     * @param curCandidateNum            当前的candidate数量
      * @param emissionLogProbabilities   emission p
-     * @param transitionLogProbabilities transition p
-     * @return 向前extend后的结果
-     */
-    private ForwardStepResult forwardStep(STPoint observation, List<CandidatePoint> prevCandidates, List<CandidatePoint> curCandidates, Map<CandidatePoint, Double> message,
-                                          Map<CandidatePoint, Double> emissionLogProbabilities, Map<Tuple2<CandidatePoint, CandidatePoint>, Double> transitionLogProbabilities) {
-        final ForwardStepResult result = new ForwardStepResult(curCandidates.size());
-        assert prevCandidates.size() != 0;
-        for (CandidatePoint curState : curCandidates) {
-            double maxLogProbability = Double.NEGATIVE_INFINITY;
-            CandidatePoint maxPreState = null;
-            for (CandidatePoint preState : prevCandidates) {
-                final double logProbability = message.get(preState) + transitionLogProbability(preState, curState, transitionLogProbabilities);
-                if (logProbability > maxLogProbability) {
-                    maxLogProbability = logProbability;
-                    maxPreState = preState;
+     * @param transitionLogProbabilities 行优先的transition p 矩阵
+     * @param newMessage                 输出，当前candidates的状态概率
+     * @param backPointer                输出，当前candidates的最优前驱位置
+     */
+    private void forwardStep(double[] prevMessage, int curCandidateNum, double[] emissionLogProbabilities,
+                             double[] transitionLogProbabilities, double[] newMessage, int[] backPointer) {
+        assert prevMessage.length != 0;
+        Arrays.fill(newMessage, Double.NEGATIVE_INFINITY);
+        Arrays.fill(backPointer, -1);
+        // 按行遍历转移矩阵，相同概率时保留位置靠前的前驱
+        for (int i = 0; i < prevMessage.length; i++) {
+            final double prevLogProbability = prevMessage[i];
+            if (prevLogProbability == Double.NEGATIVE_INFINITY) {
+                continue;
+            }
+            final int row = i * curCandidateNum;
+            for (int j = 0; j < curCandidateNum; j++) {
+                final double logProbability = prevLogProbability + transitionLogProbabilities[row + j];
+                if (logProbability > newMessage[j]) {
+                    newMessage[j] = logProbability;
+                    backPointer[j] = i;
                 }
             }
-            result.getNewMessage().put(curState, (maxLogProbability + emissionLogProbabilities.get(curState)));
-            // Note that max_prev_state == None if there is no transition with non-zero probability.
-            // In this case cur_state has zero probability and will not be part of the most likely sequence,
-            // so we don't need an ExtendedState.
-            if (maxPreState != null) {
-                final ExtendedState extendedState = new ExtendedState(curState, lastExtendedStates.get(maxPreState), observation);
-                result.getNewExtendedStates().put(curState, extendedState);
+        }
+        // 没有非零概率转移的candidate 概率为0，不会出现在最优序列中
+        for (int j = 0; j < curCandidateNum; j++) {
+            newMessage[j] += emissionLogProbabilities[j];
+        }
+    }
+
+    /**
+     * 计算当前状态下概率最大对应的state
+     *
+     * @return candidate point 在最后一步中的位置
+     */
+    private int mostLikelyState() {
+        assert message.length != 0;
+        int result = -1;
+        double maxLogProbability = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < message.length; j++) {
+            if (message[j] > maxLogProbability) {
+                result = j;
+                maxLogProbability = message[j];
             }
         }
+        assert result != -1;
         return result;
     }
 
     /**
-     * 给定transition 计算对应概率
+     * 取回概率最大的一系列转移过程
      *
-     * @param preState                   之前的state
-     * @param curState                   现在的state
-     * @param transitionLogProbabilities 转移概率的map
-     * @return 概率p
-     */
-    private double transitionLogProbability(CandidatePoint preState, CandidatePoint curState, Map<Tuple2<CandidatePoint, CandidatePoint>, Double> transitionLogProbabilities) {
-        Tuple2<CandidatePoint, CandidatePoint> transition = new Tuple2<>(preState, curState);
-        return transitionLogProbabilities.getOrDefault(transition, Double.NEGATIVE_INFINITY);
+     * @return list，包含每一步转移对应的状态
+     */
+    private List<SequenceState> retrieveMostLikelySequence() {
+        assert message.length != 0;
+        int stepNum = observations.size();
+        SequenceState[] result = new SequenceState[stepNum];
+        int state = mostLikelyState();
+        for (int t = stepNum - 1; t >= 0 && state != -1; t--) {
+            result[t] = toSequenceState(t, state);
+            int[] backPointer = backPointers.get(t);
+            state = backPointer == null ? -1 : backPointer[state];
+        }
+        return new ArrayList<>(Arrays.asList(result));
     }
 
     /**
-     * 计算当前状态下概率最大对应的state
+     * 从最后一步的所有存活状态出发反向追溯，找到所有路径的公共祖先(收敛点)
      *
-     * @return candidate point
-     */
-    private CandidatePoint mostLikelyState() {
-        assert message.size() != 0;
-        CandidatePoint result = null;
-        Double maxLogProbability = Double.NEGATIVE_INFINITY;
-        for (Map.Entry<CandidatePoint, Double> entry : message.entrySet()) {
-            if (entry.getValue() > maxLogProbability) {
-                result = entry.getKey();
-                maxLogProbability = entry.getValue();
+     * @return {收敛点所在步骤, 收敛点在该步骤中的位置}，不存在时返回null
+     */
+    private int[] findConvergencePoint() {
+        int[] alive = new int[message.length];
+        int aliveNum = 0;
+        for (int j = 0; j < message.length; j++) {
+            if (message[j] != Double.NEGATIVE_INFINITY) {
+                alive[aliveNum++] = j;
             }
         }
-        assert result != null;
-        return result;
+        int t = observations.size() - 1;
+        while (aliveNum > 1 && t > 0) {
+            int[] backPointer = backPointers.get(t);
+            int prevCandidateNum = candidatesOfSteps.get(t - 1).size();
+            if (stateMarks.length < prevCandidateNum) {
+                stateMarks = new int[Math.max(prevCandidateNum, stateMarks.length * 2)];
+                markStamp = 0;
+            }
+            markStamp++;
+            int prevAliveNum = 0;
+            for (int k = 0; k < aliveNum; k++) {
+                int prevState = backPointer[alive[k]];
+                if (stateMarks[prevState] != markStamp) {
+                    stateMarks[prevState] = markStamp;
+                    alive[prevAliveNum++] = prevState;
+                }
+            }
+            aliveNum = prevAliveNum;
+            t--;
+        }
+        return aliveNum == 1 ? new int[]{t, alive[0]} : null;
     }
 
     /**
-     * 取回概率最大的一系列转移过程
+     * online viterbi：所有存活路径在收敛点之前的部分已经确定，不会再随后续观测改变。
+     * 取出收敛点及之前的最优序列并丢弃对应步骤，保存的步骤数只取决于收敛窗口而与轨迹长度无关
      *
-     * @return list，包含每一步转移对应的状态
+     * @return 已确定的序列，没有新的收敛点时为空
      */
-    private List<SequenceState> retrieveMostLikelySequence() {
-        assert message.size() != 0;
-        CandidatePoint lastState = mostLikelyState();
-        List<SequenceState> result = new ArrayList<>();
-        ExtendedState es = lastExtendedStates.get(lastState);
-        while (es != null) {
-            SequenceState ss = new SequenceState(es.getState(), es.getObservation());
-            result.add(ss);
-            es = es.getBackPointer();
-        }
-        Collections.reverse(result);
-        return result;
+    List<SequenceState> retrieveConvergedSequence() {
+        if (message == null || observations.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int[] convergencePoint = findConvergencePoint();
+        if (convergencePoint == null) {
+            return new ArrayList<>();
+        }
+        int convergedStepNum = convergencePoint[0] + 1;
+        SequenceState[] result = new SequenceState[convergedStepNum];
+        int state = convergencePoint[1];
+        for (int t = convergedStepNum - 1; t >= 0; t--) {
+            result[t] = toSequenceState(t, state);
+            int[] backPointer = backPointers.get(t);
+            state = backPointer == null ? -1 : backPointer[state];
+        }
+        removeSteps(convergedStepNum);
+        return new ArrayList<>(Arrays.asList(result));
+    }
+
+    /**
+     * 保存的步骤超过maxLag 时，按当前概率最大的路径强制输出最早的步骤，只保留最近的maxLag 步。
+     * 之后的计算只在与已输出状态相连的路径中进行，保证输出的序列是连贯的
+     *
+     * @param maxLag 最多保留的步骤数
+     * @return 强制输出的序列，没有超出时为空
+     */
+    List<SequenceState> retrieveLaggedSequence(int maxLag) {
+        int stepNum = observations.size();
+        if (message == null || stepNum <= maxLag) {
+            return new ArrayList<>();
+        }
+        int settledStepNum = stepNum - maxLag;
+        int[] pathStates = new int[stepNum];
+        int state = mostLikelyState();
+        for (int t = stepNum - 1; t >= 0; t--) {
+            pathStates[t] = state;
+            int[] backPointer = backPointers.get(t);
+            state = backPointer == null ? -1 : backPointer[state];
+        }
+        SequenceState[] result = new SequenceState[settledStepNum];
+        for (int t = 0; t < settledStepNum; t++) {
+            result[t] = toSequenceState(t, pathStates[t]);
+        }
+        // 只保留最后一个输出状态的后代
+        boolean[] alive = new boolean[candidatesOfSteps.get(settledStepNum - 1).size()];
+        alive[pathStates[settledStepNum - 1]] = true;
+        for (int t = settledStepNum; t < stepNum; t++) {
+            int[] backPointer = backPointers.get(t);
+            boolean[] nextAlive = new boolean[backPointer.length];
+            for (int j = 0; j < backPointer.length; j++) {
+                nextAlive[j] = backPointer[j] != -1 && alive[backPointer[j]];
+            }
+            alive = nextAlive;
+        }
+        for (int j = 0; j < message.length; j++) {
+            if (!alive[j]) {
+                message[j] = Double.NEGATIVE_INFINITY;
+            }
+        }
+        removeSteps(settledStepNum);
+        return new ArrayList<>(Arrays.asList(result));
     }
 
     /**
@@ -174,7 +299,7 @@ public class TiViterbi {
      * @param candidates               对应的candidates
      * @param emissionLogProbabilities 每一个candidate对应的 emission p
      */
-    void startWithInitialObservation(STPoint observation, List<CandidatePoint> candidates, Map<CandidatePoint, Double> emissionLogProbabilities) {
+    void startWithInitialObservation(STPoint observation, List<CandidatePoint> candidates, double[] emissionLogProbabilities) {
         initializeStateProbabilities(observation, candidates, emissionLogProbabilities);
     }
 
@@ -184,31 +309,59 @@ public class TiViterbi {
      * @param observation                原始轨迹点
      * @param candidates                 对应的candidates
      * @param emissionLogProbabilities   每一个candidate对应的 emission p
-     * @param transitionLogProbabilities 每一个transition对应的 transition p
+     * @param transitionLogProbabilities 行优先的transition p 矩阵，大小为 上一步candidate数 * 当前candidate数
      */
-    public void nextStep(STPoint observation, List<CandidatePoint> candidates, Map<CandidatePoint, Double> emissionLogProbabilities,
-                         Map<Tuple2<CandidatePoint, CandidatePoint>, Double> transitionLogProbabilities) {
+    public void nextStep(STPoint observation, List<CandidatePoint> candidates, double[] emissionLogProbabilities,
+                         double[] transitionLogProbabilities) {
+        nextStep(observation, candidates, emissionLogProbabilities, transitionLogProbabilities, null);
+    }
+
+    /**
+     * 向下一步viterbi计算，同时保存每个candidate 的最优前驱到它的路径
+     *
+     * @param observation                原始轨迹点
+     * @param candidates                 对应的candidates
+     * @param emissionLogProbabilities   每一个candidate对应的 emission p
+     * @param transitionLogProbabilities 行优先的transition p 矩阵，大小为 上一步candidate数 * 当前candidate数
+     * @param transitionPaths            与transitionLogProbabilities 相同索引的路径，可为null
+     */
+    @SuppressWarnings("unchecked")
+    public void nextStep(STPoint observation, List<CandidatePoint> candidates, double[] emissionLogProbabilities,
+                         double[] transitionLogProbabilities, List<RoadSegment>[] transitionPaths) {
         if (message == null) {
             throw new IllegalStateException("start with initial observation() must be called first.");
         }
         if (isBroken) {
             throw new IllegalStateException("Method must not be called after an HMM break.");
         }
-        ForwardStepResult forwardStepResult = forwardStep(observation, prevCandidates, candidates, message,
-                emissionLogProbabilities, transitionLogProbabilities);
-        isBroken = hmmBreak(forwardStepResult.getNewMessage());
+        final int curCandidateNum = candidates.size();
+        if (transitionLogProbabilities.length != message.length * curCandidateNum) {
+            throw new IllegalArgumentException("Transition probabilities do not match the candidates.");
+        }
+        double[] newMessage = new double[curCandidateNum];
+        int[] backPointer = new int[curCandidateNum];
+        forwardStep(message, curCandidateNum, emissionLogProbabilities, transitionLogProbabilities, newMessage, backPointer);
+        isBroken = hmmBreak(newMessage);
         if (isBroken) {
             return;
         }
-        message = forwardStepResult.getNewMessage();
-        lastExtendedStates = forwardStepResult.getNewExtendedStates();
-        prevCandidates = new ArrayList<>(candidates);
+        List<RoadSegment>[] winningPaths = null;
+        if (transitionPaths != null) {
+            winningPaths = new List[curCandidateNum];
+            for (int j = 0; j < curCandidateNum; j++) {
+                if (backPointer[j] != -1) {
+                    winningPaths[j] = transitionPaths[backPointer[j] * curCandidateNum + j];
+                }
+            }
+        }
+        message = newMessage;
+        addStep(observation, candidates, backPointer, winningPaths);
     }
 
     /**
-     * 辅助函数，下概率最大对应的每一步的extended state 组成的list
+     * 辅助函数，下概率最大对应的每一步的状态组成的list
      *
-     * @return list 包含每一步对应的extended state
+     * @return list 包含每一步对应的sequence state
      */
     List<SequenceState> computeMostLikelySequence() {
         if (message == null) {
@@ -2,15 +2,15 @@ package mapmatch.tihmm;
 
 
 import org.apache.spark.model.st.STPoint;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
 import point.CandidatePoint;
-import scala.Tuple2;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * 辅助class，保存状态信息
+ * candidate point 以其在candidates中的位置为索引
  *
  * @author : Haowen Zhu
  * @date : 2019/09/027
@@ -25,50 +25,100 @@ public class TimeStep {
      */
     private final List<CandidatePoint> candidates;
     /**
-     * 每一个candidate point对应的emission概率
+     * candidates 由该点的空间查询得到，静止的点沿用上一步的candidate 路段时为之前的点
      */
-    private final Map<CandidatePoint, Double> emissionLogProbabilities = new HashMap<>();
+    private final STPoint queryObservation;
     /**
-     * <candidatePt,candidatePt>为索引 (transition) Tuple2<fromCandidatePoint, toCandidatePoint>
+     * 每一个candidate point对应的emission概率，emissionLogProbabilities[j] 对应 candidates.get(j)
      */
-    private final Map<Tuple2<CandidatePoint,CandidatePoint>, Double> transitionLogProbabilities = new HashMap<>();
+    private final double[] emissionLogProbabilities;
+    /**
+     * 上一个time step 的candidate数量
+     */
+    private int prevCandidateNum;
+    /**
+     * 行优先的转移概率矩阵，transitionLogProbabilities[i * candidates.size() + j] 为
+     * 上一个time step 的第i个candidate到当前第j个candidate的transition概率，不可达为负无穷
+     */
+    private double[] transitionLogProbabilities;
+    /**
+     * 与transitionLogProbabilities 相同索引的路径，没有路径时为null，供route recovery 复用
+     */
+    private List<RoadSegment>[] transitionPaths;
 
     /**
      * @param observation point
      * @param candidates  candidate point
      */
     TimeStep(STPoint observation, List<CandidatePoint> candidates) {
-        if (observation == null || candidates == null) {
+        this(observation, candidates, observation);
+    }
+
+    /**
+     * @param observation      point
+     * @param candidates       candidate point
+     * @param queryObservation 空间查询得到candidate 路段的点
+     */
+    TimeStep(STPoint observation, List<CandidatePoint> candidates, STPoint queryObservation) {
+        if (observation == null || candidates == null || queryObservation == null) {
             throw new NullPointerException("Observation and candidates must not be null.");
         }
         this.observation = observation;
         this.candidates = candidates;
+        this.queryObservation = queryObservation;
+        this.emissionLogProbabilities = new double[candidates.size()];
     }
 
     /**
      * 添加 emission 概率
-     * @param candidate candidate point
+     * @param candidateIdx candidate point 在candidates中的位置
      * @param emissionLogProbability 对应的emission概率
      */
-    void addEmissionLogProbability(CandidatePoint candidate, Double emissionLogProbability) {
-        if (emissionLogProbabilities.containsKey(candidate)) {
-            throw new IllegalArgumentException("Candidate has already been added.");
-        }
-        emissionLogProbabilities.put(candidate, emissionLogProbability);
+    void addEmissionLogProbability(int candidateIdx, double emissionLogProbability) {
+        emissionLogProbabilities[candidateIdx] = emissionLogProbability;
+    }
+
+    /**
+     * 分配转移概率矩阵，所有transition初始为不可达
+     * @param prevCandidateNum 上一个time step 的candidate数量
+     */
+    void initTransitionLogProbabilities(int prevCandidateNum) {
+        this.prevCandidateNum = prevCandidateNum;
+        this.transitionLogProbabilities = new double[prevCandidateNum * candidates.size()];
+        Arrays.fill(transitionLogProbabilities, Double.NEGATIVE_INFINITY);
     }
 
     /**
      * 添加transition概率
-     * @param fromPosition 之前的candidate point
-     * @param toPosition 当前的candidate point
+     * @param fromIdx 之前的candidate point 的位置
+     * @param toIdx 当前的candidate point 的位置
      * @param transitionLogProbability 给定的transition概率
      */
-    void addTransitionLogProbability(CandidatePoint fromPosition, CandidatePoint toPosition, Double transitionLogProbability) {
-        final Tuple2<CandidatePoint, CandidatePoint> transition = new Tuple2<>(fromPosition, toPosition);
-        if (transitionLogProbabilities.containsKey(transition)) {
+    void addTransitionLogProbability(int fromIdx, int toIdx, double transitionLogProbability) {
+        if (transitionLogProbabilities == null) {
+            throw new IllegalStateException("Transition probabilities have not been initialized.");
+        }
+        final int idx = fromIdx * candidates.size() + toIdx;
+        if (transitionLogProbabilities[idx] != Double.NEGATIVE_INFINITY) {
             throw new IllegalArgumentException("Transition has already been added.");
         }
-        transitionLogProbabilities.put(transition, transitionLogProbability);
+        transitionLogProbabilities[idx] = transitionLogProbability;
+    }
+
+    /**
+     * 添加transition概率以及对应的路径
+     * @param fromIdx 之前的candidate point 的位置
+     * @param toIdx 当前的candidate point 的位置
+     * @param transitionLogProbability 给定的transition概率
+     * @param path 之前candidate 所在路段终点到当前candidate 所在路段起点的路径
+     */
+    @SuppressWarnings("unchecked")
+    void addTransitionLogProbability(int fromIdx, int toIdx, double transitionLogProbability, List<RoadSegment> path) {
+        addTransitionLogProbability(fromIdx, toIdx, transitionLogProbability);
+        if (transitionPaths == null) {
+            transitionPaths = new List[transitionLogProbabilities.length];
+        }
+        transitionPaths[fromIdx * candidates.size() + toIdx] = path;
     }
 
 
@@ -76,15 +126,27 @@ public class TimeStep {
         return observation;
     }
 
+    STPoint getQueryObservation() {
+        return queryObservation;
+    }
+
     List<CandidatePoint> getCandidates() {
         return candidates;
     }
 
-    Map<CandidatePoint, Double> getEmissionLogProbabilities() {
+    double[] getEmissionLogProbabilities() {
         return emissionLogProbabilities;
     }
 
-    Map<Tuple2<CandidatePoint, CandidatePoint>, Double> getTransitionLogProbabilities() {
+    int getPrevCandidateNum() {
+        return prevCandidateNum;
+    }
+
+    double[] getTransitionLogProbabilities() {
         return transitionLogProbabilities;
     }
+
+    List<RoadSegment>[] getTransitionPaths() {
+        return transitionPaths;
+    }
 }
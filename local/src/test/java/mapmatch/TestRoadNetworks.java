@@ -0,0 +1,91 @@
+package mapmatch;
+
+import org.apache.spark.model.st.STPoint;
+import org.apache.spark.model.st.spatial.SpatialCoord;
+import org.apache.spark.model.st.spatial.SpatialCoordSequence;
+import org.apache.spark.model.st.spatial.graph.RoadNetwork;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 测试用的合成路网和轨迹
+ *
+ * @date 2021/07/31
+ */
+public class TestRoadNetworks {
+
+    /**
+     * n * n 的网格，相邻节点间约100m，每个方向的路段以1/4 的概率缺失，因此有单行路，路段中点有随机偏移
+     *
+     * @param n    每边的节点数
+     * @param seed 随机种子
+     */
+    public static RoadNetwork grid(int n, long seed) {
+        Random random = new Random(seed);
+        List<RoadSegment> segments = new ArrayList<>();
+        int id = 1;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                int[][] neighbours = {{i + 1, j}, {i, j + 1}, {i - 1, j}, {i, j - 1}};
+                for (int[] w : neighbours) {
+                    if (w[0] < 0 || w[1] < 0 || w[0] >= n || w[1] >= n || random.nextDouble() < 0.25) {
+                        continue;
+                    }
+                    SpatialCoord start = new SpatialCoord(116 + j * 0.001, 39 + i * 0.001);
+                    SpatialCoord middle = new SpatialCoord(116 + (j + w[1]) * 0.0005 + random.nextDouble() * 0.0003,
+                            39 + (i + w[0]) * 0.0005);
+                    SpatialCoord end = new SpatialCoord(116 + w[1] * 0.001, 39 + w[0] * 0.001);
+                    segments.add(new RoadSegment(id++, i * n + j, w[0] * n + w[1],
+                            new SpatialCoordSequence(new SpatialCoord[]{start, middle, end})));
+                }
+            }
+        }
+        return new RoadNetwork(segments.toArray(new RoadSegment[0]));
+    }
+
+    /**
+     * 沿路段随机行驶，每个路段上采样5 个点并加上约5m 的噪声，每个点间隔10s
+     */
+    public static List<STPoint> walk(RoadNetwork roadNetwork, int pointNum, Random random) {
+        List<RoadSegment> segments = new ArrayList<>(roadNetwork.getRoadGraph(true).edgeSet());
+        segments.sort(Comparator.comparingInt(RoadSegment::getRoadId));
+        Map<Integer, List<RoadSegment>> outgoing = new HashMap<>();
+        for (RoadSegment segment : segments) {
+            outgoing.computeIfAbsent(segment.getStartId(), k -> new ArrayList<>()).add(segment);
+        }
+        List<STPoint> ptList = new ArrayList<>(pointNum);
+        long time = 1500000000000L;
+        RoadSegment segment = segments.get(random.nextInt(segments.size()));
+        while (ptList.size() < pointNum) {
+            Coordinate start = segment.getCoordinateN(0);
+            Coordinate end = segment.getCoordinateN(segment.getNumPoints() - 1);
+            for (double f = 0.1; f < 1 && ptList.size() < pointNum; f += 0.2) {
+                double lon = start.x + (end.x - start.x) * f + random.nextGaussian() * 0.00005;
+                double lat = start.y + (end.y - start.y) * f + random.nextGaussian() * 0.00005;
+                ptList.add(new STPoint(lon, lat, new Timestamp(time)));
+                time += 10000;
+            }
+            // 不掉头，除非没有其他路段；没有出路时换到随机路段
+            List<RoadSegment> next = new ArrayList<>();
+            for (RoadSegment candidate : outgoing.getOrDefault(segment.getEndId(), Collections.emptyList())) {
+                if (candidate.getEndId() != segment.getStartId()) {
+                    next.add(candidate);
+                }
+            }
+            if (next.isEmpty()) {
+                next = outgoing.getOrDefault(segment.getEndId(), segments);
+            }
+            segment = next.get(random.nextInt(next.size()));
+        }
+        return ptList;
+    }
+}
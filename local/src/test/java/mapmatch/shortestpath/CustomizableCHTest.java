@@ -0,0 +1,105 @@
+package mapmatch.shortestpath;
+
+import mapmatch.TestRoadNetworks;
+import mapmatch.shortestpath.multiple.shortestpath.ManyToManyCH;
+import mapmatch.shortestpath.single.shortestpath.OneToOneCH;
+import mapmatch.shortestpath.single.shortestpath.OneToOneDijkstra;
+import org.apache.spark.model.st.spatial.graph.RoadGraph;
+import org.apache.spark.model.st.spatial.graph.RoadNetwork;
+import org.apache.spark.model.st.spatial.graph.RoadNode;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import org.junit.Test;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CustomizableCHTest {
+
+    private static final double EPS = 1e-6;
+
+    @Test
+    public void distancesMatchDijkstra() {
+        RoadNetwork roadNetwork = TestRoadNetworks.grid(12, 7).useCustomizableCH();
+        assertSameDistances(roadNetwork, new Random(11));
+    }
+
+    @Test
+    public void distancesMatchDijkstraAfterReweight() {
+        RoadNetwork roadNetwork = TestRoadNetworks.grid(12, 7).useCustomizableCH();
+        Random random = new Random(5);
+        for (int round = 0; round < 3; round++) {
+            roadNetwork.reweight(segment -> segment.getLengthInM() * (0.2 + random.nextDouble() * 5));
+            assertSameDistances(roadNetwork, random);
+        }
+        // back to lengths
+        roadNetwork.reweight(RoadSegment::getLengthInM);
+        assertSameDistances(roadNetwork, random);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void reweightNeedsCustomizableCH() {
+        TestRoadNetworks.grid(4, 7).reweight(RoadSegment::getLengthInM);
+    }
+
+    private static void assertSameDistances(RoadNetwork roadNetwork, Random random) {
+        RoadGraph graph = roadNetwork.getRoadGraph(true);
+        List<RoadNode> nodes = new ArrayList<>(graph.vertexSet());
+        OneToOneDijkstra dijkstra = new OneToOneDijkstra(graph);
+        OneToOneCH ch = new OneToOneCH(roadNetwork.getCHGraph());
+        for (int k = 0; k < 300; k++) {
+            RoadNode source = nodes.get(random.nextInt(nodes.size()));
+            RoadNode target = nodes.get(random.nextInt(nodes.size()));
+            Tuple2<Double, List<RoadSegment>> expected = dijkstra.findShortestPathGraph(source, target);
+            Tuple2<Double, List<RoadSegment>> actual = ch.findShortestPathGraph(source, target);
+            if (expected._2 == null) {
+                assertNull(actual._2);
+            } else {
+                assertEquals(weight(graph, expected._2), weight(graph, actual._2), EPS);
+                assertConnected(graph, source, target, actual._2);
+            }
+        }
+
+        Set<RoadNode> sources = new HashSet<>();
+        Set<RoadNode> targets = new HashSet<>();
+        for (int k = 0; k < 8; k++) {
+            sources.add(nodes.get(random.nextInt(nodes.size())));
+            targets.add(nodes.get(random.nextInt(nodes.size())));
+        }
+        Map<Tuple2<RoadNode, RoadNode>, Double> distances = new ManyToManyCH(roadNetwork.getCHGraph()).findAllPath(sources, targets);
+        for (RoadNode source : sources) {
+            for (RoadNode target : targets) {
+                List<RoadSegment> path = dijkstra.findShortestPathGraph(source, target)._2;
+                double expected = path == null ? Double.POSITIVE_INFINITY : weight(graph, path);
+                assertEquals(expected, distances.get(new Tuple2<>(source, target)), EPS);
+            }
+        }
+    }
+
+    private static double weight(RoadGraph graph, List<RoadSegment> path) {
+        double weight = 0;
+        for (RoadSegment segment : path) {
+            weight += graph.getEdgeWeight(segment);
+        }
+        return weight;
+    }
+
+    /**
+     * the unpacked shortcuts form a path of road segments from source to target
+     */
+    private static void assertConnected(RoadGraph graph, RoadNode source, RoadNode target, List<RoadSegment> path) {
+        RoadNode node = source;
+        for (RoadSegment segment : path) {
+            assertEquals(node, graph.getEdgeSource(segment));
+            node = graph.getEdgeTarget(segment);
+        }
+        assertEquals(target, node);
+    }
+}
@@ -0,0 +1,99 @@
+package mapmatch.shortestpath;
+
+import mapmatch.TestRoadNetworks;
+import mapmatch.shortestpath.multiple.shortestpath.AbstractMultipleShortestPathAlgo;
+import mapmatch.shortestpath.single.shortestpath.OneToOneDijkstra;
+import org.apache.spark.model.st.spatial.graph.RoadGraph;
+import org.apache.spark.model.st.spatial.graph.RoadNetwork;
+import org.apache.spark.model.st.spatial.graph.RoadNode;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import org.junit.Test;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ManyToManyRouteTest {
+
+    private static final double EPS = 1e-6;
+
+    private static final RoadNetwork ROAD_NETWORK = TestRoadNetworks.grid(12, 7).useCustomizableCH();
+
+    @Test
+    public void chRoutesMatchDijkstra() throws Exception {
+        assertRoutesMatchDijkstra(ShortestPathAlgoTypeEnum.CH);
+    }
+
+    @Test
+    public void biDijkstraRoutesMatchDijkstra() throws Exception {
+        assertRoutesMatchDijkstra(ShortestPathAlgoTypeEnum.BI_DIJKSTRA);
+    }
+
+    @Test
+    public void boundedDijkstraRoutesMatchDijkstra() throws Exception {
+        assertRoutesMatchDijkstra(ShortestPathAlgoTypeEnum.BOUNDED_DIJKSTRA);
+    }
+
+    private static void assertRoutesMatchDijkstra(ShortestPathAlgoTypeEnum algoType) throws Exception {
+        RoadGraph graph = ROAD_NETWORK.getRoadGraph(true);
+        List<RoadNode> nodes = new ArrayList<>(graph.vertexSet());
+        OneToOneDijkstra dijkstra = new OneToOneDijkstra(graph);
+        AbstractMultipleShortestPathAlgo algo = AbstractMultipleShortestPathAlgo.getAlgo(ROAD_NETWORK, algoType);
+        Random random = new Random(13);
+        for (int round = 0; round < 5; round++) {
+            Set<RoadNode> sources = new HashSet<>();
+            Set<RoadNode> targets = new HashSet<>();
+            for (int k = 0; k < 6; k++) {
+                sources.add(nodes.get(random.nextInt(nodes.size())));
+                targets.add(nodes.get(random.nextInt(nodes.size())));
+            }
+            // a source is also a target, its route to itself is empty
+            targets.add(sources.iterator().next());
+            Map<Tuple2<RoadNode, RoadNode>, Tuple2<Double, List<RoadSegment>>> routes =
+                    algo.findAllRoute(sources, targets, Double.POSITIVE_INFINITY);
+            for (RoadNode source : sources) {
+                for (RoadNode target : targets) {
+                    List<RoadSegment> expected = source.equals(target) ? new ArrayList<>()
+                            : dijkstra.findShortestPathGraph(source, target)._2;
+                    Tuple2<Double, List<RoadSegment>> route = routes.get(new Tuple2<>(source, target));
+                    if (expected == null) {
+                        assertTrue(route == null || route._2 == null);
+                        continue;
+                    }
+                    assertNotNull(route);
+                    assertEquals(weight(graph, expected), route._1, EPS);
+                    assertEquals(route._1, weight(graph, route._2), EPS);
+                    assertConnected(graph, source, target, route._2);
+                }
+            }
+        }
+    }
+
+    private static double weight(RoadGraph graph, List<RoadSegment> path) {
+        double weight = 0;
+        for (RoadSegment segment : path) {
+            weight += graph.getEdgeWeight(segment);
+        }
+        return weight;
+    }
+
+    /**
+     * the road segments form a path from source to target
+     */
+    private static void assertConnected(RoadGraph graph, RoadNode source, RoadNode target, List<RoadSegment> path) {
+        RoadNode node = source;
+        for (RoadSegment segment : path) {
+            assertEquals(node, graph.getEdgeSource(segment));
+            node = graph.getEdgeTarget(segment);
+        }
+        assertEquals(target, node);
+    }
+}
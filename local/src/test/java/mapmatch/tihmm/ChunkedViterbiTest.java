@@ -0,0 +1,134 @@
+package mapmatch.tihmm;
+
+import mapmatch.TestRoadNetworks;
+import mapmatch.shortestpath.ShortestPathAlgoTypeEnum;
+import org.apache.spark.model.st.STPoint;
+import org.apache.spark.model.st.spatial.graph.RoadNetwork;
+import org.junit.Test;
+import point.CandidatePoint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkedViterbiTest {
+
+    private static final RoadNetwork ROAD_NETWORK = TestRoadNetworks.grid(20, 7);
+
+    @Test
+    public void chunkedMatchesSequential() {
+        List<STPoint> ptList = TestRoadNetworks.walk(ROAD_NETWORK, 900, new Random(3));
+        for (int windowSize : new int[]{50, 100, 137, 899}) {
+            assertMatchesSequential(ptList, windowSize, new CountingMatcher(false));
+        }
+    }
+
+    @Test
+    public void chunkedMatchesSequentialForEveryLength() {
+        List<STPoint> walk = TestRoadNetworks.walk(ROAD_NETWORK, 40, new Random(11));
+        for (int n = 8; n <= walk.size(); n++) {
+            assertMatchesSequential(walk.subList(0, n), 7, new CountingMatcher(false));
+        }
+    }
+
+    @Test
+    public void chunkedMatchesSequentialWithoutCandidatesAtSeams() {
+        List<STPoint> ptList = TestRoadNetworks.walk(ROAD_NETWORK, 900, new Random(5));
+        // 窗口衔接处前后的点远离路网，没有candidate
+        for (int seam = 100; seam < ptList.size(); seam += 100) {
+            for (int i = seam - 2; i < seam + 3; i++) {
+                STPoint pt = ptList.get(i);
+                ptList.set(i, new STPoint(pt.getX() + 1, pt.getY(), pt.getTime()));
+            }
+        }
+        List<SequenceState> seq = assertMatchesSequential(ptList, 100, new CountingMatcher(false));
+        for (int seam = 100; seam < ptList.size(); seam += 100) {
+            assertNull(seq.get(seam).getState());
+        }
+    }
+
+    @Test
+    public void recomputesOnlyFirstStepOfWindow() {
+        List<STPoint> ptList = TestRoadNetworks.walk(ROAD_NETWORK, 450, new Random(7));
+        CountingMatcher caller = new CountingMatcher(false);
+        assertMatchesSequential(ptList, 100, caller);
+        // 第一个窗口100 个点，之后4 个窗口各重新计算第一个点
+        assertEquals(100 + 4, caller.calls);
+    }
+
+    @Test
+    public void recomputesSeamUntilCandidatesAgree() {
+        List<STPoint> ptList = TestRoadNetworks.walk(ROAD_NETWORK, 450, new Random(7));
+        // 没有上一步时candidate 的顺序不同，窗口的第一个点与重新计算的不一致，第二个点才一致
+        CountingMatcher caller = new CountingMatcher(true);
+        assertMatchesSequential(ptList, 100, caller);
+        assertEquals(100 + 4 * 2, caller.calls);
+    }
+
+    /**
+     * 分段计算的结果与顺序计算完全相同
+     */
+    private static List<SequenceState> assertMatchesSequential(List<STPoint> ptList, int windowSize, CountingMatcher caller) {
+        List<SequenceState> expected = new CountingMatcher(caller.reorder).computeSequentialViterbiSequence(ptList);
+        ChunkedViterbi chunkedViterbi = new ChunkedViterbi(windowSize, () -> new CountingMatcher(caller.reorder))
+                .setWindowSize(windowSize)
+                .setExecutor(Runnable::run);
+        assertTrue(chunkedViterbi.accept(ptList.size()));
+        caller.calls = 0;
+        List<SequenceState> seq = chunkedViterbi.computeViterbiSequence(caller, ptList);
+
+        assertEquals(ptList.size(), seq.size());
+        assertEquals(ptList.size(), expected.size());
+        for (int i = 0; i < ptList.size(); i++) {
+            assertSame(ptList.get(i), seq.get(i).getObservation());
+            CandidatePoint state = seq.get(i).getState();
+            CandidatePoint expectedState = expected.get(i).getState();
+            if (expectedState == null) {
+                assertNull("state " + i, state);
+            } else {
+                assertEquals("state " + i, expectedState.getRoadSegmentID(), state.getRoadSegmentID());
+                assertEquals("state " + i, expectedState.getOffset(), state.getOffset(), 0);
+            }
+            assertEquals("path " + i, expected.get(i).getTransitionPath(), seq.get(i).getTransitionPath());
+        }
+        return seq;
+    }
+
+    /**
+     * 记录computeTimeStep 的调用次数；reorder 为true 时没有上一步的time step 中candidate 顺序相反
+     */
+    private static class CountingMatcher extends TiHmmMapMatcher {
+
+        private final boolean reorder;
+
+        private int calls = 0;
+
+        CountingMatcher(boolean reorder) {
+            super(ROAD_NETWORK, ShortestPathAlgoTypeEnum.DIJKSTRA);
+            this.reorder = reorder;
+        }
+
+        @Override
+        TimeStep computeTimeStep(TimeStep preTimeStep, STPoint pt) {
+            calls++;
+            TimeStep timeStep = super.computeTimeStep(preTimeStep, pt);
+            if (!reorder || preTimeStep != null || timeStep == null) {
+                return timeStep;
+            }
+            List<CandidatePoint> candidates = new ArrayList<>(timeStep.getCandidates());
+            Collections.reverse(candidates);
+            TimeStep reordered = new TimeStep(pt, candidates);
+            double[] emissions = timeStep.getEmissionLogProbabilities();
+            for (int j = 0; j < candidates.size(); j++) {
+                reordered.addEmissionLogProbability(j, emissions[emissions.length - 1 - j]);
+            }
+            return reordered;
+        }
+    }
+}
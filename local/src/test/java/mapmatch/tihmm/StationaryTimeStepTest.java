@@ -0,0 +1,118 @@
+package mapmatch.tihmm;
+
+import mapmatch.shortestpath.ShortestPathAlgoTypeEnum;
+import org.apache.spark.model.st.STPoint;
+import org.apache.spark.model.st.spatial.SpatialCoord;
+import org.apache.spark.model.st.spatial.SpatialCoordSequence;
+import org.apache.spark.model.st.spatial.graph.RoadNetwork;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import org.junit.Test;
+import point.CandidatePoint;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class StationaryTimeStepTest {
+
+    /**
+     * 东西向的双向道路，节点0、1、2 相距约170m，路段1 为0->1，路段2 为1->2，-1、-2 为反方向
+     */
+    private static final RoadNetwork ROAD_NETWORK = new RoadNetwork(new RoadSegment[]{
+            segment(1, 0, 1), segment(2, 1, 2)});
+
+    @Test
+    public void skipsSpatialQueryForStationaryPoints() {
+        List<STPoint> ptList = new ArrayList<>();
+        for (double lon : new double[]{116.0003, 116.0008, 116.0013}) {
+            ptList.add(point(ptList, lon, 39));
+        }
+        // 停在路段2 的中间，沿道路前后抖动约3m
+        for (int k = 0; k < 10; k++) {
+            ptList.add(point(ptList, 116.003 + (k % 2 == 0 ? 0.00004 : -0.00004), 39 + (k % 3 - 1) * 0.00002));
+        }
+        CountingPolicy policy = new CountingPolicy();
+        List<SequenceState> seq = newMatcher(policy).computeSequentialViterbiSequence(ptList);
+
+        // 停下后只有第一个点查询了R-tree
+        assertEquals(4, policy.queries);
+        for (int i = 3; i < ptList.size(); i++) {
+            assertEquals("state " + i, 2, seq.get(i).getState().getRoadSegmentID());
+            assertNotNull("path " + i, seq.get(i).getTransitionPath());
+        }
+    }
+
+    @Test
+    public void keepsTransitionsBetweenConnectedSegments() {
+        // 停在节点1，附近有1、-1、2、-2 四个路段
+        List<STPoint> ptList = new ArrayList<>();
+        ptList.add(point(ptList, 116.00203, 39));
+        ptList.add(point(ptList, 116.00197, 39.00001));
+        CountingPolicy policy = new CountingPolicy();
+        TiHmmMapMatcher matcher = newMatcher(policy);
+        TimeStep preTimeStep = matcher.computeTimeStep(null, ptList.get(0));
+        TimeStep timeStep = matcher.computeTimeStep(preTimeStep, ptList.get(1));
+
+        assertEquals(1, policy.queries);
+        List<CandidatePoint> prevCandidates = preTimeStep.getCandidates();
+        List<CandidatePoint> candidates = timeStep.getCandidates();
+        assertEquals(4, candidates.size());
+        double[] transitions = timeStep.getTransitionLogProbabilities();
+        int connected = 0;
+        for (int i = 0; i < prevCandidates.size(); i++) {
+            RoadSegment prevRs = ROAD_NETWORK.getRoadSegment(prevCandidates.get(i).getRoadSegmentID());
+            for (int j = 0; j < candidates.size(); j++) {
+                assertEquals(prevCandidates.get(j).getRoadSegmentID(), candidates.get(j).getRoadSegmentID());
+                RoadSegment rs = ROAD_NETWORK.getRoadSegment(candidates.get(j).getRoadSegmentID());
+                if (prevRs == rs || prevRs.getEndId() == rs.getStartId()) {
+                    // 倒退的抖动以及驶入相接的路段(包括掉头)都可以转移
+                    assertTrue(i + "->" + j, transitions[i * candidates.size() + j] > Double.NEGATIVE_INFINITY);
+                    assertTrue(timeStep.getTransitionPaths()[i * candidates.size() + j].isEmpty());
+                    connected += prevRs == rs ? 0 : 1;
+                }
+            }
+        }
+        // 1->2、1->-1、-2->-1、-2->2、2->-2、-1->1
+        assertEquals(6, connected);
+    }
+
+    private static TiHmmMapMatcher newMatcher(CandidatePolicy policy) {
+        TiHmmMapMatcher matcher = new TiHmmMapMatcher(ROAD_NETWORK, ShortestPathAlgoTypeEnum.DIJKSTRA);
+        matcher.setCandidatePolicy(policy);
+        matcher.setStationaryDistance(10);
+        return matcher;
+    }
+
+    private static STPoint point(List<STPoint> ptList, double lon, double lat) {
+        return new STPoint(lon, lat, new Timestamp(1500000000000L + ptList.size() * 10000L));
+    }
+
+    private static RoadSegment segment(int id, int startId, int endId) {
+        SpatialCoord start = new SpatialCoord(116 + startId * 0.002, 39);
+        SpatialCoord end = new SpatialCoord(116 + endId * 0.002, 39);
+        return new RoadSegment(id, startId, endId, new SpatialCoordSequence(new SpatialCoord[]{start, end}))
+                .setDirection(RoadSegment.DUAL_DIRECT());
+    }
+
+    /**
+     * 记录空间查询的次数
+     */
+    private static class CountingPolicy extends CandidatePolicy {
+
+        private int queries = 0;
+
+        CountingPolicy() {
+            super(TiHmmMapMatcher.measurementErrorSigma);
+        }
+
+        @Override
+        public List<CandidatePoint> getCandidates(STPoint pt, RoadNetwork roadNetwork) {
+            queries++;
+            return super.getCandidates(pt, roadNetwork);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package mapmatch.tihmm;
+
+import mapmatch.TestRoadNetworks;
+import mapmatch.shortestpath.ShortestPathAlgoTypeEnum;
+import mapmatch.shortestpath.cache.ubodt.UBODTBuilder;
+import org.apache.spark.model.st.STPoint;
+import org.apache.spark.model.st.spatial.graph.RoadNetwork;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import org.junit.Test;
+import point.CandidatePoint;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class TransitionPathTest {
+
+    private static final RoadNetwork ROAD_NETWORK = TestRoadNetworks.grid(12, 7).useCustomizableCH();
+
+    private static final List<STPoint> PT_LIST = TestRoadNetworks.walk(ROAD_NETWORK, 120, new Random(17));
+
+    @Test
+    public void cacheMatcherRecordsPaths() {
+        assertRecordsPaths(new TiHmmCacheMatcher(ROAD_NETWORK, UBODTBuilder.build(ROAD_NETWORK, 500)));
+    }
+
+    @Test
+    public void chMatcherRecordsPaths() throws Exception {
+        assertRecordsPaths(new TiHmmMultipleMatcher(ROAD_NETWORK, ShortestPathAlgoTypeEnum.CH));
+    }
+
+    @Test
+    public void boundedDijkstraMatcherRecordsPaths() throws Exception {
+        assertRecordsPaths(new TiHmmMultipleMatcher(ROAD_NETWORK, ShortestPathAlgoTypeEnum.BOUNDED_DIJKSTRA));
+    }
+
+    /**
+     * 每一步都有HMM 中使用的路径，从上一个匹配点所在路段的终点到当前匹配点所在路段的起点
+     */
+    private static void assertRecordsPaths(TiHmmMapMatcher matcher) {
+        List<SequenceState> seq = matcher.computeSequentialViterbiSequence(PT_LIST);
+        assertEquals(PT_LIST.size(), seq.size());
+        for (int i = 1; i < seq.size(); i++) {
+            CandidatePoint preState = seq.get(i - 1).getState();
+            CandidatePoint state = seq.get(i).getState();
+            List<RoadSegment> path = seq.get(i).getTransitionPath();
+            assertNotNull("path " + i, path);
+            int node = ROAD_NETWORK.getRoadSegment(preState.getRoadSegmentID()).getEndId();
+            for (RoadSegment segment : path) {
+                assertEquals("path " + i, node, segment.getStartId());
+                node = segment.getEndId();
+            }
+            assertEquals("path " + i, ROAD_NETWORK.getRoadSegment(state.getRoadSegmentID()).getStartId(), node);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package contractionhierarchy;
+
+import org.apache.spark.model.st.spatial.graph.RoadGraph;
+import org.apache.spark.model.st.spatial.graph.RoadNetwork;
+import org.apache.spark.model.st.spatial.graph.RoadNode;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import org.jgrapht.Graph;
+import org.jgrapht.alg.shortestpath.ContractionHierarchyPrecomputation;
+import org.jgrapht.alg.shortestpath.ContractionHierarchyPrecomputation.ContractionEdge;
+import org.jgrapht.alg.shortestpath.ContractionHierarchyPrecomputation.ContractionHierarchy;
+import org.jgrapht.alg.shortestpath.ContractionHierarchyPrecomputation.ContractionVertex;
+import org.jgrapht.alg.util.Pair;
+import org.jgrapht.graph.builder.GraphTypeBuilder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * binary format of the contraction hierarchy, little endian:
+ * header(magic, version, vertex count, edge count),
+ * vertex table(vertex id, node id, contraction level),
+ * edge table(source vertex id, target vertex id, weight, upward, origin road segment id, first and second bypassed edge index).
+ * edges are sorted by the number of original edges they cover, so bypassed edges always precede the shortcut,
+ * and the whole hierarchy is rebuilt in one pass without any text parsing.
+ *
+ * @date 2021/07/14
+ */
+public class CHBinaryAccessor {
+
+    private static final int MAGIC = 0x43484752;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 16;
+
+    private static final int VERTEX_BYTES = 12;
+
+    private static final int EDGE_BYTES = 32;
+
+    public static void write(RoadNetwork roadNetwork, String path) throws IOException {
+        ContractionHierarchyPrecomputation<RoadNode, RoadSegment> preComputation = new ContractionHierarchyPrecomputation<>(roadNetwork.getRoadGraph(true));
+        write(preComputation.computeContractionHierarchy(), path);
+    }
+
+    public static void write(ContractionHierarchy<RoadNode, RoadSegment> contractionHierarchy, String path) throws IOException {
+        ByteBuffer buffer = toBytes(contractionHierarchy);
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw");
+             FileChannel channel = file.getChannel()) {
+            channel.truncate(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * encode the contraction hierarchy in the binary format
+     */
+    public static ByteBuffer toBytes(ContractionHierarchy<RoadNode, RoadSegment> contractionHierarchy) {
+        Graph<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>> chGraph = contractionHierarchy.getContractionGraph();
+        List<ContractionEdge<RoadSegment>> edgeList = new ArrayList<>(chGraph.edgeSet());
+        edgeList.sort(Comparator.comparingInt(ContractionEdge::getOriginalEdges));
+        int vertexCount = chGraph.vertexSet().size();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + vertexCount * VERTEX_BYTES + edgeList.size() * EDGE_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(vertexCount).putInt(edgeList.size());
+        for (ContractionVertex<RoadNode> vertex : chGraph.vertexSet()) {
+            buffer.putInt(vertex.getVertexId()).putInt(vertex.getVertex().nodeId()).putInt(vertex.getContractionLevel());
+        }
+        Map<ContractionEdge<RoadSegment>, Integer> edgeIdMapping = new HashMap<>(edgeList.size());
+        for (ContractionEdge<RoadSegment> edge : edgeList) {
+            buffer.putInt(chGraph.getEdgeSource(edge).getVertexId())
+                    .putInt(chGraph.getEdgeTarget(edge).getVertexId())
+                    .putDouble(chGraph.getEdgeWeight(edge))
+                    .putInt(edge.isUpward() ? 1 : 0);
+            if (edge.getOriginalEdges() == 1) {
+                buffer.putInt(edge.getEdge().getRoadId()).putInt(-1).putInt(-1);
+            } else {
+                Pair<ContractionEdge<RoadSegment>, ContractionEdge<RoadSegment>> pairEdge = edge.getBypassedEdges();
+                buffer.putInt(-1).putInt(edgeIdMapping.get(pairEdge.getFirst())).putInt(edgeIdMapping.get(pairEdge.getSecond()));
+            }
+            edgeIdMapping.put(edge, edgeIdMapping.size());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * memory-map a binary contraction hierarchy file and load it
+     */
+    public static ContractionHierarchy<RoadNode, RoadSegment> load(String path, RoadNetwork roadNetwork) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), roadNetwork);
+        }
+    }
+
+    /**
+     * decode the binary format, vertices are bound to the nodes of the road graph of roadNetwork
+     */
+    public static ContractionHierarchy<RoadNode, RoadSegment> read(ByteBuffer buffer, RoadNetwork roadNetwork) throws IOException {
+        buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+            throw new IOException("not a binary contraction hierarchy");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported contraction hierarchy version: " + version);
+        }
+        int vertexCount = buffer.getInt();
+        int edgeCount = buffer.getInt();
+        if (buffer.remaining() != (long) vertexCount * VERTEX_BYTES + (long) edgeCount * EDGE_BYTES) {
+            throw new IOException("truncated contraction hierarchy");
+        }
+
+        RoadGraph roadGraph = roadNetwork.getRoadGraph(true);
+        Map<Integer, RoadNode> roadNodes = new HashMap<>(roadGraph.vertexSet().size() * 2);
+        for (RoadNode node : roadGraph.vertexSet()) {
+            roadNodes.put(node.nodeId(), node);
+        }
+        Graph<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>> chGraph =
+                GraphTypeBuilder.<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>>directed().weighted(true)
+                        .allowingMultipleEdges(true).allowingSelfLoops(false).buildGraph();
+        Map<RoadNode, ContractionVertex<RoadNode>> nodeMapping = new HashMap<>(vertexCount * 2);
+        Map<Integer, ContractionVertex<RoadNode>> vertices = new HashMap<>(vertexCount * 2);
+        for (int i = 0; i < vertexCount; i++) {
+            int vertexId = buffer.getInt();
+            int nodeId = buffer.getInt();
+            int level = buffer.getInt();
+            RoadNode node = roadNodes.get(nodeId);
+            if (node == null) {
+                throw new IOException("there is no road node for id: " + nodeId);
+            }
+            ContractionVertex<RoadNode> vertex = new ContractionVertex<>(node, vertexId);
+            vertex.setContractionLevel(level);
+            chGraph.addVertex(vertex);
+            nodeMapping.put(node, vertex);
+            vertices.put(vertexId, vertex);
+        }
+
+        List<ContractionEdge<RoadSegment>> edges = new ArrayList<>(edgeCount);
+        for (int i = 0; i < edgeCount; i++) {
+            ContractionVertex<RoadNode> source = vertices.get(buffer.getInt());
+            ContractionVertex<RoadNode> target = vertices.get(buffer.getInt());
+            double weight = buffer.getDouble();
+            boolean isUpward = buffer.getInt() != 0;
+            int originRoadSegmentId = buffer.getInt();
+            int firstEdgeId = buffer.getInt();
+            int secondEdgeId = buffer.getInt();
+            ContractionEdge<RoadSegment> edge;
+            if (firstEdgeId < 0) {
+                edge = new ContractionEdge<>(roadNetwork.getRoadSegment(originRoadSegmentId));
+            } else {
+                edge = new ContractionEdge<>(new Pair<>(edges.get(firstEdgeId), edges.get(secondEdgeId)));
+            }
+            edge.setUpward(isUpward);
+            chGraph.addEdge(source, target, edge);
+            chGraph.setEdgeWeight(edge, weight);
+            edges.add(edge);
+        }
+        return new ContractionHierarchy<>(roadGraph, chGraph, nodeMapping);
+    }
+}
@@ -0,0 +1,321 @@
+package contractionhierarchy;
+
+import org.apache.spark.model.st.spatial.graph.RoadGraph;
+import org.apache.spark.model.st.spatial.graph.RoadNode;
+import org.apache.spark.model.st.spatial.graph.RoadSegment;
+import org.jgrapht.Graph;
+import org.jgrapht.alg.shortestpath.ContractionHierarchyPrecomputation.ContractionEdge;
+import org.jgrapht.alg.shortestpath.ContractionHierarchyPrecomputation.ContractionHierarchy;
+import org.jgrapht.alg.shortestpath.ContractionHierarchyPrecomputation.ContractionVertex;
+import org.jgrapht.alg.util.Pair;
+import org.jgrapht.graph.builder.GraphTypeBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Customizable contraction hierarchy.
+ * The vertex order comes from a metric independent nested dissection and the vertices are contracted without
+ * witness search, so the shortcut topology depends only on the road graph structure and is computed once.
+ * {@link #customize()} recomputes all shortcut weights from the current edge weights of the road graph
+ * by enumerating lower triangles, and updates the contraction hierarchy returned by
+ * {@link #getContractionHierarchy()} in place, so OneToOneCH and ManyToManyCH can query it as usual.
+ * Queries must not run while customizing.
+ *
+ * @date 2021/07/16
+ */
+public class CustomizableCH {
+
+    private final RoadGraph roadGraph;
+
+    /**
+     * road node of every rank
+     */
+    private final RoadNode[] nodes;
+
+    /**
+     * upward arcs of rank v are (v, upTargets[a]) for a in [upOffsets[v], upOffsets[v + 1]), targets are sorted
+     */
+    private final int[] upOffsets;
+
+    private final int[] upTargets;
+
+    /**
+     * weight from the lower end to the upper end of every arc
+     */
+    private final double[] forwardWeights;
+
+    /**
+     * weight from the upper end to the lower end of every arc
+     */
+    private final double[] backwardWeights;
+
+    /**
+     * rank of the bypassed vertex of the shortcut, -1 if the arc is an original edge
+     */
+    private final int[] forwardMiddles;
+
+    private final int[] backwardMiddles;
+
+    private final RoadSegment[] forwardSegments;
+
+    private final RoadSegment[] backwardSegments;
+
+    private final ContractionEdge<RoadSegment>[] forwardEdges;
+
+    private final ContractionEdge<RoadSegment>[] backwardEdges;
+
+    private final ContractionVertex<RoadNode>[] vertices;
+
+    private final Graph<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>> chGraph;
+
+    private final ContractionHierarchy<RoadNode, RoadSegment> hierarchy;
+
+    /**
+     * compute the metric independent order and shortcut topology, then customize with the current weights
+     *
+     * @param roadGraph directed road graph
+     */
+    @SuppressWarnings("unchecked")
+    public CustomizableCH(RoadGraph roadGraph) {
+        this.roadGraph = roadGraph;
+        final List<RoadNode> nodeList = new ArrayList<>(roadGraph.vertexSet());
+        final int nodeNum = nodeList.size();
+        final Map<RoadNode, Integer> nodeIndex = new HashMap<>(nodeNum * 2);
+        for (int i = 0; i < nodeNum; i++) {
+            nodeIndex.put(nodeList.get(i), i);
+        }
+
+        // undirected adjacency for the ordering
+        int[] degrees = new int[nodeNum + 1];
+        for (RoadSegment e : roadGraph.edgeSet()) {
+            degrees[nodeIndex.get(roadGraph.getEdgeSource(e))]++;
+            degrees[nodeIndex.get(roadGraph.getEdgeTarget(e))]++;
+        }
+        int[] offsets = new int[nodeNum + 1];
+        for (int i = 0; i < nodeNum; i++) {
+            offsets[i + 1] = offsets[i] + degrees[i];
+        }
+        int[] neighbours = new int[offsets[nodeNum]];
+        int[] fill = Arrays.copyOf(offsets, nodeNum);
+        for (RoadSegment e : roadGraph.edgeSet()) {
+            int s = nodeIndex.get(roadGraph.getEdgeSource(e));
+            int t = nodeIndex.get(roadGraph.getEdgeTarget(e));
+            neighbours[fill[s]++] = t;
+            neighbours[fill[t]++] = s;
+        }
+        double[] xs = new double[nodeNum];
+        double[] ys = new double[nodeNum];
+        for (int i = 0; i < nodeNum; i++) {
+            xs[i] = nodeList.get(i).getX();
+            ys[i] = nodeList.get(i).getY();
+        }
+        final int[] ranks = NestedDissectionOrdering.computeRanks(xs, ys, offsets, neighbours);
+
+        // contract in rank order, the upper neighbours of a vertex become a clique
+        int[][] ups = new int[nodeNum][];
+        for (int i = 0; i < nodeNum; i++) {
+            int[] up = new int[offsets[i + 1] - offsets[i]];
+            int size = 0;
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                if (ranks[neighbours[j]] > ranks[i]) {
+                    up[size++] = ranks[neighbours[j]];
+                }
+            }
+            ups[ranks[i]] = sortedUnique(up, size);
+        }
+        for (int v = 0; v < nodeNum; v++) {
+            int[] up = ups[v];
+            if (up.length > 1) {
+                ups[up[0]] = merge(ups[up[0]], up, 1);
+            }
+        }
+        upOffsets = new int[nodeNum + 1];
+        for (int v = 0; v < nodeNum; v++) {
+            upOffsets[v + 1] = upOffsets[v] + ups[v].length;
+        }
+        upTargets = new int[upOffsets[nodeNum]];
+        for (int v = 0; v < nodeNum; v++) {
+            System.arraycopy(ups[v], 0, upTargets, upOffsets[v], ups[v].length);
+        }
+
+        final int arcNum = upTargets.length;
+        forwardWeights = new double[arcNum];
+        backwardWeights = new double[arcNum];
+        forwardMiddles = new int[arcNum];
+        backwardMiddles = new int[arcNum];
+        forwardSegments = new RoadSegment[arcNum];
+        backwardSegments = new RoadSegment[arcNum];
+        forwardEdges = new ContractionEdge[arcNum];
+        backwardEdges = new ContractionEdge[arcNum];
+
+        nodes = new RoadNode[nodeNum];
+        vertices = new ContractionVertex[nodeNum];
+        chGraph = GraphTypeBuilder.<ContractionVertex<RoadNode>, ContractionEdge<RoadSegment>>directed().weighted(true)
+                .allowingMultipleEdges(true).allowingSelfLoops(false).buildGraph();
+        Map<RoadNode, ContractionVertex<RoadNode>> nodeMapping = new HashMap<>(nodeNum * 2);
+        for (int i = 0; i < nodeNum; i++) {
+            int rank = ranks[i];
+            nodes[rank] = nodeList.get(i);
+            vertices[rank] = new ContractionVertex<>(nodes[rank], rank);
+            vertices[rank].setContractionLevel(rank);
+            chGraph.addVertex(vertices[rank]);
+            nodeMapping.put(nodes[rank], vertices[rank]);
+        }
+        for (int a = 0; a < arcNum; a++) {
+            forwardEdges[a] = new ContractionEdge<>((RoadSegment) null);
+            forwardEdges[a].setUpward(true);
+            backwardEdges[a] = new ContractionEdge<>((RoadSegment) null);
+            backwardEdges[a].setUpward(false);
+        }
+        hierarchy = new ContractionHierarchy<>(roadGraph, chGraph, nodeMapping);
+        customize();
+    }
+
+    public ContractionHierarchy<RoadNode, RoadSegment> getContractionHierarchy() {
+        return hierarchy;
+    }
+
+    public int getShortcutNum() {
+        return upTargets.length;
+    }
+
+    /**
+     * recompute all weights from the current edge weights of the road graph, e.g. after RoadGraph.setWeight
+     */
+    public void customize() {
+        Arrays.fill(forwardWeights, Double.POSITIVE_INFINITY);
+        Arrays.fill(backwardWeights, Double.POSITIVE_INFINITY);
+        Arrays.fill(forwardMiddles, -1);
+        Arrays.fill(backwardMiddles, -1);
+        Arrays.fill(forwardSegments, null);
+        Arrays.fill(backwardSegments, null);
+        final Map<RoadNode, ContractionVertex<RoadNode>> mapping = hierarchy.getContractionMapping();
+        for (RoadSegment e : roadGraph.edgeSet()) {
+            int s = mapping.get(roadGraph.getEdgeSource(e)).getContractionLevel();
+            int t = mapping.get(roadGraph.getEdgeTarget(e)).getContractionLevel();
+            if (s == t) {
+                continue;
+            }
+            double weight = roadGraph.getEdgeWeight(e);
+            if (s < t) {
+                int a = findArc(s, t);
+                if (weight < forwardWeights[a]) {
+                    forwardWeights[a] = weight;
+                    forwardSegments[a] = e;
+                }
+            } else {
+                int a = findArc(t, s);
+                if (weight < backwardWeights[a]) {
+                    backwardWeights[a] = weight;
+                    backwardSegments[a] = e;
+                }
+            }
+        }
+
+        // arcs whose lower end is v are final once all lower triangles below v are processed
+        for (int v = 0; v < nodes.length; v++) {
+            for (int a = upOffsets[v]; a < upOffsets[v + 1]; a++) {
+                updateEdges(v, a);
+            }
+            for (int i = upOffsets[v]; i < upOffsets[v + 1]; i++) {
+                int x = upTargets[i];
+                for (int j = i + 1; j < upOffsets[v + 1]; j++) {
+                    int y = upTargets[j];
+                    int a = findArc(x, y);
+                    // x -> v -> y
+                    double weight = backwardWeights[i] + forwardWeights[j];
+                    if (weight < forwardWeights[a]) {
+                        forwardWeights[a] = weight;
+                        forwardMiddles[a] = v;
+                    }
+                    // y -> v -> x
+                    weight = backwardWeights[j] + forwardWeights[i];
+                    if (weight < backwardWeights[a]) {
+                        backwardWeights[a] = weight;
+                        backwardMiddles[a] = v;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * sync the contraction edges of arc a = (v, upTargets[a]) with its customized weights
+     */
+    private void updateEdges(int v, int a) {
+        int u = upTargets[a];
+        if (forwardMiddles[a] >= 0) {
+            int m = forwardMiddles[a];
+            forwardEdges[a].setBypassedEdges(new Pair<>(backwardEdges[findArc(m, v)], forwardEdges[findArc(m, u)]));
+        } else {
+            forwardEdges[a].setEdge(forwardSegments[a]);
+        }
+        updateEdge(forwardEdges[a], vertices[v], vertices[u], forwardWeights[a]);
+        if (backwardMiddles[a] >= 0) {
+            int m = backwardMiddles[a];
+            backwardEdges[a].setBypassedEdges(new Pair<>(backwardEdges[findArc(m, u)], forwardEdges[findArc(m, v)]));
+        } else {
+            backwardEdges[a].setEdge(backwardSegments[a]);
+        }
+        updateEdge(backwardEdges[a], vertices[u], vertices[v], backwardWeights[a]);
+    }
+
+    /**
+     * unreachable directions are kept out of the graph
+     */
+    private void updateEdge(ContractionEdge<RoadSegment> edge, ContractionVertex<RoadNode> source,
+                            ContractionVertex<RoadNode> target, double weight) {
+        if (Double.isInfinite(weight)) {
+            chGraph.removeEdge(edge);
+        } else {
+            if (!chGraph.containsEdge(edge)) {
+                chGraph.addEdge(source, target, edge);
+            }
+            chGraph.setEdgeWeight(edge, weight);
+        }
+    }
+
+    private int findArc(int lower, int upper) {
+        int a = Arrays.binarySearch(upTargets, upOffsets[lower], upOffsets[lower + 1], upper);
+        if (a < 0) {
+            throw new IllegalStateException("missing shortcut " + lower + " -> " + upper);
+        }
+        return a;
+    }
+
+    private static int[] sortedUnique(int[] values, int size) {
+        Arrays.sort(values, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || values[i] != values[unique - 1]) {
+                values[unique++] = values[i];
+            }
+        }
+        return Arrays.copyOf(values, unique);
+    }
+
+    /**
+     * merge two sorted arrays without duplicates, b is used from index bFrom
+     */
+    private static int[] merge(int[] a, int[] b, int bFrom) {
+        int[] result = new int[a.length + b.length - bFrom];
+        int i = 0, j = bFrom, size = 0;
+        while (i < a.length || j < b.length) {
+            int value;
+            if (j >= b.length || (i < a.length && a[i] < b[j])) {
+                value = a[i++];
+            } else if (i >= a.length || b[j] < a[i]) {
+                value = b[j++];
+            } else {
+                value = a[i++];
+                j++;
+            }
+            result[size++] = value;
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+}
@@ -0,0 +1,182 @@
+package contractionhierarchy;
+
+import java.util.Arrays;
+
+/**
+ * Metric independent vertex ordering for the customizable contraction hierarchy.
+ * The vertex set is bisected recursively at the coordinate median of its longer side,
+ * the smaller boundary of the two halves becomes the separator and gets the highest remaining ranks,
+ * then both halves are ordered in the same way. Small cells are ordered by degree.
+ *
+ * @date 2021/07/16
+ */
+class NestedDissectionOrdering {
+
+    /**
+     * cells not larger than this are not dissected any more
+     */
+    private static final int LEAF_SIZE = 32;
+
+    private final double[] xs;
+
+    private final double[] ys;
+
+    private final int[] offsets;
+
+    private final int[] neighbours;
+
+    private final int[] ranks;
+
+    private final int[] marks;
+
+    private int markStamp = 0;
+
+    private int nextRank;
+
+    /**
+     * @param xs         longitude of every vertex
+     * @param ys         latitude of every vertex
+     * @param offsets    neighbours of vertex v are neighbours[offsets[v], offsets[v + 1])
+     * @param neighbours undirected adjacency
+     */
+    private NestedDissectionOrdering(double[] xs, double[] ys, int[] offsets, int[] neighbours) {
+        this.xs = xs;
+        this.ys = ys;
+        this.offsets = offsets;
+        this.neighbours = neighbours;
+        this.ranks = new int[xs.length];
+        this.marks = new int[xs.length];
+        this.nextRank = xs.length - 1;
+    }
+
+    /**
+     * @return rank of every vertex, a permutation of [0, n)
+     */
+    static int[] computeRanks(double[] xs, double[] ys, int[] offsets, int[] neighbours) {
+        NestedDissectionOrdering ordering = new NestedDissectionOrdering(xs, ys, offsets, neighbours);
+        int[] vertices = new int[xs.length];
+        for (int v = 0; v < vertices.length; v++) {
+            vertices[v] = v;
+        }
+        ordering.dissect(vertices);
+        return ordering.ranks;
+    }
+
+    private void dissect(int[] vertices) {
+        if (vertices.length <= LEAF_SIZE) {
+            orderLeaf(vertices);
+            return;
+        }
+        double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int v : vertices) {
+            minX = Math.min(minX, xs[v]);
+            maxX = Math.max(maxX, xs[v]);
+            minY = Math.min(minY, ys[v]);
+            maxY = Math.max(maxY, ys[v]);
+        }
+        double[] coords = maxX - minX >= maxY - minY ? xs : ys;
+        int mid = vertices.length / 2;
+        select(vertices, coords, mid);
+
+        int leftStamp = ++markStamp;
+        int rightStamp = ++markStamp;
+        for (int i = 0; i < vertices.length; i++) {
+            marks[vertices[i]] = i < mid ? leftStamp : rightStamp;
+        }
+        int leftBoundary = 0;
+        int rightBoundary = 0;
+        for (int i = 0; i < vertices.length; i++) {
+            if (i < mid ? isBoundary(vertices[i], rightStamp) : isBoundary(vertices[i], leftStamp)) {
+                if (i < mid) {
+                    leftBoundary++;
+                } else {
+                    rightBoundary++;
+                }
+            }
+        }
+        // the smaller boundary becomes the separator
+        boolean separateLeft = leftBoundary <= rightBoundary;
+        int[] separator = new int[separateLeft ? leftBoundary : rightBoundary];
+        int[] left = new int[mid - (separateLeft ? leftBoundary : 0)];
+        int[] right = new int[vertices.length - mid - (separateLeft ? 0 : rightBoundary)];
+        int separatorSize = 0, leftSize = 0, rightSize = 0;
+        for (int i = 0; i < vertices.length; i++) {
+            int v = vertices[i];
+            if (i < mid) {
+                if (separateLeft && isBoundary(v, rightStamp)) {
+                    separator[separatorSize++] = v;
+                } else {
+                    left[leftSize++] = v;
+                }
+            } else {
+                if (!separateLeft && isBoundary(v, leftStamp)) {
+                    separator[separatorSize++] = v;
+                } else {
+                    right[rightSize++] = v;
+                }
+            }
+        }
+        orderLeaf(separator);
+        dissect(right);
+        dissect(left);
+    }
+
+    private boolean isBoundary(int v, int otherStamp) {
+        for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+            if (marks[neighbours[i]] == otherStamp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * assign the highest remaining ranks, vertices with higher degree get higher ranks
+     */
+    private void orderLeaf(int[] vertices) {
+        long[] keys = new long[vertices.length];
+        for (int i = 0; i < vertices.length; i++) {
+            int v = vertices[i];
+            keys[i] = ((long) (offsets[v + 1] - offsets[v]) << 32) | v;
+        }
+        Arrays.sort(keys);
+        for (int i = keys.length - 1; i >= 0; i--) {
+            ranks[(int) keys[i]] = nextRank--;
+        }
+    }
+
+    /**
+     * partially sort vertices so that vertices[k] has the k-th smallest coordinate,
+     * vertices before k are not greater and vertices after k are not smaller
+     */
+    private static void select(int[] vertices, double[] coords, int k) {
+        int lo = 0, hi = vertices.length - 1;
+        while (lo < hi) {
+            double pivot = coords[vertices[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (coords[vertices[i]] < pivot) {
+                    i++;
+                }
+                while (coords[vertices[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = vertices[i];
+                    vertices[i] = vertices[j];
+                    vertices[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+}
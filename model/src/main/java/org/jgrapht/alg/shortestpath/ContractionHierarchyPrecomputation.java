@@ -1138,6 +1138,29 @@ public class ContractionHierarchyPrecomputation<V, E>
         public void setUpward(boolean upward) {
             isUpward = upward;
         }
+
+        /**
+         * Makes this edge represent the original {@code edge}.
+         *
+         * @param edge an edge in {@code graph}
+         */
+        public void setEdge(E1 edge) {
+            this.edge = edge;
+            this.bypassedEdges = null;
+            this.originalEdges = 1;
+        }
+
+        /**
+         * Makes this edge a shortcut of the given pair of bypassed edges.
+         *
+         * @param bypassedEdges skipped edges
+         */
+        public void setBypassedEdges(Pair<ContractionEdge<E1>, ContractionEdge<E1>> bypassedEdges) {
+            this.edge = null;
+            this.bypassedEdges = bypassedEdges;
+            this.originalEdges =
+                    bypassedEdges.getFirst().originalEdges + bypassedEdges.getSecond().originalEdges;
+        }
     }
 
     /**
@@ -1,9 +1,7 @@
 package point;
 
-import com.github.davidmoten.rtree.Entry;
-import com.github.davidmoten.rtree.geometry.Geometries;
-import com.github.davidmoten.rtree.geometry.Rectangle;
 import org.apache.spark.model.st.spatial.SpatialPoint;
+import org.apache.spark.model.st.spatial.graph.PackedRoadRTree;
 import org.apache.spark.model.st.spatial.graph.RoadNetwork;
 import org.apache.spark.model.st.spatial.graph.RoadSegment;
 import org.locationtech.jts.geom.Envelope;
@@ -43,6 +41,10 @@ public class CandidatePoint extends SpatialPoint implements Serializable {
      * 点到路的最大候选距离, 单位为m
      */
     public static final double CANDIDATE_DISTANCE = 300;
+    /**
+     * 每个线程复用的range query结果缓冲区
+     */
+    private static final ThreadLocal<int[]> SEARCH_BUFFER = ThreadLocal.withInitial(() -> new int[64]);
 
     /**
      * @param matchedPt            匹配点
@@ -121,16 +123,22 @@ public class CandidatePoint extends SpatialPoint implements Serializable {
      */
     public static List<CandidatePoint> getCandidatePoint(SpatialPoint pt, RoadNetwork roadNetwork, double dist) {
         Envelope mbr = GeoFunction.getExtendedMbr(pt, dist);
-        Rectangle rec = Geometries.rectangleGeographic(mbr.getMinX(), mbr.getMinY(), mbr.getMaxX(), mbr.getMaxY());
-        Iterable<RoadSegment> roadSegmentIterable = roadNetwork.getRoadRtree().search(rec).map(Entry::value).toBlocking().toIterable();
+        PackedRoadRTree rtree = roadNetwork.getPackedRtree();
+        int[] buffer = SEARCH_BUFFER.get();
+        int num = rtree.search(mbr.getMinX(), mbr.getMinY(), mbr.getMaxX(), mbr.getMaxY(), buffer);
+        if (num > buffer.length) {
+            buffer = new int[Math.max(num, buffer.length * 2)];
+            SEARCH_BUFFER.set(buffer);
+            rtree.search(mbr.getMinX(), mbr.getMinY(), mbr.getMaxX(), mbr.getMaxY(), buffer);
+        }
         List<CandidatePoint> result = new ArrayList<>();
-        roadSegmentIterable.forEach(roadSegment1 -> {
-            CandidatePoint candiPt = calCandidatePoint(pt, roadSegment1);
+        for (int i = 0; i < num; i++) {
+            CandidatePoint candiPt = calCandidatePoint(pt, rtree.getRoadSegment(buffer[i]));
             if (candiPt.errorDistanceInMeter <= dist) {
                 result.add(candiPt);
             }
-        });
-        return !result.isEmpty() ? result : new ArrayList<>();
+        }
+        return result;
     }
 
     /**
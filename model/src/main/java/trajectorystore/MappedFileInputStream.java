@@ -0,0 +1,96 @@
+package trajectorystore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * read a file sequentially through memory-mapped windows, so files larger than 2GB can be scanned
+ *
+ * @date 2021/07/29
+ */
+class MappedFileInputStream extends InputStream {
+
+    private static final long WINDOW_BYTES = 64L << 20;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    private MappedByteBuffer window;
+
+    /**
+     * file offset of the first byte of the window
+     */
+    private long windowStart = 0;
+
+    MappedFileInputStream(String path) throws IOException {
+        this.file = new RandomAccessFile(path, "r");
+        this.channel = file.getChannel();
+        this.size = channel.size();
+        map(0);
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = Math.min(start, size);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(WINDOW_BYTES, size - windowStart));
+    }
+
+    /**
+     * @return false at the end of the file
+     */
+    private boolean ensureWindow() throws IOException {
+        if (window.hasRemaining()) {
+            return true;
+        }
+        if (windowStart + window.limit() >= size) {
+            return false;
+        }
+        map(windowStart + window.limit());
+        return true;
+    }
+
+    void seek(long position) throws IOException {
+        if (position >= windowStart && position <= windowStart + window.limit()) {
+            window.position((int) (position - windowStart));
+        } else {
+            map(position);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        return ensureWindow() ? window.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!ensureWindow()) {
+            return -1;
+        }
+        int read = Math.min(length, window.remaining());
+        window.get(bytes, offset, read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long position = Math.min(windowStart + window.position() + Math.max(n, 0), size);
+        long skipped = position - windowStart - window.position();
+        seek(position);
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+}
@@ -0,0 +1,128 @@
+package trajectorystore;
+
+import java.sql.Timestamp;
+
+/**
+ * parse timestamps of the fixed layout yyyy-MM-dd HH:mm:ss[.fffffffff] by reading the digits at their positions,
+ * the wall time is interpreted in the default time zone as Timestamp.valueOf does (also across daylight saving changes)
+ * and the zone offset is cached per hour. anything else, e.g. single digit month or day, is passed to Timestamp.valueOf,
+ * so the result always equals Timestamp.valueOf(...).getTime(). not thread safe
+ *
+ * @date 2021/07/28
+ */
+public class TimestampParser {
+
+    private static final long MILLIS_PER_HOUR = 3600_000L;
+
+    /**
+     * yyyy-MM-dd HH:mm:ss
+     */
+    private static final int SECOND_LENGTH = 19;
+
+    /**
+     * Timestamp.valueOf accepts at most nanoseconds
+     */
+    private static final int MAX_FRACTION_DIGITS = 9;
+
+    private long cachedHour = Long.MIN_VALUE;
+
+    private long cachedOffset;
+
+    /**
+     * the zone offset changes within the cached hour, every time has to be converted on its own
+     */
+    private boolean cachedIrregular;
+
+    /**
+     * @param s     characters
+     * @param start start of the timestamp
+     * @param end   end of the timestamp (exclusive)
+     * @return epoch millis, fractions of a millisecond are dropped
+     */
+    public long parse(CharSequence s, int start, int end) {
+        if (!isFixedLayout(s, start, end)) {
+            return Timestamp.valueOf(s.subSequence(start, end).toString()).getTime();
+        }
+        int year = digits(s, start, 4);
+        int month = digits(s, start + 5, 2);
+        int day = digits(s, start + 8, 2);
+        int hour = digits(s, start + 11, 2);
+        int minute = digits(s, start + 14, 2);
+        int second = digits(s, start + 17, 2);
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 59) {
+            // Timestamp.valueOf rejects some of them and rolls the others over
+            return Timestamp.valueOf(s.subSequence(start, end).toString()).getTime();
+        }
+        int millis = 0;
+        for (int i = start + SECOND_LENGTH + 1, scale = 100; i < end && scale > 0; i++, scale /= 10) {
+            millis += (s.charAt(i) - '0') * scale;
+        }
+        long wallHour = daysFromCivil(year, month, day) * 24 + hour;
+        if (wallHour != cachedHour) {
+            long epochMillis = toEpochMillis(year, month, day, hour, 0, 0);
+            long nextEpochMillis = toEpochMillis(year, month, day, hour + 1, 0, 0);
+            cachedOffset = wallHour * MILLIS_PER_HOUR - epochMillis;
+            cachedIrregular = nextEpochMillis - epochMillis != MILLIS_PER_HOUR;
+            cachedHour = wallHour;
+        }
+        if (cachedIrregular) {
+            return toEpochMillis(year, month, day, hour, minute, second) + millis;
+        }
+        return wallHour * MILLIS_PER_HOUR + minute * 60_000L + second * 1000L + millis - cachedOffset;
+    }
+
+    /**
+     * yyyy-MM-dd HH:mm:ss with an optional fraction of 1 to 9 digits
+     */
+    private static boolean isFixedLayout(CharSequence s, int start, int end) {
+        int length = end - start;
+        if (length != SECOND_LENGTH && (length < SECOND_LENGTH + 2 || length > SECOND_LENGTH + 1 + MAX_FRACTION_DIGITS
+                || s.charAt(start + SECOND_LENGTH) != '.')) {
+            return false;
+        }
+        if (s.charAt(start + 4) != '-' || s.charAt(start + 7) != '-' || s.charAt(start + 10) != ' '
+                || s.charAt(start + 13) != ':' || s.charAt(start + 16) != ':') {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            int offset = i - start;
+            if (offset != 4 && offset != 7 && offset != 10 && offset != 13 && offset != 16 && offset != SECOND_LENGTH
+                    && !isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * the same local time conversion as Timestamp.valueOf, hour may be 24
+     */
+    @SuppressWarnings("deprecation")
+    private static long toEpochMillis(int year, int month, int day, int hour, int minute, int second) {
+        return new Timestamp(year - 1900, month - 1, day, hour, minute, second, 0).getTime();
+    }
+
+    private static int digits(CharSequence s, int start, int num) {
+        int value = 0;
+        for (int i = start; i < start + num; i++) {
+            value = value * 10 + (s.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    /**
+     * days from 1970-01-01 to the gregorian date
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
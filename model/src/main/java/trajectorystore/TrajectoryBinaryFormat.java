@@ -0,0 +1,249 @@
+package trajectorystore;
+
+import org.apache.spark.model.st.STCoord;
+import org.apache.spark.model.st.STCoordSequence;
+import org.apache.spark.model.st.STPoint;
+import org.apache.spark.model.st.Trajectory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * binary trajectory container, little endian:
+ * header(magic, version, coordinate scale), followed by one block per trajectory.
+ * a block is sync marker(8 bytes), payload length(int), crc32 of the payload(int), payload.
+ * the payload is columnar: oid length and utf-8 bytes, point count, then the longitude column,
+ * the latitude column and the time column. coordinates are fixed-point (degree * coordinate scale)
+ * and times are epoch millis, every column stores the first value and then the deltas, all as zigzag varints.
+ * a reader starting at an arbitrary offset finds the next block by the sync marker, so files can be split anywhere.
+ *
+ * @date 2021/07/29
+ */
+public final class TrajectoryBinaryFormat {
+
+    static final int MAGIC = 0x544a4242;
+
+    static final int VERSION = 1;
+
+    public static final int HEADER_BYTES = 12;
+
+    /**
+     * bytes before the payload of every block
+     */
+    static final int BLOCK_HEADER_BYTES = 16;
+
+    static final long SYNC = 0xfe5a17c3d28e96ffL;
+
+    /**
+     * default coordinate scale, 1e-7 degree is about 1cm
+     */
+    public static final int DEFAULT_COORD_SCALE = 10_000_000;
+
+    private TrajectoryBinaryFormat() {
+    }
+
+    /**
+     * @return coordinate scale written in the header
+     */
+    static int readHeader(byte[] header) throws IOException {
+        if (getInt(header, 0) != MAGIC) {
+            throw new IOException("not a binary trajectory file");
+        }
+        int version = getInt(header, 4);
+        if (version != VERSION) {
+            throw new IOException("unsupported binary trajectory version: " + version);
+        }
+        return getInt(header, 8);
+    }
+
+    /**
+     * check whether the bytes start with the binary trajectory header
+     */
+    public static boolean isBinary(byte[] head, int length) {
+        return length >= 4 && getInt(head, 0) == MAGIC;
+    }
+
+    static byte[] header(int coordScale) {
+        byte[] header = new byte[HEADER_BYTES];
+        putInt(header, 0, MAGIC);
+        putInt(header, 4, VERSION);
+        putInt(header, 8, coordScale);
+        return header;
+    }
+
+    /**
+     * encode the whole block of a trajectory, including the sync marker
+     *
+     * @param buffer reused buffer, grown when it is too small
+     * @return buffer holding the block in [0, blockLength)
+     */
+    static Buffer encodeBlock(Trajectory trajectory, int coordScale, Buffer buffer) {
+        List<STPoint> points = trajectory.getSTPointList();
+        byte[] oid = trajectory.getOid().getBytes(StandardCharsets.UTF_8);
+        buffer.reset();
+        buffer.putLong(SYNC);
+        buffer.putInt(0);
+        buffer.putInt(0);
+        buffer.putVarLong(oid.length);
+        buffer.put(oid);
+        buffer.putVarLong(points.size());
+        long pre = 0;
+        for (STPoint point : points) {
+            long fixed = Math.round(point.getX() * coordScale);
+            buffer.putVarLong(zigzag(fixed - pre));
+            pre = fixed;
+        }
+        pre = 0;
+        for (STPoint point : points) {
+            long fixed = Math.round(point.getY() * coordScale);
+            buffer.putVarLong(zigzag(fixed - pre));
+            pre = fixed;
+        }
+        pre = 0;
+        for (STPoint point : points) {
+            long time = point.getTime().getTime();
+            buffer.putVarLong(zigzag(time - pre));
+            pre = time;
+        }
+        int payloadLength = buffer.length - BLOCK_HEADER_BYTES;
+        putInt(buffer.bytes, 8, payloadLength);
+        putInt(buffer.bytes, 12, crc32(buffer.bytes, BLOCK_HEADER_BYTES, payloadLength));
+        return buffer;
+    }
+
+    /**
+     * decode the payload of a block
+     */
+    static Trajectory decodePayload(byte[] payload, int length, int coordScale) throws IOException {
+        Buffer in = new Buffer(payload, length);
+        int oidLength = (int) in.getVarLong();
+        String oid = new String(payload, in.position, oidLength, StandardCharsets.UTF_8);
+        in.position += oidLength;
+        int pointNum = (int) in.getVarLong();
+        long[] lngs = new long[pointNum];
+        long[] lats = new long[pointNum];
+        long pre = 0;
+        for (int i = 0; i < pointNum; i++) {
+            pre += unzigzag(in.getVarLong());
+            lngs[i] = pre;
+        }
+        pre = 0;
+        for (int i = 0; i < pointNum; i++) {
+            pre += unzigzag(in.getVarLong());
+            lats[i] = pre;
+        }
+        STCoord[] stCoords = new STCoord[pointNum];
+        double scale = coordScale;
+        pre = 0;
+        for (int i = 0; i < pointNum; i++) {
+            pre += unzigzag(in.getVarLong());
+            stCoords[i] = new STCoord(lngs[i] / scale, lats[i] / scale, new Timestamp(pre));
+        }
+        if (in.position != length) {
+            throw new IOException("corrupt trajectory block");
+        }
+        return new Trajectory(oid, new STCoordSequence(stCoords));
+    }
+
+    static int crc32(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8
+                | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * growable byte array with varint encoding
+     */
+    static final class Buffer {
+
+        byte[] bytes;
+
+        int length;
+
+        int position;
+
+        Buffer(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        private Buffer(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        void reset() {
+            length = 0;
+        }
+
+        private void ensure(int more) {
+            if (length + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+            }
+        }
+
+        void put(byte[] value) {
+            ensure(value.length);
+            System.arraycopy(value, 0, bytes, length, value.length);
+            length += value.length;
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            TrajectoryBinaryFormat.putInt(bytes, length, value);
+            length += 4;
+        }
+
+        void putLong(long value) {
+            putInt((int) value);
+            putInt((int) (value >>> 32));
+        }
+
+        void putVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        long getVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= length) {
+                    throw new IOException("corrupt trajectory block");
+                }
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("corrupt trajectory block");
+        }
+    }
+}
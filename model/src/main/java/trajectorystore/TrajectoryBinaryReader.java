@@ -0,0 +1,221 @@
+package trajectorystore;
+
+import org.apache.spark.model.st.Trajectory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * read trajectories in the binary trajectory format, see {@link TrajectoryBinaryFormat}.
+ * a reader of the byte range [start, end) returns every block whose sync marker starts in the range,
+ * so the readers of adjacent ranges together return every block exactly once
+ *
+ * @date 2021/07/29
+ */
+public class TrajectoryBinaryReader implements Iterator<Trajectory>, Closeable {
+
+    private final InputStream in;
+
+    private final long end;
+
+    private final int coordScale;
+
+    /**
+     * file offset of the next unread byte
+     */
+    private long position;
+
+    /**
+     * whether the stream is at a block boundary
+     */
+    private boolean synced = false;
+
+    private byte[] payload = new byte[4096];
+
+    private final byte[] intBytes = new byte[8];
+
+    private long blockPosition = -1;
+
+    private Trajectory next;
+
+    private boolean finished = false;
+
+    /**
+     * @param in         stream positioned at start
+     * @param start      file offset of the first byte of the range, not less than the header size
+     * @param end        file offset after the last byte of the range
+     * @param coordScale coordinate scale from the file header, see {@link #readCoordScale(InputStream)}
+     */
+    public TrajectoryBinaryReader(InputStream in, long start, long end, int coordScale) {
+        if (start < TrajectoryBinaryFormat.HEADER_BYTES) {
+            throw new IllegalArgumentException("start must be after the header");
+        }
+        this.in = in;
+        this.position = start;
+        this.end = end;
+        this.coordScale = coordScale;
+    }
+
+    /**
+     * memory-map the whole file and scan it sequentially
+     */
+    public static TrajectoryBinaryReader open(String path) throws IOException {
+        return open(path, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * memory-map the file and scan the blocks of the byte range [start, end)
+     */
+    public static TrajectoryBinaryReader open(String path, long start, long end) throws IOException {
+        MappedFileInputStream in = new MappedFileInputStream(path);
+        try {
+            int coordScale = readCoordScale(in);
+            start = Math.max(start, TrajectoryBinaryFormat.HEADER_BYTES);
+            in.seek(start);
+            return new TrajectoryBinaryReader(in, start, end, coordScale);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * read the file header from a stream positioned at the beginning of the file
+     *
+     * @return coordinate scale of the file
+     */
+    public static int readCoordScale(InputStream in) throws IOException {
+        byte[] header = new byte[TrajectoryBinaryFormat.HEADER_BYTES];
+        readFully(in, header, header.length);
+        return TrajectoryBinaryFormat.readHeader(header);
+    }
+
+    /**
+     * @return file offset of the block of the trajectory returned last
+     */
+    public long getBlockPosition() {
+        return blockPosition;
+    }
+
+    /**
+     * @return file offset of the next unread byte
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !finished) {
+            try {
+                next = readNext();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            finished = next == null;
+        }
+        return next != null;
+    }
+
+    @Override
+    public Trajectory next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Trajectory result = next;
+        next = null;
+        return result;
+    }
+
+    private Trajectory readNext() throws IOException {
+        long blockStart;
+        if (synced) {
+            if (position >= end) {
+                return null;
+            }
+            blockStart = position;
+            int first = in.read();
+            if (first < 0) {
+                return null;
+            }
+            intBytes[0] = (byte) first;
+            readFully(in, intBytes, 1, 7);
+            position += 8;
+            long marker = (TrajectoryBinaryFormat.getInt(intBytes, 0) & 0xffffffffL)
+                    | (long) TrajectoryBinaryFormat.getInt(intBytes, 4) << 32;
+            if (marker != TrajectoryBinaryFormat.SYNC) {
+                throw new IOException("corrupt trajectory file, no sync marker at " + blockStart);
+            }
+        } else {
+            blockStart = scanSync();
+            if (blockStart < 0) {
+                return null;
+            }
+            synced = true;
+        }
+        readFully(in, intBytes, 8);
+        position += 8;
+        int length = TrajectoryBinaryFormat.getInt(intBytes, 0);
+        int crc = TrajectoryBinaryFormat.getInt(intBytes, 4);
+        if (length < 0) {
+            throw new IOException("corrupt trajectory block at " + blockStart);
+        }
+        if (payload.length < length) {
+            payload = new byte[Math.max(length, payload.length * 2)];
+        }
+        readFully(in, payload, length);
+        position += length;
+        if (TrajectoryBinaryFormat.crc32(payload, 0, length) != crc) {
+            throw new IOException("corrupt trajectory block at " + blockStart);
+        }
+        blockPosition = blockStart;
+        return TrajectoryBinaryFormat.decodePayload(payload, length, coordScale);
+    }
+
+    /**
+     * read until the sync marker
+     *
+     * @return file offset of the sync marker, -1 if no sync marker starts before end
+     */
+    private long scanSync() throws IOException {
+        long window = 0;
+        int filled = 0;
+        while (position - 7 < end) {
+            int b = in.read();
+            if (b < 0) {
+                return -1;
+            }
+            position++;
+            window = (window >>> 8) | ((long) b << 56);
+            if (++filled >= 8 && window == TrajectoryBinaryFormat.SYNC) {
+                return position - 8;
+            }
+        }
+        return -1;
+    }
+
+    private static void readFully(InputStream in, byte[] bytes, int length) throws IOException {
+        readFully(in, bytes, 0, length);
+    }
+
+    private static void readFully(InputStream in, byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = in.read(bytes, offset, length);
+            if (read < 0) {
+                throw new EOFException("truncated trajectory file");
+            }
+            offset += read;
+            length -= read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,62 @@
+package trajectorystore;
+
+import org.apache.spark.model.st.Trajectory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * write trajectories in the binary trajectory format, see {@link TrajectoryBinaryFormat}
+ *
+ * @date 2021/07/29
+ */
+public class TrajectoryBinaryWriter implements Closeable {
+
+    private final OutputStream out;
+
+    private final int coordScale;
+
+    private final TrajectoryBinaryFormat.Buffer buffer = new TrajectoryBinaryFormat.Buffer(4096);
+
+    private long trajectoryNum = 0;
+
+    public TrajectoryBinaryWriter(OutputStream out) throws IOException {
+        this(out, TrajectoryBinaryFormat.DEFAULT_COORD_SCALE);
+    }
+
+    /**
+     * @param out        the header is written immediately
+     * @param coordScale coordinates are stored as round(degree * coordScale)
+     */
+    public TrajectoryBinaryWriter(OutputStream out, int coordScale) throws IOException {
+        if (coordScale <= 0) {
+            throw new IllegalArgumentException("coordinate scale must be positive");
+        }
+        this.out = out;
+        this.coordScale = coordScale;
+        out.write(TrajectoryBinaryFormat.header(coordScale));
+    }
+
+    public static TrajectoryBinaryWriter create(String path) throws IOException {
+        return new TrajectoryBinaryWriter(new BufferedOutputStream(Files.newOutputStream(Paths.get(path)), 1 << 16));
+    }
+
+    public void write(Trajectory trajectory) throws IOException {
+        TrajectoryBinaryFormat.encodeBlock(trajectory, coordScale, buffer);
+        out.write(buffer.bytes, 0, buffer.length);
+        trajectoryNum++;
+    }
+
+    public long getTrajectoryNum() {
+        return trajectoryNum;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,203 @@
+package trajectorystore;
+
+import org.apache.spark.model.st.STCoord;
+import org.apache.spark.model.st.STCoordSequence;
+import org.apache.spark.model.st.Trajectory;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+/**
+ * parse a trajectory line [oid,[["yyyy-MM-dd HH:mm:ss",lng,lat],...]] in a single pass,
+ * without intermediate strings, coordinates are written to the STCoord array directly.
+ * an instance can be reused but is not thread safe
+ *
+ * @date 2021/07/28
+ */
+public class TrajectoryTextParser {
+
+    /**
+     * the division is correctly rounded when the significant digits are below this value and there are at most 22 decimals
+     */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final TimestampParser timestampParser = new TimestampParser();
+
+    private STCoord[] coordBuffer = new STCoord[256];
+
+    private CharSequence s;
+
+    private int pos;
+
+    /**
+     * @param line trajectory line
+     * @return trajectory
+     */
+    public Trajectory parse(CharSequence line) {
+        s = line;
+        pos = 0;
+        try {
+            skipWhitespace();
+            expect('[');
+            String oid = parseOid();
+            expect(',');
+            skipWhitespace();
+            expect('[');
+            int coordNum = 0;
+            skipWhitespace();
+            if (peek() != ']') {
+                do {
+                    if (coordNum == coordBuffer.length) {
+                        coordBuffer = Arrays.copyOf(coordBuffer, coordNum * 2);
+                    }
+                    coordBuffer[coordNum++] = parseCoord();
+                    skipWhitespace();
+                } while (tryConsume(','));
+            }
+            expect(']');
+            skipWhitespace();
+            expect(']');
+            STCoord[] stCoords = Arrays.copyOf(coordBuffer, coordNum);
+            Arrays.fill(coordBuffer, 0, coordNum, null);
+            return new Trajectory(oid, new STCoordSequence(stCoords));
+        } finally {
+            s = null;
+        }
+    }
+
+    private String parseOid() {
+        skipWhitespace();
+        int start = pos;
+        int end;
+        if (tryConsume('"')) {
+            start = pos;
+            while (peek() != '"') {
+                pos++;
+            }
+            end = pos++;
+        } else {
+            while (peek() != ',') {
+                pos++;
+            }
+            end = pos;
+            while (end > start && Character.isWhitespace(s.charAt(end - 1))) {
+                end--;
+            }
+        }
+        skipWhitespace();
+        return s.subSequence(start, end).toString();
+    }
+
+    /**
+     * ["yyyy-MM-dd HH:mm:ss",lng,lat]
+     */
+    private STCoord parseCoord() {
+        skipWhitespace();
+        expect('[');
+        skipWhitespace();
+        boolean quoted = tryConsume('"');
+        int start = pos;
+        while (pos < s.length() && s.charAt(pos) != (quoted ? '"' : ',')) {
+            pos++;
+        }
+        long time = timestampParser.parse(s, start, pos);
+        if (quoted) {
+            expect('"');
+        }
+        skipWhitespace();
+        expect(',');
+        double lng = parseDouble();
+        expect(',');
+        double lat = parseDouble();
+        if (peek() != ']') {
+            throw new IllegalArgumentException("require three attributes: lng, lat, time, but found more at " + pos);
+        }
+        pos++;
+        return new STCoord(lng, lat, new Timestamp(time));
+    }
+
+    /**
+     * fast decimal parsing, too many significant digits or an exponent are passed to Double.parseDouble
+     */
+    private double parseDouble() {
+        skipWhitespace();
+        int start = pos;
+        boolean negative = tryConsume('-');
+        if (!negative) {
+            tryConsume('+');
+        }
+        long mantissa = 0;
+        int digitNum = 0;
+        int scale = 0;
+        boolean fraction = false;
+        boolean exact = true;
+        while (pos < s.length()) {
+            char c = s.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                    mantissa = mantissa * 10 + (c - '0');
+                } else {
+                    exact = false;
+                }
+                digitNum++;
+                if (fraction) {
+                    scale++;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else if (c == 'e' || c == 'E' || c == '-' || c == '+') {
+                exact = false;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        int end = pos;
+        skipWhitespace();
+        if (digitNum == 0) {
+            throw new IllegalArgumentException("number expected at " + start);
+        }
+        if (!exact || scale >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(s.subSequence(start, end).toString());
+        }
+        double value = mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    private char peek() {
+        if (pos >= s.length()) {
+            throw new IllegalArgumentException("unexpected end of trajectory at " + pos);
+        }
+        return s.charAt(pos);
+    }
+
+    private boolean tryConsume(char c) {
+        if (pos < s.length() && s.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw new IllegalArgumentException("'" + c + "' expected at " + pos + " but found '" + s.charAt(pos) + "'");
+        }
+        pos++;
+    }
+
+    private void skipWhitespace() {
+        while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+            pos++;
+        }
+    }
+}
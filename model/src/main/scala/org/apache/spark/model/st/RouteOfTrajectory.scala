@@ -10,14 +10,52 @@ import org.locationtech.jts.geom.Envelope
 
 /**
  * Route of Trajectory for constructing Trajectory MapMatch result
+ * the route is stored as road segment ids and enter times in epoch millis,
+ * sub routes and their geometry are only created when asked for
  *
- * @param endTime   endTime of route of trajectory
- * @param isSpatial whether subRoutes contains spatial attribute
+ * @param initialRoadSegmentIds id of every road segment in the route
+ * @param initialEnterTimes     enter time of every road segment in epoch millis
+ * @param endTimeInMs           leave time of the last road segment in epoch millis
  */
 class RouteOfTrajectory(val oid: String,
-                        val subRoutes: Array[SubRoute],
-                        val endTime: Timestamp,
-                        var isSpatial: Boolean) extends TemporalLine[SubRoute] {
+                        initialRoadSegmentIds: Array[Int],
+                        initialEnterTimes: Array[Long],
+                        val endTimeInMs: Long) extends TemporalLine[SubRoute] {
+  require(initialRoadSegmentIds.length == initialEnterTimes.length, "every road segment needs an enter time")
+
+  private var segmentIds: Array[Int] = initialRoadSegmentIds
+
+  private var segmentEnterTimes: Array[Long] = initialEnterTimes
+
+  /**
+   * id of every road segment in the route
+   */
+  def roadSegmentIds: Array[Int] = segmentIds
+
+  /**
+   * enter time of every road segment in epoch millis
+   */
+  def enterTimes: Array[Long] = segmentEnterTimes
+
+  /**
+   * whether subRoutes contains spatial attribute
+   */
+  var isSpatial: Boolean = false
+
+  /**
+   * sub routes, created from the compact form on first access
+   */
+  @transient private var subRouteCache: Array[SubRoute] = _
+
+  /**
+   * @param endTime   endTime of route of trajectory
+   * @param isSpatial whether subRoutes contains spatial attribute
+   */
+  def this(oid: String, subRoutes: Array[SubRoute], endTime: Timestamp, isSpatial: Boolean) = {
+    this(oid, subRoutes.map(_.roadSegmentId), subRoutes.map(_.getTime.getTime), endTime.getTime)
+    this.subRouteCache = subRoutes
+    this.isSpatial = isSpatial
+  }
   /**
    * mbr of route of trajectory
    */
@@ -34,15 +72,60 @@ class RouteOfTrajectory(val oid: String,
   private var endNode: RoadNode = _
 
   /**
-   * temporal entities
+   * temporal entities, the same array as [[subRoutes]]
    */
-  override protected var temporalEntities: Array[SubRoute] = subRoutes
+  override protected def temporalEntities: Array[SubRoute] = subRoutes
+
+  /**
+   * replace the sub routes, road segment ids and enter times are taken from the new sub routes
+   * and the cached mbr, start node and end node are dropped, endTimeInMs is kept
+   */
+  override protected def temporalEntities_=(entities: Array[SubRoute]): Unit = {
+    subRouteCache = entities
+    segmentIds = entities.map(_.roadSegmentId)
+    segmentEnterTimes = entities.map(_.getTime.getTime)
+    isSpatial = entities.forall(_.spatialLine.isDefined)
+    mbr = null
+    startNode = null
+    endNode = null
+  }
+
+  /**
+   * sub routes without geometry unless created with it or recovered by [[recover]]
+   */
+  def subRoutes: Array[SubRoute] = {
+    if (subRouteCache == null) {
+      subRouteCache = Array.tabulate(roadSegmentIds.length)(i =>
+        new SubRoute(roadSegmentIds(i), new Timestamp(enterTimes(i))))
+    }
+    subRouteCache
+  }
+
+  /**
+   * leave time of the last road segment
+   */
+  def endTime: Timestamp = new Timestamp(endTimeInMs)
 
   /**
    * get end time of route of trajectory
    */
   override def getEndTime: Timestamp = endTime
 
+  /**
+   * enter time of the first road segment, the end time for an empty route
+   */
+  override def getStartTime: Timestamp = if (enterTimes.isEmpty) endTime else new Timestamp(enterTimes.head)
+
+  override def length: Int = roadSegmentIds.length
+
+  /**
+   * geometry of the i-th road segment, looked up in the road network without creating sub routes
+   *
+   * @param i           index of sub route
+   * @param roadNetwork road network used for generate the route
+   */
+  def getSpatialLine(i: Int, roadNetwork: RoadNetwork): SpatialLine = roadNetwork.getRoadSegment(roadSegmentIds(i))
+
   /**
    * get mbr of route of trajectory
    */
@@ -128,10 +211,10 @@ class RouteOfTrajectory(val oid: String,
    * @return start and end time of the i-th sub route
    */
   def getTimeRange(i: Int): (Timestamp, Timestamp) = {
-    if (i >= subRoutes.length)
-      throw new IndexOutOfBoundsException(s"index out of bound:$i > ${subRoutes.length - 1}")
-    val leaveTime = if (i == subRoutes.length - 1) endTime else subRoutes(i + 1).getTime
-    (subRoutes(i).getTime, leaveTime)
+    if (i >= roadSegmentIds.length)
+      throw new IndexOutOfBoundsException(s"index out of bound:$i > ${roadSegmentIds.length - 1}")
+    val leaveTime = if (i == roadSegmentIds.length - 1) endTimeInMs else enterTimes(i + 1)
+    (new Timestamp(enterTimes(i)), new Timestamp(leaveTime))
   }
 
   /**
@@ -149,7 +232,12 @@ class RouteOfTrajectory(val oid: String,
   }
 
   override def toString: String = {
-    String.format("%s,%s", oid, subRoutes.mkString("Array(", ", ", ")"))
+    val sb = new StringBuilder(oid).append(",Array(")
+    for (i <- roadSegmentIds.indices) {
+      if (i > 0) sb.append(", ")
+      sb.append(roadSegmentIds(i)).append(",\"").append(new Timestamp(enterTimes(i))).append('"')
+    }
+    sb.append(')').toString
   }
 }
 
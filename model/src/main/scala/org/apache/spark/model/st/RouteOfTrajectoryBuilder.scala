@@ -0,0 +1,48 @@
+package org.apache.spark.model.st
+
+import java.util
+
+/**
+ * collect road segment ids and enter times of a route without creating sub routes,
+ * the builder can be reused after build
+ */
+class RouteOfTrajectoryBuilder {
+
+  private var roadSegmentIds = new Array[Int](16)
+
+  private var enterTimes = new Array[Long](16)
+
+  private var size = 0
+
+  /**
+   * append a road segment
+   *
+   * @param roadSegmentId road segment id
+   * @param enterTime     enter time in epoch millis
+   */
+  def add(roadSegmentId: Int, enterTime: Long): RouteOfTrajectoryBuilder = {
+    if (size == roadSegmentIds.length) {
+      roadSegmentIds = util.Arrays.copyOf(roadSegmentIds, size * 2)
+      enterTimes = util.Arrays.copyOf(enterTimes, size * 2)
+    }
+    roadSegmentIds(size) = roadSegmentId
+    enterTimes(size) = enterTime
+    size += 1
+    this
+  }
+
+  def getSize: Int = size
+
+  /**
+   * create the route from the collected road segments and clear the builder
+   *
+   * @param oid         object id
+   * @param endTimeInMs leave time of the last road segment in epoch millis
+   */
+  def build(oid: String, endTimeInMs: Long): RouteOfTrajectory = {
+    val route = new RouteOfTrajectory(oid, util.Arrays.copyOf(roadSegmentIds, size),
+      util.Arrays.copyOf(enterTimes, size), endTimeInMs)
+    size = 0
+    route
+  }
+}
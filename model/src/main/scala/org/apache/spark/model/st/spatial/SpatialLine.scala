@@ -45,6 +45,11 @@ class SpatialLine(coordinateArraySeq: CoordinateArraySequence, factory: Geometry
     this.lengthInKM = lengthInKM
   }
 
+  /**
+   * get the pre calculated length(KiloMeter), -1 if it is not set
+   */
+  def getLengthInKM: Double = lengthInKM
+
   /**
    * get spatial length(Meter)
    * */
@@ -0,0 +1,176 @@
+package org.apache.spark.model.st.spatial.graph
+
+import java.util
+
+/**
+ * immutable compressed-sparse-row road graph, vertices are dense indices in [0, getNodeNum)
+ * out edges of vertex v are the edge indices in [getFirstOutEdge(v), getFirstOutEdge(v + 1))
+ * in edges of vertex v are listed by getInEdge(i), i in [getFirstInEdge(v), getFirstInEdge(v + 1))
+ *
+ * @param nodeIds    road node id of every vertex, sorted ascending
+ * @param lons       longitude of every vertex
+ * @param lats       latitude of every vertex
+ * @param offsets    out edge offsets, length is node num + 1
+ * @param sources    source vertex of every edge
+ * @param targets    target vertex of every edge
+ * @param weights    routing weight of every edge
+ * @param lengths    length(m) of every edge
+ * @param segmentIds road segment id of every edge
+ * @param inOffsets  in edge offsets, length is node num + 1
+ * @param inEdges    edge indices grouped by target vertex
+ * @param segments   road segment of every edge
+ * */
+class CSRRoadGraph private[graph](nodeIds: Array[Int], lons: Array[Double], lats: Array[Double],
+                           offsets: Array[Int], sources: Array[Int], targets: Array[Int],
+                           weights: Array[Double], lengths: Array[Double], segmentIds: Array[Int],
+                           inOffsets: Array[Int], inEdges: Array[Int],
+                           segments: Array[RoadSegment]) {
+
+  /**
+   * get number of vertices
+   * */
+  def getNodeNum: Int = nodeIds.length
+
+  /**
+   * get number of edges
+   * */
+  def getEdgeNum: Int = targets.length
+
+  /**
+   * get vertex index of a road node id
+   *
+   * @param nodeId road node id
+   * @return vertex index, -1 if the node is not in this graph
+   * */
+  def getNodeIndex(nodeId: Int): Int = {
+    val index = util.Arrays.binarySearch(nodeIds, nodeId)
+    if (index < 0) -1 else index
+  }
+
+  def getNodeId(v: Int): Int = nodeIds(v)
+
+  def getLon(v: Int): Double = lons(v)
+
+  def getLat(v: Int): Double = lats(v)
+
+  def getFirstOutEdge(v: Int): Int = offsets(v)
+
+  def getFirstInEdge(v: Int): Int = inOffsets(v)
+
+  def getInEdge(i: Int): Int = inEdges(i)
+
+  def getEdgeSource(e: Int): Int = sources(e)
+
+  def getEdgeTarget(e: Int): Int = targets(e)
+
+  def getEdgeWeight(e: Int): Double = weights(e)
+
+  def getEdgeLength(e: Int): Double = lengths(e)
+
+  def getSegmentId(e: Int): Int = segmentIds(e)
+
+  def getRoadSegment(e: Int): RoadSegment = segments(e)
+
+  /**
+   * the default weight is road length
+   * the graph is immutable, so a user defined weight creates a new graph sharing the topology
+   *
+   * @param weightFunc weight calculating function
+   * */
+  def withWeight(weightFunc: RoadSegment => Double): CSRRoadGraph = {
+    val newWeights = segments.map(weightFunc)
+    new CSRRoadGraph(nodeIds, lons, lats, offsets, sources, targets, newWeights, lengths, segmentIds,
+      inOffsets, inEdges, segments)
+  }
+
+  override def toString: String = s"CSRRoadGraph{ nodeNum: $getNodeNum, edgeNum: $getEdgeNum }"
+}
+
+object CSRRoadGraph {
+
+  /**
+   * build csr graph using road length as weight
+   *
+   * @param roadSegments directed road segments
+   * */
+  def apply(roadSegments: Array[RoadSegment]): CSRRoadGraph = apply(roadSegments, _.getLengthInM)
+
+  /**
+   * build csr graph
+   *
+   * @param roadSegments directed road segments
+   * @param weightFunc   weight calculating function
+   * */
+  def apply(roadSegments: Array[RoadSegment], weightFunc: RoadSegment => Double): CSRRoadGraph = {
+    val allNodeIds = new Array[Int](roadSegments.length * 2)
+    for (i <- roadSegments.indices) {
+      allNodeIds(2 * i) = roadSegments(i).getStartId
+      allNodeIds(2 * i + 1) = roadSegments(i).getEndId
+    }
+    util.Arrays.sort(allNodeIds)
+    var nodeNum = 0
+    for (i <- allNodeIds.indices) {
+      if (i == 0 || allNodeIds(i) != allNodeIds(i - 1)) {
+        allNodeIds(nodeNum) = allNodeIds(i)
+        nodeNum += 1
+      }
+    }
+    val nodeIds = util.Arrays.copyOf(allNodeIds, nodeNum)
+    val lons = new Array[Double](nodeNum)
+    val lats = new Array[Double](nodeNum)
+
+    val edgeNum = roadSegments.length
+    val rawSources = new Array[Int](edgeNum)
+    val rawTargets = new Array[Int](edgeNum)
+    val offsets = new Array[Int](nodeNum + 1)
+    val inOffsets = new Array[Int](nodeNum + 1)
+    for (i <- roadSegments.indices) {
+      val segment = roadSegments(i)
+      val source = util.Arrays.binarySearch(nodeIds, segment.getStartId)
+      val target = util.Arrays.binarySearch(nodeIds, segment.getEndId)
+      rawSources(i) = source
+      rawTargets(i) = target
+      lons(source) = segment.getStartNode.getLon
+      lats(source) = segment.getStartNode.getLat
+      lons(target) = segment.getEndNode.getLon
+      lats(target) = segment.getEndNode.getLat
+      offsets(source + 1) += 1
+      inOffsets(target + 1) += 1
+    }
+    for (v <- 0 until nodeNum) {
+      offsets(v + 1) += offsets(v)
+      inOffsets(v + 1) += inOffsets(v)
+    }
+
+    // counting sort edges by source vertex
+    val sources = new Array[Int](edgeNum)
+    val targets = new Array[Int](edgeNum)
+    val weights = new Array[Double](edgeNum)
+    val lengths = new Array[Double](edgeNum)
+    val segmentIds = new Array[Int](edgeNum)
+    val segments = new Array[RoadSegment](edgeNum)
+    val cursor = util.Arrays.copyOf(offsets, nodeNum)
+    for (i <- roadSegments.indices) {
+      val e = cursor(rawSources(i))
+      cursor(rawSources(i)) += 1
+      val segment = roadSegments(i)
+      sources(e) = rawSources(i)
+      targets(e) = rawTargets(i)
+      weights(e) = weightFunc(segment)
+      lengths(e) = segment.getLengthInM
+      segmentIds(e) = segment.getRoadId
+      segments(e) = segment
+    }
+
+    // group edge indices by target vertex for backward search
+    val inEdges = new Array[Int](edgeNum)
+    val inCursor = util.Arrays.copyOf(inOffsets, nodeNum)
+    for (e <- 0 until edgeNum) {
+      inEdges(inCursor(targets(e))) = e
+      inCursor(targets(e)) += 1
+    }
+
+    new CSRRoadGraph(nodeIds, lons, lats, offsets, sources, targets, weights, lengths, segmentIds,
+      inOffsets, inEdges, segments)
+  }
+}
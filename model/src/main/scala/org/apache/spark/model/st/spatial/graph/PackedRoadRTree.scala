@@ -0,0 +1,168 @@
+package org.apache.spark.model.st.spatial.graph
+
+/**
+ * static sort-tile-recursive packed rtree of road segments, immutable and safe to share between threads.
+ * the mbr of every node is kept in one flat array, 4 doubles per node (minX, minY, maxX, maxY),
+ * node i in [0, getSegmentNum) is the i-th road segment, the internal nodes follow level by level and the root is the last one.
+ * children of internal node i are the nodes in [childStarts(i - getSegmentNum), childEnds(i - getSegmentNum))
+ *
+ * @param segments    road segments in packed order
+ * @param boxes       mbr of every node
+ * @param childStarts first child of every internal node
+ * @param childEnds   end of children of every internal node
+ * */
+class PackedRoadRTree private[graph](segments: Array[RoadSegment], private[graph] val boxes: Array[Double],
+                                     private[graph] val childStarts: Array[Int],
+                                     private[graph] val childEnds: Array[Int]) {
+
+  /**
+   * get number of road segments
+   * */
+  def getSegmentNum: Int = segments.length
+
+  /**
+   * get road segment by its index in this tree
+   * */
+  def getRoadSegment(i: Int): RoadSegment = segments(i)
+
+  /**
+   * find road segments whose mbr intersects the query rectangle, no object is allocated
+   *
+   * @param result buffer of road segment indices, filled up to its length
+   * @return number of road segments found, if it is larger than result.length, retry with a larger buffer
+   * */
+  def search(minX: Double, minY: Double, maxX: Double, maxY: Double, result: Array[Int]): Int = {
+    if (segments.isEmpty) 0
+    else searchNode(boxes.length / 4 - 1, minX, minY, maxX, maxY, result, 0)
+  }
+
+  private def searchNode(node: Int, minX: Double, minY: Double, maxX: Double, maxY: Double,
+                         result: Array[Int], count: Int): Int = {
+    val segmentNum = segments.length
+    var found = count
+    var child = childStarts(node - segmentNum)
+    val end = childEnds(node - segmentNum)
+    while (child < end) {
+      val b = child * 4
+      if (boxes(b) <= maxX && boxes(b + 2) >= minX && boxes(b + 1) <= maxY && boxes(b + 3) >= minY) {
+        if (child < segmentNum) {
+          if (found < result.length) {
+            result(found) = child
+          }
+          found += 1
+        } else {
+          found = searchNode(child, minX, minY, maxX, maxY, result, found)
+        }
+      }
+      child += 1
+    }
+    found
+  }
+
+  override def toString: String = s"PackedRoadRTree{ segmentNum: $getSegmentNum, nodeNum: ${boxes.length / 4} }"
+}
+
+object PackedRoadRTree {
+
+  /**
+   * max children of a node
+   * */
+  val NODE_CAPACITY = 16
+
+  /**
+   * bulk load road segments
+   *
+   * @param roadSegments road segments
+   * */
+  def apply(roadSegments: Array[RoadSegment]): PackedRoadRTree = {
+    val segmentNum = roadSegments.length
+    var nodeNum = segmentNum
+    var levelSize = segmentNum
+    do {
+      levelSize = (levelSize + NODE_CAPACITY - 1) / NODE_CAPACITY
+      nodeNum += levelSize
+    } while (levelSize > 1)
+
+    val boxes = new Array[Double](nodeNum * 4)
+    for (i <- roadSegments.indices) {
+      val envelope = roadSegments(i).getMbr.getEnvelopeInternal
+      boxes(i * 4) = envelope.getMinX
+      boxes(i * 4 + 1) = envelope.getMinY
+      boxes(i * 4 + 2) = envelope.getMaxX
+      boxes(i * 4 + 3) = envelope.getMaxY
+    }
+    val segmentOrder = sortTileRecursive(boxes, 0, segmentNum)
+    val segments = segmentOrder.map(roadSegments(_))
+    permuteBoxes(boxes, 0, segmentOrder)
+
+    val childStarts = new Array[Int](nodeNum - segmentNum)
+    val childEnds = new Array[Int](nodeNum - segmentNum)
+    var levelStart = 0
+    levelSize = segmentNum
+    var next = segmentNum
+    do {
+      val parentNum = (levelSize + NODE_CAPACITY - 1) / NODE_CAPACITY
+      for (p <- 0 until parentNum) {
+        val node = next + p
+        val start = levelStart + p * NODE_CAPACITY
+        val end = math.min(start + NODE_CAPACITY, levelStart + levelSize)
+        childStarts(node - segmentNum) = start
+        childEnds(node - segmentNum) = end
+        boxes(node * 4) = Double.PositiveInfinity
+        boxes(node * 4 + 1) = Double.PositiveInfinity
+        boxes(node * 4 + 2) = Double.NegativeInfinity
+        boxes(node * 4 + 3) = Double.NegativeInfinity
+        for (child <- start until end) {
+          boxes(node * 4) = math.min(boxes(node * 4), boxes(child * 4))
+          boxes(node * 4 + 1) = math.min(boxes(node * 4 + 1), boxes(child * 4 + 1))
+          boxes(node * 4 + 2) = math.max(boxes(node * 4 + 2), boxes(child * 4 + 2))
+          boxes(node * 4 + 3) = math.max(boxes(node * 4 + 3), boxes(child * 4 + 3))
+        }
+      }
+      if (parentNum > 1) {
+        // the new level is packed into the next one, so it is sorted in the same way
+        val order = sortTileRecursive(boxes, next, parentNum)
+        permuteBoxes(boxes, next, order)
+        val starts = order.map(i => childStarts(next + i - segmentNum))
+        val ends = order.map(i => childEnds(next + i - segmentNum))
+        System.arraycopy(starts, 0, childStarts, next - segmentNum, parentNum)
+        System.arraycopy(ends, 0, childEnds, next - segmentNum, parentNum)
+      }
+      levelStart = next
+      levelSize = parentNum
+      next += parentNum
+    } while (levelSize > 1)
+
+    new PackedRoadRTree(segments, boxes, childStarts, childEnds)
+  }
+
+  /**
+   * sort nodes by the x of their centers, cut them into vertical slices of sliceNum * NODE_CAPACITY nodes,
+   * then sort every slice by the y of the centers
+   *
+   * @return order(k) is the offset (from start) of the node that goes to position k
+   * */
+  private def sortTileRecursive(boxes: Array[Double], start: Int, count: Int): Array[Int] = {
+    val centerX = (i: Int) => boxes((start + i) * 4) + boxes((start + i) * 4 + 2)
+    val centerY = (i: Int) => boxes((start + i) * 4 + 1) + boxes((start + i) * 4 + 3)
+    val order = Array.range(0, count).sortBy(centerX)
+    val leafNum = (count + NODE_CAPACITY - 1) / NODE_CAPACITY
+    val sliceSize = math.ceil(math.sqrt(leafNum)).toInt * NODE_CAPACITY
+    var sliceStart = 0
+    while (sliceStart < count) {
+      val sliceEnd = math.min(sliceStart + sliceSize, count)
+      val slice = order.slice(sliceStart, sliceEnd).sortBy(centerY)
+      System.arraycopy(slice, 0, order, sliceStart, slice.length)
+      sliceStart = sliceEnd
+    }
+    order
+  }
+
+  private def permuteBoxes(boxes: Array[Double], start: Int, order: Array[Int]): Unit = {
+    val sorted = new Array[Double](order.length * 4)
+    for (k <- order.indices) {
+      System.arraycopy(boxes, (start + order(k)) * 4, sorted, k * 4, 4)
+    }
+    System.arraycopy(sorted, 0, boxes, start * 4, sorted.length)
+  }
+}
@@ -21,13 +21,16 @@ class RoadGraph(directed: Boolean) extends
    * add road segment as graph edge
    *
    * @param roadSegment road segment
+   * @return false if the graph already contains an edge between the two nodes
    * */
   def addEdge(roadSegment: RoadSegment): Boolean = {
     addVertex(roadSegment.getStartNode)
     addVertex(roadSegment.getEndNode)
-    super.addEdge(roadSegment.getStartNode, roadSegment.getEndNode, roadSegment)
-    setEdgeWeight(roadSegment, roadSegment.getLengthInM)
-    true
+    val added = super.addEdge(roadSegment.getStartNode, roadSegment.getEndNode, roadSegment)
+    if (added) {
+      setEdgeWeight(roadSegment, roadSegment.getLengthInM)
+    }
+    added
   }
 
   /**
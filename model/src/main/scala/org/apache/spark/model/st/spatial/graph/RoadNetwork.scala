@@ -1,15 +1,30 @@
 package org.apache.spark.model.st.spatial.graph
 
-import com.github.davidmoten.rtree.RTree
+import java.util.concurrent.Executors
+import java.util.function.ToDoubleFunction
+
+import com.github.davidmoten.rtree.{Entries, RTree}
 import com.github.davidmoten.rtree.geometry.{Geometries, Rectangle}
+import contractionhierarchy.CustomizableCH
+import org.jgrapht.alg.shortestpath.ContractionHierarchyPrecomputation
 import org.jgrapht.alg.shortestpath.ContractionHierarchyPrecomputation._
 
-class RoadNetwork(val id2SegmentMapping: Map[Int, RoadSegment]) extends Serializable {
+import scala.collection.JavaConverters._
+import scala.concurrent.duration.Duration
+import scala.concurrent.{Await, ExecutionContext, Future}
+
+class RoadNetwork private[graph](val id2SegmentMapping: Map[Int, RoadSegment], expandedMapping: Map[Int, RoadSegment])
+  extends Serializable {
 
   //todo graph 设为[roadNode, roadSegmentID]
   // map match 多点对多点寻求最短路径
 
-  private val expandId2SegmentMapping: Map[Int, RoadSegment] = expandSegments()
+  private val expandId2SegmentMapping: Map[Int, RoadSegment] =
+    if (expandedMapping != null) expandedMapping else expandSegments()
+
+  def this(id2SegmentMapping: Map[Int, RoadSegment]) {
+    this(id2SegmentMapping, null)
+  }
 
   def this(roadSegments: Array[RoadSegment]) {
     //validated id and road segment mapping
@@ -38,16 +53,36 @@ class RoadNetwork(val id2SegmentMapping: Map[Int, RoadSegment]) extends Serializ
    * */
   @transient private var chGraph: ContractionHierarchy[RoadNode, RoadSegment] = _
 
+  /**
+   * customizable ch set by useCustomizableCH, its hierarchy is the ch graph
+   * */
+  @transient private var customizableCH: CustomizableCH = _
+
   /**
    * undirected road graph
    * */
   @transient private var undirectedGraph: RoadGraph = _
 
+  /**
+   * directed compressed-sparse-row road graph
+   * */
+  @transient private var csrGraph: CSRRoadGraph = _
+
   /**
    * road rtree,once it builds, only support query, not support delete and insert
    * */
   @transient private var roadRtree: RTree[RoadSegment, Rectangle] = _
 
+  /**
+   * static packed rtree for candidate search
+   * */
+  @transient private var packedRtree: PackedRoadRTree = _
+
+  /**
+   * immutable indexes published by freeze, getters read it without taking the lock
+   * */
+  @transient @volatile private var frozenIndexes: FrozenIndexes = _
+
   /**
    * get number of road segment
    * */
@@ -73,25 +108,46 @@ class RoadNetwork(val id2SegmentMapping: Map[Int, RoadSegment]) extends Serializ
   /**
    * get road graph, if it's null,build it
    * */
-  def getRoadGraph(directed: Boolean = true): RoadGraph = this.synchronized {
-    if (directed) {
-      if (directedGraph == null) {
-        directedGraph = new RoadGraph(true)
-        expandId2SegmentMapping.values.foreach(directedGraph.addEdge)
+  def getRoadGraph(directed: Boolean = true): RoadGraph = {
+    val frozen = frozenIndexes
+    if (frozen != null) {
+      if (directed) frozen.directedGraph else frozen.undirectedGraph
+    } else this.synchronized {
+      if (directed) {
+        if (directedGraph == null) {
+          directedGraph = buildRoadGraph(directed = true)
+        }
+        directedGraph
+      } else {
+        if (undirectedGraph == null) {
+          undirectedGraph = buildRoadGraph(directed = false)
+        }
+        undirectedGraph
       }
-      return directedGraph
     }
-    if (undirectedGraph == null) {
-      undirectedGraph = new RoadGraph(false)
-      id2SegmentMapping.values.foreach(undirectedGraph.addEdge)
+  }
+
+  /**
+   * get directed csr road graph, if it's null,build it
+   * */
+  def getCSRGraph: CSRRoadGraph = {
+    val frozen = frozenIndexes
+    if (frozen != null) frozen.csrGraph
+    else this.synchronized {
+      if (csrGraph == null) {
+        csrGraph = CSRRoadGraph(expandId2SegmentMapping.values.toArray)
+      }
+      csrGraph
     }
-    undirectedGraph
   }
 
   /**
    * get ch road graph
    * */
-  def getCHGraph: ContractionHierarchy[RoadNode, RoadSegment] = chGraph
+  def getCHGraph: ContractionHierarchy[RoadNode, RoadSegment] = {
+    val frozen = frozenIndexes
+    if (frozen != null) frozen.chGraph else chGraph
+  }
 
   /**
    * expand dual way for this road network
@@ -111,25 +167,178 @@ class RoadNetwork(val id2SegmentMapping: Map[Int, RoadSegment]) extends Serializ
   /**
    * get road segment Rtree index, if it's null, build it
    * */
-  def getRoadRtree: RTree[RoadSegment, Rectangle] = this.synchronized {
-    if (null == roadRtree) {
-      roadRtree = RTree.create[RoadSegment, Rectangle]
-      expandId2SegmentMapping.values.foreach(roadSegment => {
-        roadRtree = roadRtree.add(
-          roadSegment, Geometries.rectangleGeographic(
-            roadSegment.getMbr.getEnvelopeInternal.getMinX, roadSegment.getMbr.getEnvelopeInternal.getMinY,
-            roadSegment.getMbr.getEnvelopeInternal.getMaxX, roadSegment.getMbr.getEnvelopeInternal.getMaxY))
-      })
+  def getRoadRtree: RTree[RoadSegment, Rectangle] = {
+    val frozen = frozenIndexes
+    if (frozen != null) frozen.roadRtree
+    else this.synchronized {
+      if (null == roadRtree) {
+        roadRtree = buildRoadRtree()
+      }
       roadRtree
     }
-    else roadRtree
+  }
+
+  /**
+   * get the static packed road segment rtree, if it's null, build it
+   * */
+  def getPackedRtree: PackedRoadRTree = {
+    val frozen = frozenIndexes
+    if (frozen != null) frozen.packedRtree
+    else this.synchronized {
+      if (null == packedRtree) {
+        packedRtree = PackedRoadRTree(expandId2SegmentMapping.values.toArray)
+      }
+      packedRtree
+    }
+  }
+
+  /**
+   * use the csr graph and the packed rtree loaded from a snapshot instead of building them
+   * */
+  private[graph] def presetIndexes(csrGraph: CSRRoadGraph, packedRtree: PackedRoadRTree): Unit = this.synchronized {
+    if (frozenIndexes != null) {
+      throw new IllegalStateException("road network has been frozen")
+    }
+    this.csrGraph = csrGraph
+    this.packedRtree = packedRtree
   }
 
   def setCHGraph(graph: ContractionHierarchy[RoadNode, RoadSegment]): Unit = {
+    if (frozenIndexes != null) {
+      throw new IllegalStateException("road network has been frozen")
+    }
     chGraph = graph
+    customizableCH = null
+  }
+
+  /**
+   * build a customizable contraction hierarchy on the directed road graph and use it as the ch graph,
+   * the contraction order only depends on the graph structure, so reweight updates the ch without contracting again
+   *
+   * @return this road network
+   * */
+  def useCustomizableCH(): RoadNetwork = this.synchronized {
+    if (frozenIndexes != null) {
+      throw new IllegalStateException("road network has been frozen")
+    }
+    customizableCH = new CustomizableCH(getRoadGraph(true))
+    chGraph = customizableCH.getContractionHierarchy
+    this
+  }
+
+  /**
+   * set the weight of every directed road segment in the directed road graph and customize the ch again,
+   * e.g. hourly travel times, the csr graph keeps the segment lengths. queries must not run at the same time
+   *
+   * @param weight new weight of a directed road segment
+   * */
+  def reweight(weight: ToDoubleFunction[RoadSegment]): Unit = this.synchronized {
+    if (customizableCH == null) {
+      throw new IllegalStateException("the road network has no customizable contraction hierarchy")
+    }
+    val graph = getRoadGraph(true)
+    for (segment <- graph.edgeSet().asScala) {
+      graph.setEdgeWeight(segment, weight.applyAsDouble(segment))
+    }
+    customizableCH.customize()
+  }
+
+  /**
+   * build the directed graph, the csr graph, the packed rtree and optionally the contraction hierarchy
+   * concurrently, then publish them as an immutable snapshot, afterwards all getters are lock free.
+   * the undirected graph and the jgrapht rtree are not used by matching, they are built on first use.
+   * indexes that already exist are reused, the ch graph can not be replaced after freezing.
+   * the snapshot is transient, a deserialized road network has to be frozen again
+   *
+   * @param buildCH whether to compute the contraction hierarchy if it has not been set
+   * @return this road network
+   * */
+  def freeze(buildCH: Boolean = false): RoadNetwork = freeze(buildCH, lazyGraphs = false)
+
+  /**
+   * same as freeze(buildCH), but with lazyGraphs the directed jgrapht graph is built on first use as well,
+   * a network matched only by the csr algorithms never builds it
+   *
+   * @param buildCH    whether to compute the contraction hierarchy if it has not been set
+   * @param lazyGraphs whether to defer building the directed graph
+   * @return this road network
+   * */
+  def freeze(buildCH: Boolean, lazyGraphs: Boolean): RoadNetwork = this.synchronized {
+    val builtUndirected = undirectedGraph
+    val builtRtree = roadRtree
+    val lazyUndirected = () => if (builtUndirected != null) builtUndirected else buildRoadGraph(directed = false)
+    val lazyRtree = () => if (builtRtree != null) builtRtree else buildRoadRtree()
+    if (frozenIndexes == null && lazyGraphs && !(buildCH && chGraph == null)) {
+      val builtDirected = directedGraph
+      frozenIndexes = new FrozenIndexes(
+        () => if (builtDirected != null) builtDirected else buildRoadGraph(directed = true),
+        lazyUndirected, getCSRGraph, lazyRtree, getPackedRtree, chGraph)
+    }
+    if (frozenIndexes == null) {
+      val pool = Executors.newFixedThreadPool(4)
+      implicit val ec: ExecutionContext = ExecutionContext.fromExecutorService(pool)
+      try {
+        val directedFuture = Future(if (directedGraph != null) directedGraph else buildRoadGraph(directed = true))
+        val csrFuture = Future(if (csrGraph != null) csrGraph else CSRRoadGraph(expandId2SegmentMapping.values.toArray))
+        val packedRtreeFuture = Future(if (packedRtree != null) packedRtree
+        else PackedRoadRTree(expandId2SegmentMapping.values.toArray))
+        val chFuture = if (chGraph != null || !buildCH) Future.successful(chGraph)
+        else directedFuture.map(graph =>
+          new ContractionHierarchyPrecomputation[RoadNode, RoadSegment](graph).computeContractionHierarchy())
+
+        val builtDirected = Await.result(directedFuture, Duration.Inf)
+        val frozen = new FrozenIndexes(() => builtDirected, lazyUndirected, Await.result(csrFuture, Duration.Inf),
+          lazyRtree, Await.result(packedRtreeFuture, Duration.Inf), Await.result(chFuture, Duration.Inf))
+        directedGraph = frozen.directedGraph
+        csrGraph = frozen.csrGraph
+        packedRtree = frozen.packedRtree
+        chGraph = frozen.chGraph
+        frozenIndexes = frozen
+      } finally {
+        pool.shutdown()
+      }
+    }
+    this
+  }
+
+  /**
+   * whether freeze has been called
+   * */
+  def isFrozen: Boolean = frozenIndexes != null
+
+  private def buildRoadGraph(directed: Boolean): RoadGraph = {
+    val graph = new RoadGraph(directed)
+    if (directed) expandId2SegmentMapping.values.foreach(graph.addEdge)
+    else id2SegmentMapping.values.foreach(graph.addEdge)
+    graph
+  }
+
+  private def buildRoadRtree(): RTree[RoadSegment, Rectangle] = {
+    val entries = expandId2SegmentMapping.values.map(roadSegment => {
+      val envelope = roadSegment.getMbr.getEnvelopeInternal
+      Entries.entry[RoadSegment, Rectangle](roadSegment, Geometries.rectangleGeographic(
+        envelope.getMinX, envelope.getMinY, envelope.getMaxX, envelope.getMaxY))
+    }).toList
+    RTree.create[RoadSegment, Rectangle].add(entries.asJava)
   }
 
   override def toString: String = {
-    s"RoadNetwork{ segmentNum: ${id2SegmentMapping.size}, contract: ${chGraph != null} }"
+    s"RoadNetwork{ segmentNum: ${id2SegmentMapping.size}, contract: ${getCHGraph != null} }"
   }
 }
+
+/**
+ * indexes of a frozen road network, the graphs and the rtree are built at most once, on first use
+ * */
+private class FrozenIndexes(buildDirectedGraph: () => RoadGraph,
+                            buildUndirectedGraph: () => RoadGraph,
+                            val csrGraph: CSRRoadGraph,
+                            buildRoadRtree: () => RTree[RoadSegment, Rectangle],
+                            val packedRtree: PackedRoadRTree,
+                            val chGraph: ContractionHierarchy[RoadNode, RoadSegment]) {
+  lazy val directedGraph: RoadGraph = buildDirectedGraph()
+
+  lazy val undirectedGraph: RoadGraph = buildUndirectedGraph()
+
+  lazy val roadRtree: RTree[RoadSegment, Rectangle] = buildRoadRtree()
+}
@@ -0,0 +1,263 @@
+package org.apache.spark.model.st.spatial.graph
+
+import java.io.{IOException, RandomAccessFile}
+import java.nio.channels.FileChannel
+import java.nio.{ByteBuffer, ByteOrder}
+
+import contractionhierarchy.CHBinaryAccessor
+import org.apache.spark.model.st.spatial.{SpatialCoord, SpatialCoordSequence}
+
+import scala.collection.mutable
+
+/**
+ * compiled road network, memory-mapped and loaded without parsing wkt or rebuilding the csr graph and the packed rtree.
+ * little endian: header(magic, version, segment num, node num, coordinate num, rtree node num, ch bytes),
+ * then the directed road segments in csr edge order (ids, nodes, direction, level, raw flag, coordinate offsets,
+ * speed limit, length, coordinates), the csr graph, the packed rtree and optionally a contraction hierarchy
+ * in the format of CHBinaryAccessor
+ * */
+object RoadNetworkSnapshot {
+
+  private val MAGIC = 0x524e5353
+
+  private val VERSION = 1
+
+  private val HEADER_BYTES = 28
+
+  /**
+   * write the road network, its contraction hierarchy is included if it has been set
+   *
+   * @param roadNetwork road network
+   * @param path        snapshot file
+   * */
+  def write(roadNetwork: RoadNetwork, path: String): Unit = {
+    val csr = roadNetwork.getCSRGraph
+    val segmentNum = csr.getEdgeNum
+    val nodeNum = csr.getNodeNum
+    val segments = Array.tabulate(segmentNum)(csr.getRoadSegment)
+    // raw segments are the ones given to the road network, the others are the reversed dual-way segments
+    val raw = segments.map(segment =>
+      if (roadNetwork.id2SegmentMapping.get(segment.getRoadId).exists(_ eq segment)) 1 else 0)
+    if (raw.sum != roadNetwork.id2SegmentMapping.size) {
+      throw new IllegalArgumentException("road segment ids collide with the ids of reversed road segments")
+    }
+    val coordOffsets = new Array[Int](segmentNum + 1)
+    for (e <- 0 until segmentNum) {
+      coordOffsets(e + 1) = coordOffsets(e) + segments(e).getNumPoints
+    }
+    val coords = new Array[Double](coordOffsets(segmentNum) * 2)
+    for (e <- 0 until segmentNum; i <- 0 until segments(e).getNumPoints) {
+      val coord = segments(e).getCoordinateN(i)
+      coords((coordOffsets(e) + i) * 2) = coord.getLon
+      coords((coordOffsets(e) + i) * 2 + 1) = coord.getLat
+    }
+
+    val edgeIndex = new mutable.HashMap[Int, Int]()
+    for (e <- 0 until segmentNum) {
+      edgeIndex.put(csr.getSegmentId(e), e)
+    }
+    val rtree = roadNetwork.getPackedRtree
+    val leafEdges = Array.tabulate(rtree.getSegmentNum)(i => edgeIndex(rtree.getRoadSegment(i).getRoadId))
+    val chBytes = if (roadNetwork.getCHGraph == null) ByteBuffer.allocate(0)
+    else CHBinaryAccessor.toBytes(roadNetwork.getCHGraph)
+
+    val file = new RandomAccessFile(path, "rw")
+    try {
+      val channel = file.getChannel
+      channel.truncate(0)
+      val out = new ChannelWriter(channel)
+      out.putInts(Array(MAGIC, VERSION, segmentNum, nodeNum, coords.length / 2, rtree.boxes.length / 4, chBytes.remaining()))
+      out.putInts(segments.map(_.getRoadId))
+      out.putInts(segments.map(_.getStartId))
+      out.putInts(segments.map(_.getEndId))
+      out.putInts(segments.map(_.getDirection))
+      out.putInts(segments.map(_.getLevel))
+      out.putInts(raw)
+      out.putInts(coordOffsets)
+      out.putDoubles(segments.map(_.getSpeedLimit))
+      out.putDoubles(segments.map(_.getLengthInKM))
+      out.putDoubles(coords)
+
+      out.putInts(Array.tabulate(nodeNum)(csr.getNodeId))
+      out.putInts(Array.tabulate(nodeNum + 1)(csr.getFirstOutEdge))
+      out.putInts(Array.tabulate(nodeNum + 1)(csr.getFirstInEdge))
+      out.putInts(Array.tabulate(segmentNum)(csr.getEdgeSource))
+      out.putInts(Array.tabulate(segmentNum)(csr.getEdgeTarget))
+      out.putInts(Array.tabulate(segmentNum)(csr.getInEdge))
+      out.putDoubles(Array.tabulate(nodeNum)(csr.getLon))
+      out.putDoubles(Array.tabulate(nodeNum)(csr.getLat))
+      out.putDoubles(Array.tabulate(segmentNum)(csr.getEdgeWeight))
+      out.putDoubles(Array.tabulate(segmentNum)(csr.getEdgeLength))
+
+      out.putInts(leafEdges)
+      out.putInts(rtree.childStarts)
+      out.putInts(rtree.childEnds)
+      out.putDoubles(rtree.boxes)
+      out.putBytes(chBytes)
+      out.flush()
+    } finally {
+      file.close()
+    }
+  }
+
+  /**
+   * check whether the file starts with the snapshot header
+   * */
+  def isSnapshot(path: String): Boolean = {
+    val file = new RandomAccessFile(path, "r")
+    try {
+      file.length() >= 4 && Integer.reverseBytes(file.readInt()) == MAGIC
+    } finally {
+      file.close()
+    }
+  }
+
+  /**
+   * memory-map a snapshot file and load it, the road network is not frozen
+   * */
+  def load(path: String): RoadNetwork = {
+    val file = new RandomAccessFile(path, "r")
+    try {
+      val channel = file.getChannel
+      if (channel.size() > Int.MaxValue) {
+        throw new IOException("road network snapshot larger than 2GB is not supported")
+      }
+      read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()))
+    } finally {
+      file.close()
+    }
+  }
+
+  /**
+   * decode the snapshot format
+   * */
+  def read(bytes: ByteBuffer): RoadNetwork = {
+    val buffer = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+    if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+      throw new IOException("not a road network snapshot")
+    }
+    val version = buffer.getInt()
+    if (version != VERSION) {
+      throw new IOException(s"unsupported road network snapshot version: $version")
+    }
+    val segmentNum = buffer.getInt()
+    val nodeNum = buffer.getInt()
+    val coordNum = buffer.getInt()
+    val rtreeNodeNum = buffer.getInt()
+    val chLength = buffer.getInt()
+    val bodyBytes = 4L * (segmentNum * 11L + nodeNum * 3L + 3 + (rtreeNodeNum - segmentNum) * 2L) +
+      8L * (segmentNum * 4L + coordNum * 2L + nodeNum * 2L + rtreeNodeNum * 4L) + chLength
+    if (buffer.remaining() != bodyBytes) {
+      throw new IOException("truncated road network snapshot")
+    }
+
+    val roadIds = getInts(buffer, segmentNum)
+    val startIds = getInts(buffer, segmentNum)
+    val endIds = getInts(buffer, segmentNum)
+    val directions = getInts(buffer, segmentNum)
+    val levels = getInts(buffer, segmentNum)
+    val raw = getInts(buffer, segmentNum)
+    val coordOffsets = getInts(buffer, segmentNum + 1)
+    val speedLimits = getDoubles(buffer, segmentNum)
+    val lengthsInKM = getDoubles(buffer, segmentNum)
+    val coords = getDoubles(buffer, coordNum * 2)
+    val segments = new Array[RoadSegment](segmentNum)
+    val rawMapping = Map.newBuilder[Int, RoadSegment]
+    val expandedMapping = Map.newBuilder[Int, RoadSegment]
+    for (e <- 0 until segmentNum) {
+      val spatialCoords = new Array[SpatialCoord](coordOffsets(e + 1) - coordOffsets(e))
+      for (i <- spatialCoords.indices) {
+        val c = (coordOffsets(e) + i) * 2
+        spatialCoords(i) = new SpatialCoord(coords(c), coords(c + 1))
+      }
+      val segment = new RoadSegment(roadIds(e), startIds(e), endIds(e), new SpatialCoordSequence(spatialCoords))
+        .setDirection(directions(e))
+        .setLevel(levels(e))
+        .setSpeedLimit(speedLimits(e))
+        .setLength(lengthsInKM(e))
+      segments(e) = segment
+      expandedMapping += (roadIds(e) -> segment)
+      if (raw(e) != 0) {
+        rawMapping += (roadIds(e) -> segment)
+      }
+    }
+
+    val nodeIds = getInts(buffer, nodeNum)
+    val offsets = getInts(buffer, nodeNum + 1)
+    val inOffsets = getInts(buffer, nodeNum + 1)
+    val sources = getInts(buffer, segmentNum)
+    val targets = getInts(buffer, segmentNum)
+    val inEdges = getInts(buffer, segmentNum)
+    val lons = getDoubles(buffer, nodeNum)
+    val lats = getDoubles(buffer, nodeNum)
+    val weights = getDoubles(buffer, segmentNum)
+    val lengths = getDoubles(buffer, segmentNum)
+    val csr = new CSRRoadGraph(nodeIds, lons, lats, offsets, sources, targets, weights, lengths, roadIds,
+      inOffsets, inEdges, segments)
+
+    val leafEdges = getInts(buffer, segmentNum)
+    val childStarts = getInts(buffer, rtreeNodeNum - segmentNum)
+    val childEnds = getInts(buffer, rtreeNodeNum - segmentNum)
+    val boxes = getDoubles(buffer, rtreeNodeNum * 4)
+    val rtree = new PackedRoadRTree(leafEdges.map(segments(_)), boxes, childStarts, childEnds)
+
+    val roadNetwork = new RoadNetwork(rawMapping.result(), expandedMapping.result())
+    roadNetwork.presetIndexes(csr, rtree)
+    if (chLength > 0) {
+      val chBuffer = buffer.slice()
+      chBuffer.limit(chLength)
+      roadNetwork.setCHGraph(CHBinaryAccessor.read(chBuffer, roadNetwork))
+    }
+    roadNetwork
+  }
+
+  private def getInts(buffer: ByteBuffer, n: Int): Array[Int] = {
+    val array = new Array[Int](n)
+    buffer.asIntBuffer().get(array)
+    buffer.position(buffer.position() + n * 4)
+    array
+  }
+
+  private def getDoubles(buffer: ByteBuffer, n: Int): Array[Double] = {
+    val array = new Array[Double](n)
+    buffer.asDoubleBuffer().get(array)
+    buffer.position(buffer.position() + n * 8)
+    array
+  }
+
+  /**
+   * little endian writer through a small direct buffer, the snapshot is never held in memory as a whole
+   * */
+  private class ChannelWriter(channel: FileChannel) {
+    private val buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN)
+
+    def putInts(array: Array[Int]): Unit = {
+      for (value <- array) {
+        if (buffer.remaining() < 4) flush()
+        buffer.putInt(value)
+      }
+    }
+
+    def putDoubles(array: Array[Double]): Unit = {
+      for (value <- array) {
+        if (buffer.remaining() < 8) flush()
+        buffer.putDouble(value)
+      }
+    }
+
+    def putBytes(bytes: ByteBuffer): Unit = {
+      flush()
+      while (bytes.hasRemaining) {
+        channel.write(bytes)
+      }
+    }
+
+    def flush(): Unit = {
+      buffer.flip()
+      while (buffer.hasRemaining) {
+        channel.write(buffer)
+      }
+      buffer.clear()
+    }
+  }
+}